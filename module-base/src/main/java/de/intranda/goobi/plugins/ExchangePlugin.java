@@ -1,12 +1,18 @@
 package de.intranda.goobi.plugins;
 
+import java.util.List;
+
 import org.apache.commons.configuration.XMLConfiguration;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.plugin.interfaces.IAdministrationPlugin;
 import org.goobi.production.plugin.interfaces.IPlugin;
 
+import de.intranda.goobi.plugins.dump.AccessGuard;
 import de.intranda.goobi.plugins.dump.Exporter;
 import de.intranda.goobi.plugins.dump.Importer;
+import de.intranda.goobi.plugins.dump.JobManager;
+import de.intranda.goobi.plugins.dump.JobSnapshot;
+import de.intranda.goobi.plugins.dump.ProgressChannel;
 import de.sub.goobi.config.ConfigPlugins;
 import lombok.Data;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
@@ -25,9 +31,29 @@ public class ExchangePlugin implements IAdministrationPlugin, IPlugin {
 	 * Constructor for parameter initialisation from config file
 	 */
 	public ExchangePlugin() {
+		AccessGuard.register();
 		XMLConfiguration config = ConfigPlugins.getPluginConfig(PLUGIN_NAME);
 		exporter = new Exporter(config);
 		importer = new Importer(config);
+		ProgressChannel.register(ProgressChannel.JOBS, sequence -> ProgressChannel.createJobsEvent(getJobs()));
+	}
+
+	/**
+	 * get all queued, running and recently finished jobs of all users
+	 * 
+	 * @return snapshots of the jobs, oldest first
+	 */
+	public List<JobSnapshot> getJobs() {
+		return JobManager.getInstance().getJobs();
+	}
+
+	/**
+	 * cancel a queued or running job
+	 * 
+	 * @param id
+	 */
+	public void cancelJob(long id) {
+		JobManager.getInstance().cancel(id);
 	}
 
 	@Override
@@ -0,0 +1,57 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.util.Map;
+
+import org.goobi.beans.User;
+
+import de.sub.goobi.helper.FacesContextHelper;
+import de.sub.goobi.helper.Helper;
+import jakarta.faces.context.FacesContext;
+
+/**
+ * Grants the servlets of the user interface access to the session of a user who is allowed to use the plugin. The servlets cannot check the
+ * roles of the user themselves, because they are loaded by a different class loader than Goobi. Therefore the login of the user is stored in
+ * the session attribute {@value #SESSION_ATTRIBUTE} if the user has the role {@value #ROLE}, the servlets reject all requests of sessions
+ * without it.
+ */
+public final class AccessGuard {
+
+    // name of the session attribute that holds the login, must be identical with the constant in the servlets
+    public static final String SESSION_ATTRIBUTE = "intranda_administration_exchange_user";
+
+    public static final String ROLE = "Plugin_Goobi_Exchange";
+
+    private AccessGuard() {
+    }
+
+    /**
+     * grant or revoke the access of the current session, depending on the roles of the current user
+     */
+    public static void register() {
+        FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
+        if (facesContext == null) {
+            return;
+        }
+        Map<String, Object> sessionMap = facesContext.getExternalContext().getSessionMap();
+        User user = Helper.getCurrentUser();
+        if (user != null && user.getAllUserRoles() != null && user.getAllUserRoles().contains(ROLE)) {
+            sessionMap.put(SESSION_ATTRIBUTE, user.getLogin());
+        } else {
+            sessionMap.remove(SESSION_ATTRIBUTE);
+        }
+    }
+
+    /**
+     * get the login of the current session
+     *
+     * @return the login or null if the session has no access to the plugin
+     */
+    public static String getLogin() {
+        FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
+        if (facesContext == null) {
+            return null;
+        }
+        Object login = facesContext.getExternalContext().getSessionMap().get(SESSION_ATTRIBUTE);
+        return login instanceof String ? (String) login : null;
+    }
+}
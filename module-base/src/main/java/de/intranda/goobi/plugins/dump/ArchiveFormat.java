@@ -0,0 +1,246 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+/**
+ * Formats of the goobi dump files. All formats use the file extension .goobi, the format of an uploaded file is detected by its first bytes.
+ *
+ * <ul>
+ * <li>zip: compatible with all previous versions, the entries are deflated in parallel and can be extracted in parallel from a local
+ * file</li>
+ * <li>tar.zst: tar archive compressed with zstd using several threads, the level can be configured. It compresses METS files much better
+ * than deflate.</li>
+ * <li>tar.lz4: tar archive compressed with lz4, it compresses less but is fast enough to write the archive at the speed of the disks</li>
+ * </ul>
+ */
+public enum ArchiveFormat {
+
+    ZIP("zip", "application/zip", new byte[] { 0x50, 0x4b, 0x03, 0x04 }),
+    TAR_ZSTD("tar.zst", "application/zstd", new byte[] { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd }),
+    TAR_LZ4("tar.lz4", "application/x-lz4", new byte[] { 0x04, 0x22, 0x4d, 0x18 });
+
+    public static final int DEFAULT_ZSTD_LEVEL = 3;
+
+    private static final int MAGIC_LENGTH = 4;
+
+    private final String name;
+    private final String contentType;
+    private final byte[] magic;
+
+    ArchiveFormat(String name, String contentType, byte[] magic) {
+        this.name = name;
+        this.contentType = contentType;
+        this.magic = magic;
+    }
+
+    /**
+     * get the name of the format as it is used in the configuration
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * get the extension of exported files. Zip archives keep the extension .goobi of older versions, tar archives get the extension of their
+     * compression appended, so that other tools recognize them.
+     */
+    public String getFileExtension() {
+        return this == ZIP ? ".goobi" : ".goobi.tar." + name.substring(name.indexOf('.') + 1);
+    }
+
+    /**
+     * get the format for the name from the configuration, the names zstd and lz4 are accepted as well
+     *
+     * @param value name of the format
+     * @return the format
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    public static ArchiveFormat fromName(String value) {
+        String normalized = value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+        switch (normalized) {
+            case "":
+            case "zip":
+                return ZIP;
+            case "tar.zst":
+            case "tar.zstd":
+            case "zstd":
+                return TAR_ZSTD;
+            case "tar.lz4":
+            case "lz4":
+                return TAR_LZ4;
+            default:
+                throw new IllegalArgumentException("Unknown archive format " + value + ", use zip, tar.zst or tar.lz4.");
+        }
+    }
+
+    /**
+     * detect the format from the first bytes of the stream, the stream is reset to its beginning afterwards
+     *
+     * @param in a stream that supports mark and reset
+     * @return the format
+     * @throws IOException if the format is unknown
+     */
+    public static ArchiveFormat detect(BufferedInputStream in) throws IOException {
+        in.mark(MAGIC_LENGTH);
+        byte[] head = in.readNBytes(MAGIC_LENGTH);
+        in.reset();
+        for (ArchiveFormat format : values()) {
+            if (Arrays.equals(head, format.magic)) {
+                return format;
+            }
+        }
+        if (head.length == MAGIC_LENGTH && head[0] == 0x50 && head[1] == 0x4b) {
+            // empty zip file or zip file starting with another record
+            return ZIP;
+        }
+        throw new IOException("The file is not a goobi dump, its format is unknown.");
+    }
+
+    /**
+     * detect the format of a file
+     *
+     * @param file
+     * @return the format
+     * @throws IOException if the format is unknown
+     */
+    public static ArchiveFormat detect(Path file) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file), MAGIC_LENGTH)) {
+            return detect(in);
+        }
+    }
+
+    /**
+     * create a writer for an archive of this format
+     *
+     * @param out the stream to write the archive to
+     * @param threads number of threads for the compression
+     * @param level level of the zstd compression, it is not used by the other formats
+     * @param policy policy for the entries of zip archives
+     * @param spoolFolder folder for spool files of tar archives
+     * @return the writer
+     * @throws IOException
+     */
+    public ArchiveWriter createWriter(OutputStream out, int threads, int level, CompressionPolicy policy, Path spoolFolder) throws IOException {
+        switch (this) {
+            case TAR_ZSTD:
+                ZstdOutputStream zstd = new ZstdOutputStream(CloseShieldOutputStream.wrap(out), level);
+                zstd.setChecksum(true);
+                if (threads > 1) {
+                    zstd.setWorkers(threads);
+                }
+                return new TarWriter(out, new BufferedOutputStream(zstd, 256 * 1024), spoolFolder);
+            case TAR_LZ4:
+                OutputStream lz4 = new LZ4FrameOutputStream(CloseShieldOutputStream.wrap(out), LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB);
+                return new TarWriter(out, new BufferedOutputStream(lz4, 256 * 1024), spoolFolder);
+            default:
+                return new ParallelZipWriter(out, threads, policy);
+        }
+    }
+
+    /**
+     * open an archive whose format is detected from its first bytes
+     *
+     * @param in the archive
+     * @return a reader for the entries of the archive
+     * @throws IOException if the format is unknown
+     */
+    public static ArchiveReader open(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 1024 * 1024);
+        switch (detect(buffered)) {
+            case TAR_ZSTD:
+                return new TarReader(new TarArchiveInputStream(new BufferedInputStream(new ZstdInputStream(buffered), 256 * 1024),
+                        StandardCharsets.UTF_8.name()));
+            case TAR_LZ4:
+                return new TarReader(new TarArchiveInputStream(new BufferedInputStream(new LZ4FrameInputStream(buffered), 256 * 1024),
+                        StandardCharsets.UTF_8.name()));
+            default:
+                // the zip stream of the jdk ignores the ZIP64 extra field of the local header and misreads ZIP64 data descriptors of small entries
+                return new ZipReader(new ZipArchiveInputStream(buffered, StandardCharsets.UTF_8.name()));
+        }
+    }
+
+    private static final class ZipReader implements ArchiveReader {
+
+        private final ZipArchiveInputStream zis;
+
+        private ZipReader(ZipArchiveInputStream zis) {
+            this.zis = zis;
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            ZipArchiveEntry entry = zis.getNextEntry();
+            if (entry == null) {
+                return null;
+            }
+            long time = entry.getLastModifiedTime() == null ? -1 : entry.getLastModifiedTime().toMillis();
+            return new Entry(entry.getName(), entry.isDirectory(), time);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return zis;
+        }
+
+        @Override
+        public void close() throws IOException {
+            zis.close();
+        }
+    }
+
+    private static final class TarReader implements ArchiveReader {
+
+        private final TarArchiveInputStream tis;
+
+        private TarReader(TarArchiveInputStream tis) {
+            this.tis = tis;
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            TarArchiveEntry entry;
+            do {
+                entry = tis.getNextEntry();
+            } while (entry != null && !entry.isFile() && !entry.isDirectory());
+            if (entry == null) {
+                return null;
+            }
+            return new Entry(entry.getName(), entry.isDirectory(), entry.getModTime().getTime());
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return tis;
+        }
+
+        @Override
+        public void close() throws IOException {
+            tis.close();
+        }
+    }
+}
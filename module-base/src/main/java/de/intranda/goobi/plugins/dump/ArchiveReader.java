@@ -0,0 +1,40 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import lombok.Value;
+
+/**
+ * Reads the entries of an archive sequentially from a stream, the format of the archive is detected by {@link ArchiveFormat#open}.
+ */
+public interface ArchiveReader extends Closeable {
+
+    /**
+     * a single entry of the archive
+     */
+    @Value
+    class Entry {
+        // path inside of the archive
+        String name;
+        boolean directory;
+        // last modification time in milliseconds, -1 if it is unknown
+        long lastModified;
+    }
+
+    /**
+     * move to the next entry of the archive
+     *
+     * @return the entry or null if the end of the archive is reached
+     * @throws IOException
+     */
+    Entry next() throws IOException;
+
+    /**
+     * get the content of the current entry, the stream ends at the end of the entry and must not be closed
+     *
+     * @return the content
+     */
+    InputStream getInputStream();
+}
@@ -0,0 +1,67 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Target of an export, the entries are addressed by their path inside of the dump, e.g. metadata/1/meta.xml.
+ */
+public interface ArchiveWriter extends Closeable {
+
+    /**
+     * add the content of a file as new entry
+     *
+     * @param name name of the entry inside of the dump
+     * @param file
+     * @throws IOException
+     */
+    void putFile(String name, Path file) throws IOException;
+
+    /**
+     * add the content of a stream as new entry, the size of the content does not need to be known in advance. The stream is not closed.
+     *
+     * @param name name of the entry inside of the dump
+     * @param in
+     * @param time last modification time in milliseconds
+     * @throws IOException
+     */
+    void putStream(String name, InputStream in, long time) throws IOException;
+
+    /**
+     * add the content of a stream whose size is known in advance, e.g. a file of the scanned trees. Formats that need the size in the header
+     * of the entry use it, the others read the stream until its end.
+     *
+     * @param name name of the entry inside of the dump
+     * @param in
+     * @param time last modification time in milliseconds
+     * @param size expected size of the content
+     * @throws IOException
+     */
+    default void putStream(String name, InputStream in, long time, long size) throws IOException {
+        putStream(name, in, time);
+    }
+
+    /**
+     * write all pending entries, no entries can be added afterwards
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException;
+
+    /**
+     * release all resources of the writer. A writer that was not finished discards the pending entries, the archive stays incomplete.
+     *
+     * @throws IOException
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * get the number of blocks or entries which are still processed in the background
+     *
+     * @return number of pending blocks or entries
+     */
+    int getPendingBlocks();
+}
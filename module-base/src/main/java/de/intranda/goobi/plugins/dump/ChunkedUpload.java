@@ -0,0 +1,400 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BooleanSupplier;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * A goobi dump that is uploaded in chunks of a fixed size. The file is allocated with its final size when the upload is created, each chunk is
+ * written at its offset, so that the browser can send several chunks at the same time and in any order. The received chunks are recorded in
+ * a small state file next to the data, an interrupted upload continues with the missing chunks, even after a restart of the server.
+ *
+ * The content can be read while the upload is running: {@link #openStream(long, BooleanSupplier)} returns a stream that delivers the leading chunks as soon
+ * as they are complete and waits for the next one, so that the extraction starts before the whole file is uploaded.
+ */
+@Log4j2
+public class ChunkedUpload {
+
+    private static final String DATA_SUFFIX = ".upload";
+    private static final String STATE_SUFFIX = ".state";
+
+    private final String id;
+    // login of the user who created the upload, only this user can write or import it
+    private final String owner;
+    private final String name;
+    // identifies the file on the client, e.g. name, size and modification date, to resume the upload
+    private final String key;
+    private final long size;
+    private final int chunkSize;
+    private final int chunks;
+    private final Path file;
+    private final Path stateFile;
+
+    // guarded by this
+    private final BitSet received;
+    private long contiguous;
+    private long lastActivity;
+    private boolean aborted = false;
+
+    private ChunkedUpload(Path folder, String id, String owner, String name, String key, long size, int chunkSize, BitSet received) {
+        this.id = id;
+        this.owner = owner;
+        this.name = name;
+        this.key = key;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunks = (int) ((size + chunkSize - 1) / chunkSize);
+        this.file = folder.resolve(id + DATA_SUFFIX);
+        this.stateFile = folder.resolve(id + STATE_SUFFIX);
+        this.received = received;
+        this.lastActivity = System.currentTimeMillis();
+        updateContiguous();
+    }
+
+    /**
+     * create a new upload and allocate its file
+     *
+     * @param folder folder for the uploaded files
+     * @param id unique id of the upload
+     * @param owner login of the user who creates the upload
+     * @param name file name on the client
+     * @param key identifies the file on the client to resume the upload
+     * @param size size of the file in bytes
+     * @param chunkSize size of the chunks in bytes, the last chunk may be shorter
+     * @return the upload
+     * @throws IOException if the file cannot be allocated, e.g. if the disk is too small
+     */
+    public static ChunkedUpload create(Path folder, String id, String owner, String name, String key, long size, int chunkSize) throws IOException {
+        if (size < 0 || chunkSize <= 0 || (size + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) {
+            throw new IOException("Invalid size of the upload: " + size);
+        }
+        Files.createDirectories(folder);
+        long usable = Files.getFileStore(folder).getUsableSpace();
+        if (usable < size) {
+            throw new IOException("Not enough space for the upload in " + folder + ", " + size + " bytes are needed, " + usable + " are free.");
+        }
+        ChunkedUpload upload = new ChunkedUpload(folder, id, owner, name, key, size, chunkSize, new BitSet());
+        // the file gets its final size right away, the chunks are written at their offsets
+        try (RandomAccessFile raf = new RandomAccessFile(upload.file.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+        upload.saveState();
+        return upload;
+    }
+
+    /**
+     * load an upload that was created before, e.g. after a restart of the server
+     *
+     * @param stateFile the state file of the upload
+     * @return the upload
+     * @throws IOException if the state file cannot be read or the data file is missing
+     */
+    public static ChunkedUpload load(Path stateFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            properties.load(in);
+        }
+        String fileName = stateFile.getFileName().toString();
+        String id = fileName.substring(0, fileName.length() - STATE_SUFFIX.length());
+        try {
+            // uploads of older versions have no owner, nobody can access them until they expire
+            ChunkedUpload upload = new ChunkedUpload(stateFile.getParent(), id, properties.getProperty("owner", ""),
+                    properties.getProperty("name", ""), properties.getProperty("key", ""), Long.parseLong(properties.getProperty("size")),
+                    Integer.parseInt(properties.getProperty("chunkSize")),
+                    BitSet.valueOf(HexFormat.of().parseHex(properties.getProperty("received", ""))));
+            if (!Files.isRegularFile(upload.file) || Files.size(upload.file) != upload.size) {
+                throw new IOException("The data of the upload " + id + " is missing.");
+            }
+            upload.lastActivity = Files.getLastModifiedTime(stateFile).toMillis();
+            return upload;
+        } catch (NumberFormatException | NullPointerException e) {
+            throw new IOException("The state of the upload " + id + " is invalid.", e);
+        }
+    }
+
+    /**
+     * check if the file name is the state file of an upload
+     */
+    public static boolean isStateFile(Path path) {
+        return path.getFileName().toString().endsWith(STATE_SUFFIX);
+    }
+
+    /**
+     * write a chunk at its offset. The chunk is confirmed only after it was written to the disk, a chunk that is received twice is written
+     * again.
+     *
+     * @param index number of the chunk, starting with 0
+     * @param in content of the chunk, it must have exactly the size of the chunk
+     * @param checksum sha-256 checksum of the chunk as hex string or null if the client did not send one
+     * @throws IOException if the chunk is incomplete, the checksum does not match or the file cannot be written
+     */
+    public void writeChunk(int index, InputStream in, String checksum) throws IOException {
+        if (index < 0 || index >= chunks) {
+            throw new IOException("Invalid chunk " + index + ", the upload has " + chunks + " chunks.");
+        }
+        synchronized (this) {
+            if (aborted) {
+                throw new IOException("The upload " + id + " was aborted.");
+            }
+        }
+        long offset = (long) index * chunkSize;
+        int length = (int) Math.min(chunkSize, size - offset);
+        byte[] data = in.readNBytes(length);
+        if (data.length != length || in.read() >= 0) {
+            throw new IOException("Chunk " + index + " has the wrong size, expected " + length + " bytes.");
+        }
+        if (checksum != null && !checksum.isBlank() && !checksum.trim().equalsIgnoreCase(sha256(data))) {
+            throw new IOException("The checksum of chunk " + index + " does not match.");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        }
+        synchronized (this) {
+            received.set(index);
+            lastActivity = System.currentTimeMillis();
+            updateContiguous();
+            saveState();
+            notifyAll();
+        }
+    }
+
+    /**
+     * get the numbers of the chunks that were not received yet in ascending order
+     */
+    public synchronized List<Integer> getMissing() {
+        List<Integer> missing = new ArrayList<>();
+        for (int index = received.nextClearBit(0); index < chunks; index = received.nextClearBit(index + 1)) {
+            missing.add(index);
+        }
+        return missing;
+    }
+
+    public synchronized int getReceivedChunks() {
+        return received.cardinality();
+    }
+
+    public synchronized boolean isComplete() {
+        return received.cardinality() == chunks;
+    }
+
+    public synchronized long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * get the number of bytes at the beginning of the file that are uploaded without gap
+     */
+    public synchronized long getContiguousBytes() {
+        return contiguous;
+    }
+
+    /**
+     * wait until all chunks are received
+     *
+     * @param stallTimeout the upload is considered as stalled if no chunk was received within this time in milliseconds
+     * @param cancelled stops waiting if it returns true
+     * @throws IOException if the upload stalled or was aborted
+     * @throws InterruptedIOException if the thread was interrupted or the wait was cancelled
+     */
+    public synchronized void awaitComplete(long stallTimeout, BooleanSupplier cancelled) throws IOException {
+        while (!isComplete()) {
+            await(stallTimeout, cancelled);
+        }
+    }
+
+    /**
+     * open a stream on the content that can be read while the upload is running. The stream returns the leading chunks as soon as they are
+     * complete and blocks until the following chunk is received.
+     *
+     * @param stallTimeout the stream fails if no chunk was received within this time in milliseconds
+     * @param cancelled the stream stops waiting for the next chunk if it returns true
+     * @return the stream
+     * @throws IOException
+     */
+    public InputStream openStream(long stallTimeout, BooleanSupplier cancelled) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        return new InputStream() {
+            private long position = 0;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                int read = read(single, 0, 1);
+                return read < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (position >= size) {
+                    return -1;
+                }
+                long available = awaitBytes(position, stallTimeout, cancelled);
+                int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available - position)), position);
+                if (read > 0) {
+                    position += read;
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * abort the upload, waiting readers fail and further chunks are rejected
+     */
+    public synchronized void abort() {
+        aborted = true;
+        notifyAll();
+    }
+
+    /**
+     * abort the upload and delete its files
+     */
+    public void delete() {
+        abort();
+        try {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(stateFile);
+        } catch (IOException e) {
+            log.error("Cannot delete the upload " + id, e);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * check if the upload belongs to a user
+     *
+     * @param login login of the user, can be null
+     */
+    public boolean isOwnedBy(String login) {
+        return login != null && !owner.isEmpty() && owner.equals(login);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * get the uploaded file, it is only complete if {@link #isComplete()} returns true
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * wait until the contiguous part of the file reaches beyond the position
+     *
+     * @return the number of contiguous bytes
+     */
+    private synchronized long awaitBytes(long position, long stallTimeout, BooleanSupplier cancelled) throws IOException {
+        while (contiguous <= position) {
+            await(stallTimeout, cancelled);
+        }
+        return contiguous;
+    }
+
+    /**
+     * wait for the next chunk, the caller must hold the lock. The wait is limited to one second, so that a cancellation is noticed.
+     */
+    private void await(long stallTimeout, BooleanSupplier cancelled) throws IOException {
+        if (cancelled.getAsBoolean()) {
+            throw new InterruptedIOException("Waiting for the upload " + id + " was cancelled.");
+        }
+        if (aborted) {
+            throw new IOException("The upload " + id + " was aborted.");
+        }
+        long remaining = lastActivity + stallTimeout - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new IOException("The upload " + id + " stalled, no data was received for " + stallTimeout / 1000 + " seconds.");
+        }
+        try {
+            wait(Math.min(remaining, 1000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for the upload " + id + " was interrupted.");
+        }
+    }
+
+    private void updateContiguous() {
+        contiguous = Math.min(size, (long) received.nextClearBit(0) * chunkSize);
+    }
+
+    /**
+     * write the state file, it is replaced atomically so that a crash leaves either the old or the new state
+     */
+    private void saveState() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("owner", owner);
+        properties.setProperty("name", name);
+        properties.setProperty("key", key);
+        properties.setProperty("size", String.valueOf(size));
+        properties.setProperty("chunkSize", String.valueOf(chunkSize));
+        properties.setProperty("received", HexFormat.of().formatHex(received.toByteArray()));
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, null);
+        }
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String sha256(byte[] data) throws IOException {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
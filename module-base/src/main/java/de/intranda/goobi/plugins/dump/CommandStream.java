@@ -0,0 +1,70 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Stream of the standard output of one or more commands. The commands are started one after another when the output of the previous one is
+ * read completely. If a command fails, reading the stream throws an exception, so that an incomplete dump is never taken for a complete one.
+ */
+public class CommandStream extends InputStream {
+
+    private final String name;
+    private final Deque<List<String>> commands;
+    private ExternalCommand current;
+    private InputStream output;
+
+    public CommandStream(String name, List<List<String>> commands) {
+        this.name = name;
+        this.commands = new ArrayDeque<>(commands);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            if (output == null) {
+                if (commands.isEmpty()) {
+                    return -1;
+                }
+                current = ExternalCommand.start(name, commands.poll(), false, true);
+                output = current.getOutput();
+            }
+            int read = output.read(b, off, len);
+            if (read != -1) {
+                return read;
+            }
+            output.close();
+            output = null;
+            try {
+                current.waitForSuccess();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(name + " was interrupted", e);
+            }
+            current = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        commands.clear();
+        if (current != null) {
+            current.destroy();
+            current = null;
+        }
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+}
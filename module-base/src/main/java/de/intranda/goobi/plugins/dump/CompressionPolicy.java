@@ -0,0 +1,126 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Decides how an entry of the archive gets compressed. Files that are compressed already (images, pdf files, archives) are stored without
+ * compression, text files like METS files or configuration files get deflated. For all other files the entropy of the first block is
+ * measured to find out if deflating them is worth the effort.
+ */
+@Log4j2
+public class CompressionPolicy {
+
+    /**
+     * level that marks entries to be stored without compression
+     */
+    public static final int STORED = -2;
+
+    private static final String DEFAULT_STORE_EXTENSIONS = "tif,tiff,jpg,jpeg,jp2,jpx,png,gif,webp,pdf,zip,gz,tgz,bz2,xz,zst,lz4,7z,rar,jar,war,"
+            + "goobi,docx,xlsx,pptx,odt,ods,epub,mp3,mp4,m4a,m4v,mov,avi,mkv,webm,ogg,ogv,flac,wav";
+    private static final String DEFAULT_DEFLATE_EXTENSIONS = "xml,xsl,xslt,xsd,html,xhtml,htm,txt,csv,tsv,json,properties,conf,cfg,ini,sql,js,"
+            + "css,sh,py,rb,log,md,yml,yaml";
+
+    // number of bytes used for the entropy probe
+    private static final int PROBE_SIZE = 64 * 1024;
+    // files smaller than this are always deflated, the probe would not be meaningful
+    private static final int MIN_PROBE_SIZE = 4 * 1024;
+
+    @Getter
+    private final int level;
+    @Getter
+    private final long storedMaxSize;
+    private final boolean entropyProbe;
+    private final double entropyThreshold;
+    private final Set<String> storeExtensions;
+    private final Set<String> deflateExtensions;
+
+    public CompressionPolicy(XMLConfiguration config) {
+        int configuredLevel = config.getInt("compression[@level]", Deflater.DEFAULT_COMPRESSION);
+        level = clampLevel(configuredLevel);
+        if (level != configuredLevel) {
+            log.warn("The compression level {} is not between -1 and 9, using {} instead.", configuredLevel, level);
+        }
+        storedMaxSize = Math.min(config.getLong("compression[@storedMaxSize]", 64L * 1024 * 1024), Integer.MAX_VALUE);
+        entropyProbe = config.getBoolean("compression[@entropyProbe]", true);
+        entropyThreshold = config.getDouble("compression[@entropyThreshold]", 7.5);
+        storeExtensions = parseExtensions(config.getString("compression[@storeExtensions]", DEFAULT_STORE_EXTENSIONS));
+        deflateExtensions = parseExtensions(config.getString("compression[@deflateExtensions]", DEFAULT_DEFLATE_EXTENSIONS));
+    }
+
+    /**
+     * get the compression level for an entry
+     *
+     * @param name name of the entry
+     * @param firstBlock the first block of the content
+     * @return {@link #STORED} or the deflate level to use
+     */
+    public int getLevel(String name, byte[] firstBlock) {
+        String extension = getExtension(name);
+        if (storeExtensions.contains(extension)) {
+            return STORED;
+        }
+        if (deflateExtensions.contains(extension) || !entropyProbe || firstBlock.length < MIN_PROBE_SIZE) {
+            return level;
+        }
+        return getEntropy(firstBlock, Math.min(firstBlock.length, PROBE_SIZE)) >= entropyThreshold ? STORED : level;
+    }
+
+    /**
+     * limit a deflate level to the valid range, -1 is the default level of the deflater
+     *
+     * @param level
+     * @return the level between -1 and 9
+     */
+    static int clampLevel(int level) {
+        return Math.max(Deflater.DEFAULT_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    /**
+     * calculate the shannon entropy of the given data in bits per byte. Values close to 8 indicate data that is compressed or encrypted already
+     *
+     * @param data
+     * @param length number of bytes to take into account
+     * @return the entropy between 0 and 8
+     */
+    static double getEntropy(byte[] data, int length) {
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+    private static String getExtension(String name) {
+        int slash = name.lastIndexOf('/');
+        int dot = name.lastIndexOf('.');
+        if (dot <= slash) {
+            return "";
+        }
+        return name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> parseExtensions(String value) {
+        Set<String> extensions = new HashSet<>();
+        for (String extension : value.split(",")) {
+            if (!extension.isBlank()) {
+                extensions.add(extension.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return extensions;
+    }
+}
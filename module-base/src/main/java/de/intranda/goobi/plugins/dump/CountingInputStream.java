@@ -0,0 +1,68 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * Input stream that counts the bytes read from the underlying stream. The counter can be read from other threads to report the progress,
+ * optionally a listener gets informed about each block of bytes that was read.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private volatile long count = 0;
+    private final LongConsumer listener;
+
+    public CountingInputStream(InputStream in) {
+        this(in, null);
+    }
+
+    public CountingInputStream(InputStream in, LongConsumer listener) {
+        super(in);
+        this.listener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = super.read();
+        if (result >= 0) {
+            add(1);
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int result = super.read(b, off, len);
+        if (result > 0) {
+            add(result);
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long result = super.skip(n);
+        if (result > 0) {
+            add(result);
+        }
+        return result;
+    }
+
+    private void add(long bytes) {
+        count += bytes;
+        if (listener != null) {
+            listener.accept(bytes);
+        }
+    }
+
+    /**
+     * get the number of bytes read so far
+     * 
+     * @return number of bytes
+     */
+    public long getCount() {
+        return count;
+    }
+}
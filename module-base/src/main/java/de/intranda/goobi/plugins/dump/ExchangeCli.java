@@ -0,0 +1,316 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.XMLConfiguration;
+
+/**
+ * Headless entry point for exports and imports, e.g. for nightly backups by cron or for a scheduled task of Goobi. It uses the same
+ * {@link Exporter} and {@link Importer} as the user interface and needs the classpath and the configuration of the Goobi installation, but
+ * no faces context. The messages of the job are printed to the console while it is running.
+ *
+ * <pre>
+ * export [--config FILE] [--folder DIR] [--include PARTS] [--incremental BASE_DUMP_ID] [--processes IDS] [--format FORMAT] [--volume-size MB]
+ * snapshot [--config FILE] [--include PARTS]
+ * import FILE [--config FILE] [--include PARTS] [--merge]
+ * </pre>
+ *
+ * PARTS is a comma separated list of rulesets, scripts, config, metadata, dockets, plugins and sql or simply all, which is the default.
+ * FORMAT is zip, tar.zst or tar.lz4, the default is taken from the configuration. With a volume size the export is split into volumes
+ * of this size in MB and an index, the index file is imported like a single dump. The exit code is 0 if the job was successful, 1 if it failed and 2 if the arguments are invalid.
+ */
+public class ExchangeCli {
+
+    public static final String DEFAULT_CONFIG = "/opt/digiverso/goobi/config/plugin_intranda_administration_exchange.xml";
+
+    private static final List<String> PARTS = Arrays.asList("rulesets", "scripts", "config", "metadata", "dockets", "plugins", "sql");
+    private static final long SHUTDOWN_WAIT = 30000;
+
+    private ExchangeCli() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out));
+    }
+
+    /**
+     * execute the export or import that is described by the arguments
+     *
+     * @param args command line arguments
+     * @param out stream for the messages
+     * @return exit code
+     */
+    public static int run(String[] args, PrintStream out) {
+        if (args.length == 0 || !("export".equals(args[0]) || "snapshot".equals(args[0]) || "import".equals(args[0]))) {
+            printUsage(out);
+            return 2;
+        }
+        String config = DEFAULT_CONFIG;
+        String folder = null;
+        String file = null;
+        String incremental = null;
+        String processes = null;
+        ArchiveFormat format = null;
+        Long volumeSize = null;
+        boolean merge = false;
+        Set<String> parts = new HashSet<>(PARTS);
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                if (file != null) {
+                    out.println("Unexpected argument: " + arg);
+                    return 2;
+                }
+                file = arg;
+            } else if ("--merge".equals(arg)) {
+                merge = true;
+            } else if (i + 1 >= args.length) {
+                out.println("Missing value for " + arg);
+                return 2;
+            } else {
+                String value = args[++i];
+                switch (arg) {
+                    case "--config":
+                        config = value;
+                        break;
+                    case "--folder":
+                        folder = value;
+                        break;
+                    case "--include":
+                        parts = parseParts(value);
+                        if (parts == null) {
+                            out.println("Invalid list of parts: " + value);
+                            return 2;
+                        }
+                        break;
+                    case "--incremental":
+                        incremental = value;
+                        break;
+                    case "--processes":
+                        processes = value;
+                        break;
+                    case "--format":
+                        try {
+                            format = ArchiveFormat.fromName(value);
+                        } catch (IllegalArgumentException e) {
+                            out.println(e.getMessage());
+                            return 2;
+                        }
+                        break;
+                    case "--volume-size":
+                        try {
+                            volumeSize = Long.parseLong(value);
+                        } catch (NumberFormatException e) {
+                            volumeSize = -1L;
+                        }
+                        if (volumeSize < 0) {
+                            out.println("Invalid volume size: " + value);
+                            return 2;
+                        }
+                        break;
+                    default:
+                        out.println("Unknown option: " + arg);
+                        return 2;
+                }
+            }
+        }
+
+        XMLConfiguration configuration;
+        try {
+            configuration = new XMLConfiguration(config);
+        } catch (ConfigurationException e) {
+            out.println("The configuration " + config + " could not be read: " + e.getMessage());
+            return 1;
+        }
+
+        if ("snapshot".equals(args[0])) {
+            if (file != null || folder != null || incremental != null || processes != null || format != null || volumeSize != null) {
+                out.println("A snapshot only accepts the options --config and --include.");
+                return 2;
+            }
+            Exporter exporter = createExporter(configuration, parts);
+            boolean success = execute(exporter.getMessageLog(), exporter::getJob, exporter::exportSnapshot, out);
+            if (success) {
+                out.println(exporter.getSnapshotPath());
+            }
+            return success ? 0 : 1;
+        }
+
+        if ("export".equals(args[0])) {
+            if (file != null) {
+                out.println("Unexpected argument: " + file);
+                return 2;
+            }
+            Exporter exporter = createExporter(configuration, parts);
+            if (incremental != null) {
+                exporter.setIncremental(true);
+                exporter.setBaseDumpId(incremental);
+            }
+            if (processes != null) {
+                exporter.setRestrict(true);
+                exporter.setRestrictIDs(processes);
+            }
+            if (format != null) {
+                exporter.setArchiveFormat(format);
+            }
+            if (volumeSize != null) {
+                exporter.setVolumeSize(volumeSize * 1024 * 1024);
+            }
+            Path target = folder == null ? Paths.get(exporter.getExportFolder()) : Paths.get(folder);
+            boolean success = execute(exporter.getMessageLog(), exporter::getJob, () -> exporter.exportToFolder(target), out);
+            if (success) {
+                out.println(exporter.getExportFile());
+            }
+            return success ? 0 : 1;
+        }
+
+        if (file == null) {
+            out.println("The file to import is missing.");
+            printUsage(out);
+            return 2;
+        }
+        Importer importer = new Importer(configuration);
+        importer.setIncludeRulesets(parts.contains("rulesets"));
+        importer.setIncludeScripts(parts.contains("scripts"));
+        importer.setIncludeConfiguration(parts.contains("config"));
+        importer.setIncludeMetadata(parts.contains("metadata"));
+        importer.setIncludeDockets(parts.contains("dockets"));
+        importer.setIncludePlugins(parts.contains("plugins"));
+        importer.setIncludeSQLdump(parts.contains("sql"));
+        if (merge) {
+            importer.setMergeMetadata(true);
+        }
+        Path source = Paths.get(file);
+        return execute(importer.getMessageLog(), importer::getJob, () -> importer.importFile(source), out) ? 0 : 1;
+    }
+
+    /**
+     * internal method to create an exporter for the selected parts
+     */
+    private static Exporter createExporter(XMLConfiguration configuration, Set<String> parts) {
+        Exporter exporter = new Exporter(configuration);
+        exporter.setIncludeRulesets(parts.contains("rulesets"));
+        exporter.setIncludeScripts(parts.contains("scripts"));
+        exporter.setIncludeConfiguration(parts.contains("config"));
+        exporter.setIncludeMetadata(parts.contains("metadata"));
+        exporter.setIncludeDockets(parts.contains("dockets"));
+        exporter.setIncludePlugins(parts.contains("plugins"));
+        exporter.setIncludeSQLdump(parts.contains("sql"));
+        return exporter;
+    }
+
+    /**
+     * internal method that runs the job in the current thread, prints its messages and cancels it when the virtual machine gets shut down
+     */
+    private static boolean execute(MessageLog messageLog, Supplier<ExchangeJob> job, BooleanSupplier task, PrintStream out) {
+        Thread main = Thread.currentThread();
+        Thread shutdownHook = new Thread(() -> {
+            ExchangeJob current = job.get();
+            if (current != null && current.cancel()) {
+                out.println("Cancelling the job...");
+                try {
+                    main.join(SHUTDOWN_WAIT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "exchange-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        MessagePrinter printer = new MessagePrinter(messageLog, out);
+        Thread printerThread = new Thread(printer, "exchange-messages");
+        printerThread.setDaemon(true);
+        printerThread.start();
+        boolean success;
+        try {
+            success = task.getAsBoolean();
+        } finally {
+            printerThread.interrupt();
+            printer.print();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the virtual machine is shutting down already
+        }
+        return success;
+    }
+
+    /**
+     * internal method to parse the list of parts
+     *
+     * @return the parts or null if the list contains an unknown part
+     */
+    private static Set<String> parseParts(String value) {
+        Set<String> parts = new HashSet<>();
+        for (String part : value.split(",")) {
+            part = part.trim().toLowerCase();
+            if ("all".equals(part)) {
+                parts.addAll(PARTS);
+            } else if ("xslt".equals(part)) {
+                // the dockets are stored in the xslt folder
+                parts.add("dockets");
+            } else if (PARTS.contains(part)) {
+                parts.add(part);
+            } else if (!part.isEmpty()) {
+                return null;
+            }
+        }
+        return parts;
+    }
+
+    private static void printUsage(PrintStream out) {
+        out.println("Usage:");
+        out.println("  export [--config FILE] [--folder DIR] [--include PARTS] [--incremental BASE_DUMP_ID] [--processes IDS] [--format FORMAT]");
+        out.println("         [--volume-size MB]");
+        out.println("  snapshot [--config FILE] [--include PARTS]");
+        out.println("  import FILE [--config FILE] [--include PARTS] [--merge]");
+        out.println("PARTS: comma separated list of " + String.join(", ", PARTS) + " or all (default)");
+        out.println("FORMAT: zip, tar.zst or tar.lz4 (default: format of the configuration)");
+        out.println("MB: size of the volumes in MB, 0 writes a single file (default: size of the configuration)");
+        out.println("The default configuration is " + DEFAULT_CONFIG);
+    }
+
+    /**
+     * prints the new messages of the log once per second
+     */
+    private static final class MessagePrinter implements Runnable {
+
+        private final MessageLog messageLog;
+        private final PrintStream out;
+        private long sequence = -1;
+
+        private MessagePrinter(MessageLog messageLog, PrintStream out) {
+            this.messageLog = messageLog;
+            this.out = out;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                print();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private synchronized void print() {
+            for (Message message : messageLog.getMessagesSince(sequence)) {
+                out.println(message.getStatus() + "\t" + message.getMessage());
+                sequence = message.getSequence();
+            }
+        }
+    }
+}
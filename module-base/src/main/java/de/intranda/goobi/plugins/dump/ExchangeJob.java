@@ -0,0 +1,169 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * A single export or import that is executed by the {@link JobManager}. The state of the job is kept in volatile fields, so it can be read by
+ * the user interface without locking while the job is running.
+ *
+ * Jobs are cancelled cooperatively: the task checks {@link #checkCancelled()} between its steps. Background jobs run on threads of the job
+ * manager and are interrupted as well, so that they stop waiting for the compression, the database dump or the throttle. Jobs that run in a
+ * request thread of the servlet container are never interrupted.
+ */
+@Log4j2
+public class ExchangeJob {
+
+    public enum Type {
+        EXPORT,
+        IMPORT
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        CANCELLED,
+        FINISHED,
+        FAILED;
+
+        public boolean isDone() {
+            return this == CANCELLED || this == FINISHED || this == FAILED;
+        }
+    }
+
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    @Getter
+    private final long id = COUNTER.incrementAndGet();
+    @Getter
+    private final Type type;
+    @Getter
+    private final String description;
+    @Getter
+    private final String user;
+    @Getter
+    private final ProgressTracker progress;
+    private final Supplier<String> phase;
+    // returns true if the job was successful
+    private final BooleanSupplier task;
+    private final boolean interruptible;
+
+    @Getter
+    private volatile State state = State.QUEUED;
+    @Getter
+    private volatile boolean cancelRequested = false;
+    private Thread thread;
+    @Getter
+    private final long submitted = System.currentTimeMillis();
+    @Getter
+    private volatile long started;
+    @Getter
+    private volatile long ended;
+    // metrics of the exporter or importer that runs the job, can be null
+    @Getter
+    @Setter
+    private volatile JobMetrics metrics;
+
+    /**
+     * @param type export or import
+     * @param description short description for the list of jobs
+     * @param user name of the user who started the job
+     * @param progress progress of the job
+     * @param phase current phase of the job
+     * @param task the work of the job, returns true if it was successful
+     * @param interruptible true if the thread may be interrupted when the job gets cancelled
+     */
+    public ExchangeJob(Type type, String description, String user, ProgressTracker progress, Supplier<String> phase, BooleanSupplier task,
+            boolean interruptible) {
+        this.type = type;
+        this.description = description;
+        this.user = user;
+        this.progress = progress;
+        this.phase = phase;
+        this.task = task;
+        this.interruptible = interruptible;
+    }
+
+    /**
+     * execute the job in the current thread, this is called by the job manager
+     */
+    void run() {
+        synchronized (this) {
+            if (state != State.QUEUED) {
+                return;
+            }
+            state = State.RUNNING;
+            thread = Thread.currentThread();
+        }
+        started = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            success = task.getAsBoolean();
+        } catch (RuntimeException e) {
+            log.error("Unexpected error in exchange job " + id, e);
+        } finally {
+            synchronized (this) {
+                thread = null;
+                if (interruptible) {
+                    // do not leave the interrupt of a cancellation on the pooled thread
+                    Thread.interrupted();
+                }
+            }
+            ended = System.currentTimeMillis();
+            state = cancelRequested ? State.CANCELLED : success ? State.FINISHED : State.FAILED;
+        }
+    }
+
+    /**
+     * request the cancellation of the job. A queued job is cancelled immediately, a running job stops at its next check.
+     *
+     * @return false if the job was finished already
+     */
+    public synchronized boolean cancel() {
+        if (state.isDone()) {
+            return false;
+        }
+        cancelRequested = true;
+        if (state == State.QUEUED) {
+            state = State.CANCELLED;
+            ended = System.currentTimeMillis();
+        } else if (interruptible && thread != null) {
+            thread.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * stop the job if its cancellation was requested
+     *
+     * @throws InterruptedIOException if the job shall stop
+     */
+    public void checkCancelled() throws InterruptedIOException {
+        if (cancelRequested) {
+            throw new InterruptedIOException("The job was cancelled.");
+        }
+    }
+
+    /**
+     * mark a job as failed that could not be started
+     */
+    synchronized void reject() {
+        if (state == State.QUEUED) {
+            state = State.FAILED;
+            ended = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * get a copy of the current state, the values are read without locking
+     */
+    public JobSnapshot getSnapshot() {
+        return new JobSnapshot(this, phase.get(), progress);
+    }
+}
@@ -0,0 +1,137 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Exposes the progress and the metrics of the exports or imports as JMX MBean <code>de.intranda.goobi.plugins.exchange:type=Export</code> or
+ * <code>type=Import</code>. The attributes are read only, their names are the names of the recorded steps and queues, e.g.
+ * <code>sql.dump.millis</code> or <code>scan.queue.max</code>. Each MBean is registered once per JVM and reads the jobs of the
+ * {@link JobManager}, the progress and metrics are taken from the running job or from the last job if none is running.
+ */
+@Log4j2
+public class ExchangeMBean implements DynamicMBean {
+
+    public static final String DOMAIN = "de.intranda.goobi.plugins.exchange";
+
+    private final ExchangeJob.Type type;
+
+    private ExchangeMBean(ExchangeJob.Type type) {
+        this.type = type;
+    }
+
+    /**
+     * register the MBean of a job type in the platform MBean server, if it is not registered already
+     *
+     * @param type export or import
+     */
+    public static void register(ExchangeJob.Type type) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName(type);
+            synchronized (ExchangeMBean.class) {
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(new ExchangeMBean(type), name);
+                }
+            }
+        } catch (JMException | SecurityException e) {
+            // monitoring is optional, the jobs work without it
+            log.warn("Cannot register the exchange metrics in JMX: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * get the name of the MBean of a job type, e.g. <code>de.intranda.goobi.plugins.exchange:type=Export</code>
+     */
+    public static ObjectName getObjectName(ExchangeJob.Type type) throws MalformedObjectNameException {
+        String name = type.name().charAt(0) + type.name().substring(1).toLowerCase(Locale.ROOT);
+        return new ObjectName(DOMAIN + ":type=" + name);
+    }
+
+    Map<String, Object> getValues() {
+        JobManager jobManager = JobManager.getInstance();
+        ExchangeJob job = jobManager.getCurrentJob(type);
+        ProgressTracker progress = job == null ? new ProgressTracker() : job.getProgress();
+        JobMetrics metrics = job == null || job.getMetrics() == null ? new JobMetrics() : job.getMetrics();
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("Running", job != null && job.getState() == ExchangeJob.State.RUNNING);
+        values.put("RunningJobs", jobManager.count(type, ExchangeJob.State.RUNNING));
+        values.put("QueuedJobs", jobManager.count(type, ExchangeJob.State.QUEUED));
+        values.put("Jobs", metrics.getJobs());
+        values.put("Started", metrics.getStarted());
+        values.put("Percent", progress.getPercent());
+        values.put("CurrentBytes", progress.getCurrentBytes());
+        values.put("TotalBytes", progress.getTotalBytes());
+        values.put("CurrentFiles", progress.getCurrentFiles());
+        values.put("TotalFiles", progress.getTotalFiles());
+        values.put("Throughput", progress.getThroughput());
+        values.put("Eta", progress.getEta());
+        values.putAll(metrics.getValues());
+        return values;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Map<String, Object> values = getValues();
+        if (!values.containsKey(attribute)) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return values.get(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("The attribute " + attribute.getName() + " is read only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> values = getValues();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if (values.containsKey(attribute)) {
+                list.add(new Attribute(attribute, values.get(attribute)));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "The MBean does not have any operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Object> value : getValues().entrySet()) {
+            String className = value.getValue() == null ? Object.class.getName() : value.getValue().getClass().getName();
+            attributes.add(new MBeanAttributeInfo(value.getKey(), className, value.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), type.name().toLowerCase(Locale.ROOT) + " jobs of the exchange plugin",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,80 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Precompiled version of all active exclusions of an export. The regular expressions of all active {@link Exclude} items are combined into a
+ * single pattern, so that each path is matched only once.
+ *
+ * Directories are excluded as a whole if their own path matches. In addition expressions that end with <code>.*</code> are checked against
+ * the directory path followed by a slash. If that matches, every path below the directory matches too and the directory does not need to be
+ * traversed at all.
+ */
+@Log4j2
+public class ExportFilter {
+
+    private final Pattern pattern;
+    private final Pattern directoryPattern;
+    @Getter
+    private final List<String> invalidExpressions = new ArrayList<>();
+
+    public ExportFilter(List<Exclude> excludes) {
+        List<String> expressions = new ArrayList<>();
+        List<String> prefixExpressions = new ArrayList<>();
+        for (Exclude exclude : excludes) {
+            if (!exclude.isUse()) {
+                continue;
+            }
+            String regex = exclude.getRegex();
+            try {
+                Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                log.error("Invalid regular expression for exclusion " + exclude.getLabel(), e);
+                invalidExpressions.add(exclude.getLabel() + " (" + regex + ")");
+                continue;
+            }
+            expressions.add("(?:" + regex + ")");
+            // expressions with alternatives are not checked, the trailing wildcard may belong to one alternative only
+            if (regex.endsWith(".*") && !regex.endsWith("\\.*") && !regex.contains("|")) {
+                prefixExpressions.add("(?:" + regex + ")");
+            }
+        }
+        pattern = expressions.isEmpty() ? null : Pattern.compile(String.join("|", expressions));
+        directoryPattern = prefixExpressions.isEmpty() ? null : Pattern.compile(String.join("|", prefixExpressions));
+    }
+
+    /**
+     * check if a file shall be excluded
+     *
+     * @param path path of the file inside of the archive
+     * @return true if the file is excluded
+     */
+    public boolean isExcluded(String path) {
+        return pattern != null && pattern.matcher(path).matches();
+    }
+
+    /**
+     * check if a directory and all of its content shall be excluded
+     *
+     * @param path path of the directory inside of the archive
+     * @return true if the directory does not need to be traversed
+     */
+    public boolean isDirectoryExcluded(String path) {
+        return isExcluded(path) || directoryPattern != null && directoryPattern.matcher(path + "/").matches();
+    }
+
+    /**
+     * check if any exclusion is active
+     *
+     * @return true if paths can be excluded
+     */
+    public boolean isActive() {
+        return pattern != null;
+    }
+}
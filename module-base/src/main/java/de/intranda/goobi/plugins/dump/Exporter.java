@@ -1,23 +1,53 @@
 package de.intranda.goobi.plugins.dump;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang.StringUtils;
+import org.goobi.beans.User;
 
 import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.FacesContextHelper;
-import de.sub.goobi.helper.StorageProvider;
+import de.sub.goobi.helper.FilterHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.persistence.managers.ProcessManager;
 import jakarta.faces.context.FacesContext;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.Data;
@@ -27,9 +57,15 @@ import lombok.extern.log4j.Log4j2;
 @Data
 public class Exporter {
 
-    private int numberAllFiles = 0;
-    private int numberCurrentFile = 0;
-    private List<Message> messageList;
+    private ProgressTracker progressTracker = new ProgressTracker();
+    private long lastProgressLog = 0;
+    private JobMetrics metrics = new JobMetrics();
+    private boolean timingReport;
+    private LongAdder filterNanos = new LongAdder();
+    private LongAdder filterChecks = new LongAdder();
+    private volatile String phase;
+    private MessageLog messageLog = new MessageLog();
+    private PhaseStatistics currentPhase;
 
     private boolean confirmation = false;
     private boolean includeRulesets = false;
@@ -39,20 +75,107 @@ public class Exporter {
     private boolean includeDockets = false;
     private boolean includePlugins = false;
     private boolean includeSQLdump = false;
-    private boolean finished = false;
+    private volatile boolean finished = false;
 
     private List<Exclude> excludeList;
     private boolean restrict = false;
     private String restrictIDs = "";
+    private String restrictFilter = "";
+    private Set<Integer> processIds;
+    private String commandExportTable;
+    private Map<String, String> processTables;
 
     private String command;
+    private int compressionThreads;
+    // limits the bandwidth of the export, so that it does not slow down the running Goobi
+    private IoThrottle throttle;
+    private int scanThreads;
+    private CompressionPolicy compressionPolicy;
+    private ArchiveFormat archiveFormat;
+    private int zstdLevel;
     private String sqlFilePath;
+    private boolean streamingSqlDump;
+    private TableDump tableDump;
     private String ZIP_SQL_DUMP_PATH = "/sql";
 
+    // name of the session attribute that holds the finished downloads of the session
+    public static final String DOWNLOAD_REGISTRY = "intranda_administration_exchange_downloads";
+
+    // the milliseconds keep exports apart that start in the same second, they share the folder of the manifests
+    static final DateTimeFormatter DUMP_ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    // ids of older versions have no milliseconds
+    static final Pattern DUMP_ID = Pattern.compile("\\d{8}-\\d{6}(-\\d{3})?");
+
+    private String stagingFolder;
+    // folder for exports without user interface, e.g. nightly backups
+    private String exportFolder;
+    // file name of the last export into the export folder, the index for exports in volumes
+    private volatile Path exportFile;
+    // size of the volumes of exports into the export folder in bytes, 0 writes a single archive
+    private long volumeSize;
+    // snapshots without archive, unchanged files are hard linked from the previous snapshot
+    private SnapshotFolder snapshotFolder;
+    private int snapshotThreads;
+    private SnapshotWriter snapshotWriter;
+    // folder of the last snapshot
+    private volatile Path snapshotPath;
+    private volatile String jobId;
+    private volatile Path stagingFile;
+    // staging file of the previous job of this exporter, it gets deleted when the next job starts
+    private volatile Path previousStagingFile;
+    // time in milliseconds after which staging files of other exporters are deleted
+    private long stagingRetention;
+    private volatile boolean downloadReady = false;
+    // the current or last job of this exporter
+    private volatile ExchangeJob job;
+    private JobManager jobManager;
+    private Map<String, Path> downloadRegistry;
+
+    // incremental exports
+    private boolean incremental = false;
+    private String baseDumpId;
+    private String manifestFolder;
+    private boolean manifestHash;
+    private String dumpId;
+    private Manifest baseManifest;
+    private ManifestWriter manifestWriter;
+    private Map<String, Path> exportedFolders;
+    private ExportFilter exportFilter;
+    private String metadataName;
+
     public Exporter(XMLConfiguration config) {
         confirmation = false;
         command = config.getString("commandExport", "");
+        streamingSqlDump = config.getBoolean("commandExport[@streaming]", false);
+        tableDump = new TableDump(config);
+        scanThreads = config.getInt("scan[@threads]", Runtime.getRuntime().availableProcessors());
+        commandExportTable = config.getString("commandExportTable", "");
+        processTables = new LinkedHashMap<>();
+        int tables = config.getMaxIndex("processTable");
+        for (int i = 0; i <= tables; i++) {
+            processTables.put(config.getString("processTable(" + i + ")[@name]"), config.getString("processTable(" + i + ")[@where]"));
+        }
+        compressionThreads = config.getInt("compression[@threads]", Runtime.getRuntime().availableProcessors());
+        throttle = new IoThrottle(config);
+        compressionPolicy = new CompressionPolicy(config);
+        try {
+            archiveFormat = ArchiveFormat.fromName(config.getString("compression[@format]", ArchiveFormat.ZIP.getName()));
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage() + " Using zip instead.");
+            archiveFormat = ArchiveFormat.ZIP;
+        }
+        zstdLevel = config.getInt("compression[@zstdLevel]", ArchiveFormat.DEFAULT_ZSTD_LEVEL);
         sqlFilePath = ConfigurationHelper.getInstance().getTemporaryFolder() + "goobi.sql";
+        stagingFolder = config.getString("stagingFolder", ConfigurationHelper.getInstance().getTemporaryFolder() + "exchange");
+        stagingRetention = Math.max(1, config.getLong("stagingFolder[@retention]", 24)) * 60 * 60 * 1000;
+        exportFolder = config.getString("exportFolder", ConfigurationHelper.getInstance().getTemporaryFolder() + "exchange/exports");
+        volumeSize = Math.max(0, config.getLong("volumes[@size]", 0)) * 1024 * 1024;
+        snapshotFolder = new SnapshotFolder(Paths.get(config.getString("snapshot[@folder]", ConfigurationHelper.getInstance().getTemporaryFolder()
+                + "exchange/snapshots")), config.getInt("snapshot[@keep]", 7), config.getInt("snapshot[@days]", 0));
+        snapshotThreads = config.getInt("snapshot[@threads]", Runtime.getRuntime().availableProcessors());
+        manifestFolder = config.getString("manifest[@folder]", ConfigurationHelper.getInstance().getTemporaryFolder() + "exchange/manifests");
+        manifestHash = config.getBoolean("manifest[@hash]", false);
+        timingReport = config.getBoolean("metrics[@report]", false);
 
         excludeList = new ArrayList<>();
 
@@ -62,236 +185,1104 @@ public class Exporter {
             String regex = config.getString("exclude(" + i + ")[@regex]");
             excludeList.add(new Exclude(label, regex, false));
         }
+        jobManager = JobManager.getInstance(config);
+        ProgressChannel.register(ProgressChannel.EXPORT, this::getProgressEvent);
+        if (config.getBoolean("metrics[@jmx]", true)) {
+            ExchangeMBean.register(ExchangeJob.Type.EXPORT);
+        }
     }
 
     /**
-     * start the export of the entire selected content into a zip file for download
+     * start the export of the entire selected content into a zip file for download. The export runs in the current request, it is rejected if
+     * the configured number of exports is running already.
      */
     public void startExport() {
-        finished = false;
-        messageList = new ArrayList<>();
+        if (isRunning()) {
+            messageLog.add(new Message("An export is running already.", MessageStatus.WARNING));
+            return;
+        }
+        ExchangeJob newJob = new ExchangeJob(ExchangeJob.Type.EXPORT, "Download of a Goobi dump", getUserName(), progressTracker,
+                this::getPhase, this::writeDownload, false);
+        newJob.setMetrics(metrics);
         try {
-            // create an SQL dump
-            messageList.add(new Message("Creating Goobi dump.", MessageStatus.OK));
+            jobManager.runNow(this, newJob, () -> {
+                finished = false;
+                downloadReady = false;
+                messageLog.clear();
+                job = newJob;
+            });
+        } catch (RejectedExecutionException e) {
+            messageLog.add(new Message("Export could not be started: " + e.getMessage(), MessageStatus.ERROR));
+        }
+    }
 
+    /**
+     * internal method that writes the archive directly into the response
+     * 
+     * @return true if the export was successful
+     */
+    private boolean writeDownload() {
+        try {
             // prepare zip generation
             FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
             HttpServletResponse response = (HttpServletResponse) facesContext.getExternalContext().getResponse();
             OutputStream out = response.getOutputStream();
-            response.setContentType("application/zip");
-            response.setHeader("Content-Disposition", "attachment;filename=\"dump.goobi\"");
-            ZipOutputStream zos = new ZipOutputStream(out);
-
-            // add database into zip
-            if (includeSQLdump) {
-                if (new File(ConfigurationHelper.getInstance().getGoobiFolder() + "db/").exists()) {
-                    addFolder(zos, ConfigurationHelper.getInstance().getGoobiFolder() + "db/", false);
+            response.setContentType(archiveFormat.getContentType());
+            response.setHeader("Content-Disposition", "attachment;filename=\"dump" + archiveFormat.getFileExtension() + "\"");
+
+            writeArchive(out);
+
+            // close all connections and streams
+            out.flush();
+            facesContext.responseComplete();
+            messageLog.add(new Message("Entire Goobi dump export finished successfully.", MessageStatus.OK));
+            finished = true;
+        } catch (IOException | InterruptedException e) {
+            if (job.isCancelRequested()) {
+                messageLog.add(new Message("The export was cancelled.", MessageStatus.WARNING));
+            } else {
+                log.error("Exception while executing the download preparation", e);
+                messageLog.add(new Message("Exception while executing the download preparation: " + e.getMessage(),
+                        MessageStatus.ERROR));
+            }
+        } finally {
+            progressTracker.finish();
+        }
+        return finished;
+    }
+
+    /**
+     * start the export as a background job. The archive is written into a staging file inside of the staging folder and can be downloaded
+     * afterwards using the download servlet, which allows to resume interrupted downloads. If the configured number of exports is running
+     * already, the job waits in the queue of the job manager.
+     */
+    public void startBackgroundExport() {
+        if (isRunning()) {
+            messageLog.add(new Message("An export is running already.", MessageStatus.WARNING));
+            return;
+        }
+        String newJobId = UUID.randomUUID().toString();
+        ExchangeJob newJob = new ExchangeJob(ExchangeJob.Type.EXPORT, "Background export " + newJobId, getUserName(), progressTracker,
+                this::getPhase, this::runBackgroundExport, true);
+        newJob.setMetrics(metrics);
+        try {
+            // the state of the exporter is only reset once the job was accepted, a second request of the session must not change it
+            jobManager.submit(this, newJob, () -> {
+                finished = false;
+                downloadReady = false;
+                messageLog.clear();
+                progressTracker.setTotal(0, 0);
+                jobId = newJobId;
+                if (stagingFile != null) {
+                    previousStagingFile = stagingFile;
                 }
+                // the download servlet derives the content type and the name of the download from the extension
+                stagingFile = Paths.get(stagingFolder, jobId + archiveFormat.getFileExtension());
+                downloadRegistry = getDownloadRegistry();
+                phase = "queued";
+                job = newJob;
+            });
+            int position = jobManager.getPosition(newJob);
+            if (position >= 0) {
+                messageLog.add(new Message("Export job " + jobId + " was queued, " + position + " jobs are waiting in front of it.",
+                        MessageStatus.OK));
+            } else {
+                messageLog.add(new Message("Export job " + jobId + " was started in the background.", MessageStatus.OK));
+            }
+        } catch (RejectedExecutionException e) {
+            log.error("Export job could not be started", e);
+            messageLog.add(new Message("Export job could not be started: " + e.getMessage(), MessageStatus.ERROR));
+        }
+    }
 
-                if (command.length() > 0) {
-                    String myCommand = command.replaceAll("DATABASE_TEMPFILE", sqlFilePath);
-                    String[] commandArray = myCommand.split(", ");
+    /**
+     * cancel the current export job, it stops at the next file
+     */
+    public void cancelExport() {
+        ExchangeJob current = job;
+        if (current != null && current.cancel()) {
+            messageLog.add(new Message("Cancellation of the export was requested.", MessageStatus.WARNING));
+        }
+    }
 
-                    Process runtimeProcess = Runtime.getRuntime().exec(commandArray);
-                    int processComplete = runtimeProcess.waitFor();
+    /**
+     * export the selected content into the export folder without user interface, e.g. from the command line or a scheduled task. The archive
+     * is written directly into the folder as goobi-&lt;dump id&gt;.goobi, the file appears when it is complete.
+     * 
+     * @return true if the export was successful
+     */
+    public boolean exportToFolder() {
+        return exportToFolder(Paths.get(exportFolder));
+    }
 
-                    // check if SQL dump generation was successfull
-                    if (processComplete == 0) {
-                        messageList.add(new Message("Created SQL dump successfully.", MessageStatus.OK));
-                    } else {
-                        messageList.add(new Message("Error during creation of database dump.", MessageStatus.ERROR));
-                    }
-                    messageList.add(new Message("Add database dump to archive.", MessageStatus.OK));
-                    Path sqlDump = Paths.get(sqlFilePath);
-                    addDirToArchive(zos, sqlDump, ZIP_SQL_DUMP_PATH, false);
-                } else {
-                    messageList.add(new Message("Skipping sql dump command as it is not configured.", MessageStatus.OK));
+    /**
+     * export the selected content into the given folder without user interface, the export runs in the current thread
+     * 
+     * @param folder target folder, it gets created if it does not exist
+     * @return true if the export was successful
+     */
+    public boolean exportToFolder(Path folder) {
+        if (isRunning()) {
+            messageLog.add(new Message("An export is running already.", MessageStatus.WARNING));
+            return false;
+        }
+        ExchangeJob newJob = new ExchangeJob(ExchangeJob.Type.EXPORT, "Export into " + folder, getUserName(), progressTracker, this::getPhase,
+                () -> writeToFolder(folder), false);
+        newJob.setMetrics(metrics);
+        try {
+            jobManager.runNow(this, newJob, () -> {
+                finished = false;
+                downloadReady = false;
+                exportFile = null;
+                messageLog.clear();
+                jobId = UUID.randomUUID().toString();
+                job = newJob;
+            });
+        } catch (RejectedExecutionException e) {
+            messageLog.add(new Message("Export could not be started: " + e.getMessage(), MessageStatus.ERROR));
+            return false;
+        }
+        return finished;
+    }
+
+    /**
+     * internal method that writes the archive into a part file inside of the target folder and renames it when it is complete. If a volume
+     * size is configured, the archive is split into volumes with an index instead.
+     * 
+     * @param folder
+     * @return true if the export was successful
+     */
+    private boolean writeToFolder(Path folder) {
+        Path partFile = folder.resolve(jobId + ".goobi.part");
+        try {
+            Files.createDirectories(folder);
+            if (volumeSize > 0) {
+                writeVolumes(folder);
+            } else {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partFile), 1024 * 1024)) {
+                    writeArchive(out);
                 }
+                exportFile = folder.resolve("goobi-" + dumpId + archiveFormat.getFileExtension());
+                Files.move(partFile, exportFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            messageLog.add(new Message("Entire Goobi dump export finished successfully: " + exportFile, MessageStatus.OK));
+            finished = true;
+        } catch (IOException | InterruptedException e) {
+            if (job.isCancelRequested()) {
+                messageLog.add(new Message("The export was cancelled.", MessageStatus.WARNING));
+            } else {
+                log.error("Exception while exporting into " + folder, e);
+                messageLog.add(new Message("Exception while exporting into " + folder + ": " + e.getMessage(), MessageStatus.ERROR));
             }
+            try {
+                Files.deleteIfExists(partFile);
+            } catch (IOException e1) {
+                log.error("Error while deleting the incomplete export file", e1);
+            }
+        } finally {
+            progressTracker.finish();
+        }
+        return finished;
+    }
+
+    /**
+     * write the selected content as a dated snapshot folder into the snapshot folder without user interface. Files which are unchanged since
+     * the previous snapshot are hard linked, only changed files are copied. Snapshots that exceed the retention are removed afterwards.
+     * 
+     * @return true if the snapshot was successful
+     */
+    public boolean exportSnapshot() {
+        if (isRunning()) {
+            messageLog.add(new Message("An export is running already.", MessageStatus.WARNING));
+            return false;
+        }
+        ExchangeJob newJob = new ExchangeJob(ExchangeJob.Type.EXPORT, "Snapshot into " + snapshotFolder.getFolder(), getUserName(),
+                progressTracker, this::getPhase, this::writeSnapshot, false);
+        newJob.setMetrics(metrics);
+        try {
+            jobManager.runNow(this, newJob, () -> {
+                finished = false;
+                downloadReady = false;
+                snapshotPath = null;
+                messageLog.clear();
+                jobId = UUID.randomUUID().toString();
+                job = newJob;
+            });
+        } catch (RejectedExecutionException e) {
+            messageLog.add(new Message("Export could not be started: " + e.getMessage(), MessageStatus.ERROR));
+            return false;
+        }
+        return finished;
+    }
 
-            // add all rulesets into zip
-            if (includeRulesets) {
-                addFolder(zos, ConfigurationHelper.getInstance().getRulesetFolder(), false);
+    /**
+     * internal method that writes the snapshot into a part folder and renames it when it is complete
+     * 
+     * @return true if the snapshot was successful
+     */
+    private boolean writeSnapshot() {
+        if (restrict || incremental) {
+            messageLog.add(new Message("A snapshot contains the entire selected folders, it cannot be restricted or incremental.",
+                    MessageStatus.ERROR));
+            return false;
+        }
+        Path previous = snapshotFolder.getLatest();
+        Path part = null;
+        try {
+            dumpId = LocalDateTime.now().format(DUMP_ID_FORMAT);
+            part = snapshotFolder.start(dumpId);
+            if (previous != null) {
+                messageLog.add(new Message("Unchanged files are linked from the snapshot " + previous.getFileName() + ".", MessageStatus.OK));
             }
-            // add all configurations into zip
-            if (includeConfiguration) {
-                addFolder(zos, ConfigurationHelper.getInstance().getConfigurationFolder(), false);
+            List<String> errors;
+            try (SnapshotWriter writer = new SnapshotWriter(part, previous, snapshotThreads, throttle)) {
+                snapshotWriter = writer;
+                writeDump(writer);
+                errors = writer.getErrors();
+                messageLog.add(new Message("Snapshot written: " + writer.getSummary() + ".", MessageStatus.OK));
+            } finally {
+                snapshotWriter = null;
             }
-            // add all scripts into zip
-            if (includeScripts) {
-                addFolder(zos, ConfigurationHelper.getInstance().getScriptsFolder(), false);
+            for (String error : errors) {
+                messageLog.add(new Message("Cannot write " + error, MessageStatus.ERROR));
             }
-            // add all dockets into zip
-            if (includeDockets) {
-                addFolder(zos, ConfigurationHelper.getInstance().getXsltFolder(), false);
+            if (!errors.isEmpty()) {
+                throw new IOException(errors.size() + " files could not be written into the snapshot.");
             }
-            // add all plugins into zip
-            if (includePlugins) {
-                addFolder(zos, ConfigurationHelper.getInstance().getPluginFolder(), false);
+            snapshotPath = snapshotFolder.complete(part, dumpId);
+            part = null;
+            messageLog.add(new Message("Entire Goobi snapshot finished successfully: " + snapshotPath, MessageStatus.OK));
+            List<String> expired = snapshotFolder.expire();
+            if (!expired.isEmpty()) {
+                messageLog.add(new Message("Removed expired snapshots " + String.join(", ", expired) + ".", MessageStatus.OK));
             }
-            // add all metadata content into zip
-            if (includeMetadata) {
-                addFolder(zos, ConfigurationHelper.getInstance().getMetadataFolder(), true);
+            finished = true;
+        } catch (IOException | InterruptedException e) {
+            if (job.isCancelRequested()) {
+                messageLog.add(new Message("The snapshot was cancelled.", MessageStatus.WARNING));
+            } else {
+                log.error("Exception while writing the snapshot", e);
+                messageLog.add(new Message("Exception while writing the snapshot: " + e.getMessage(), MessageStatus.ERROR));
             }
+            if (part != null) {
+                snapshotFolder.discard(part);
+            }
+        } finally {
+            progressTracker.finish();
+        }
+        return finished;
+    }
 
-            // close all connections and streams
-            zos.close();
-            out.flush();
-            facesContext.responseComplete();
-            messageList.add(new Message("Entire Goobi dump export finished successfully.", MessageStatus.OK));
+    /**
+     * internal method to stop the export if the current job was cancelled
+     * 
+     * @throws InterruptedIOException
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        ExchangeJob current = job;
+        if (current != null) {
+            current.checkCancelled();
+        }
+    }
+
+    /**
+     * check if an export of this exporter is queued or running
+     */
+    public boolean isRunning() {
+        ExchangeJob current = job;
+        return current != null && !current.getState().isDone();
+    }
+
+    /**
+     * check if the export waits in the queue of the job manager
+     */
+    public boolean isQueued() {
+        ExchangeJob current = job;
+        return current != null && current.getState() == ExchangeJob.State.QUEUED;
+    }
+
+    /**
+     * internal method that executes the export job and moves the finished staging file into its final place
+     * 
+     * @return true if the export was successful
+     */
+    private boolean runBackgroundExport() {
+        Path partFile = Paths.get(stagingFile.toString() + ".part");
+        try {
+            Files.createDirectories(partFile.getParent());
+            deleteOldStagingFiles();
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partFile), 1024 * 1024)) {
+                writeArchive(out);
+            }
+            Files.move(partFile, stagingFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (downloadRegistry != null) {
+                downloadRegistry.put(jobId, stagingFile);
+            }
+            downloadReady = true;
+            messageLog.add(new Message("Entire Goobi dump export finished successfully. The file is ready for download.", MessageStatus.OK));
             finished = true;
         } catch (IOException | InterruptedException e) {
-            log.error("Exception while executing the download preparation", e);
-            messageList.add(new Message("Exception while executing the download preparation: " + e.getMessage(),
-                    MessageStatus.ERROR));
+            if (job.isCancelRequested()) {
+                messageLog.add(new Message("The export job was cancelled.", MessageStatus.WARNING));
+            } else {
+                log.error("Exception while executing the background export", e);
+                messageLog.add(new Message("Exception while executing the background export: " + e.getMessage(), MessageStatus.ERROR));
+            }
+            try {
+                Files.deleteIfExists(partFile);
+            } catch (IOException e1) {
+                log.error("Error while deleting the incomplete staging file", e1);
+            }
+        } finally {
+            progressTracker.finish();
         }
+        return finished;
     }
 
-    private void addFolder(ZipOutputStream zos, String inFolder, boolean isMetadataFolder) throws IOException, InterruptedException {
-        numberAllFiles = getFilesCount(new File(inFolder));
-        numberCurrentFile = 0;
-        Path srcDir = Paths.get(inFolder);
-        //		addDirToArchive(zos, srcDir, "/opt/digiverso/goobi", isMetadataFolder);
-        addDirToArchive(zos, srcDir, "", isMetadataFolder);
+    /**
+     * internal method to remove the staging file of the previous export job of this exporter, so that only one finished dump per user is kept
+     * in the staging folder. The staging folder is shared by all users, staging files of other exporters are only removed when they are
+     * older than the configured retention time
+     */
+    private void deleteOldStagingFiles() throws IOException {
+        Path previous = previousStagingFile;
+        if (previous != null) {
+            Files.deleteIfExists(previous);
+            if (downloadRegistry != null) {
+                downloadRegistry.values().remove(previous);
+            }
+            previousStagingFile = null;
+        }
+        long limit = System.currentTimeMillis() - stagingRetention;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(stagingFolder), "*.{goobi,part}")) {
+            for (Path old : stream) {
+                if (Files.isRegularFile(old) && Files.getLastModifiedTime(old).toMillis() < limit) {
+                    log.info("Deleting the abandoned staging file {}", old);
+                    Files.deleteIfExists(old);
+                }
+            }
+        }
     }
 
-    private int getFilesCount(File file) {
-        File[] files = file.listFiles();
-        int count = 0;
-        for (File f : files) {
-            if (f.isDirectory()) {
-                count += getFilesCount(f);
-            } else {
-                count++;
+    /**
+     * internal method to get the name of the current user for the list of jobs
+     * 
+     * @return the name or null if no user is logged in
+     */
+    static String getUserName() {
+        if (FacesContextHelper.getCurrentFacesContext() == null) {
+            // jobs without user interface
+            return System.getProperty("user.name");
+        }
+        User user = Helper.getCurrentUser();
+        return user == null ? null : user.getNachVorname();
+    }
+
+    /**
+     * internal method to get the registry of finished downloads of the current session. The registry is shared with the download servlet
+     * using the session, so that only the session that started an export can download it. It only contains classes of the JDK
+     * 
+     * @return the registry or null if no faces context is available
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Path> getDownloadRegistry() {
+        FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
+        if (facesContext == null) {
+            return null;
+        }
+        Map<String, Object> sessionMap = facesContext.getExternalContext().getSessionMap();
+        return (Map<String, Path>) sessionMap.computeIfAbsent(DOWNLOAD_REGISTRY, k -> new ConcurrentHashMap<String, Path>());
+    }
+
+    /**
+     * internal method to write the entire selected content into the given stream
+     * 
+     * @param out
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void writeArchive(OutputStream out) throws IOException, InterruptedException {
+        dumpId = LocalDateTime.now().format(DUMP_ID_FORMAT);
+        // the writer stops its compression threads when the export fails, the stream itself is closed by the caller
+        try (ArchiveWriter writer = archiveFormat.createWriter(CloseShieldOutputStream.wrap(throttle.output(out)), compressionThreads, zstdLevel,
+                compressionPolicy, Paths.get(stagingFolder))) {
+            writeDump(writer);
+        }
+    }
+
+    /**
+     * internal method to write the entire selected content into volumes of the configured size, each volume is a complete archive. The index
+     * of the volumes is written when all volumes are complete.
+     * 
+     * @param folder
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void writeVolumes(Path folder) throws IOException, InterruptedException {
+        dumpId = LocalDateTime.now().format(DUMP_ID_FORMAT);
+        try (VolumeWriter writer = new VolumeWriter(folder, "goobi-" + dumpId, volumeSize, out -> archiveFormat.createWriter(throttle.output(out),
+                compressionThreads, zstdLevel, compressionPolicy, Paths.get(stagingFolder)))) {
+            writeDump(writer);
+            exportFile = writer.getIndexFile();
+            messageLog.add(new Message("The dump was split into " + writer.getVolumes().size() + " volumes.", MessageStatus.OK));
+        }
+    }
+
+    /**
+     * internal method to write the entire selected content into an archive or a snapshot, the id of the dump must be set already
+     * 
+     * @param zos
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void writeDump(ArchiveWriter zos) throws IOException, InterruptedException {
+        // create an SQL dump
+        messageLog.add(new Message("Creating Goobi dump.", MessageStatus.OK));
+        progressTracker.start();
+        metrics.start();
+        filterNanos.reset();
+        filterChecks.reset();
+        throttle.reset();
+        lastProgressLog = System.currentTimeMillis();
+        phase = "database";
+
+        exportedFolders = new LinkedHashMap<>();
+        baseManifest = null;
+        if (incremental) {
+            // the id is part of the path of the manifest, it comes from the user interface or from the command line
+            if (StringUtils.isBlank(baseDumpId) || !DUMP_ID.matcher(baseDumpId).matches()) {
+                throw new IOException("The id of the base dump " + baseDumpId + " is invalid.");
+            }
+            if (!Files.exists(getManifestFile(baseDumpId))) {
+                throw new IOException("The manifest of the base dump " + baseDumpId + " does not exist.");
+            }
+            baseManifest = Manifest.read(getManifestFile(baseDumpId));
+            messageLog.add(new Message("Creating incremental dump " + dumpId + " based on dump " + baseDumpId + ".", MessageStatus.OK));
+        }
+        manifestWriter = new ManifestWriter(Paths.get(manifestFolder, dumpId + ".tsv.part"));
+        boolean complete = false;
+        try {
+            writeContent(zos);
+            complete = true;
+        } finally {
+            if (!complete) {
+                discardManifest();
+            }
+        }
+    }
+
+    /**
+     * internal method to write the content of the dump and to keep the manifest of a complete dump
+     * 
+     * @param zos
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void writeContent(ArchiveWriter zos) throws IOException, InterruptedException {
+
+        // compile all exclusions once for the entire export
+        exportFilter = new ExportFilter(excludeList);
+        for (String invalid : exportFilter.getInvalidExpressions()) {
+            messageLog.add(new Message("Ignoring invalid exclusion " + invalid + ".", MessageStatus.WARNING));
+        }
+
+        // resolve the selected processes for a partial export
+        processIds = null;
+        if (restrict) {
+            try (JobMetrics.Timing timing = metrics.time("selection")) {
+                processIds = resolveProcessIds();
+                timing.add(0, processIds.size());
+            }
+            if (processIds.isEmpty()) {
+                throw new IOException("The export is restricted to selected processes, but no process was selected.");
             }
+            messageLog.add(new Message("Restricting the export to " + processIds.size() + " processes.", MessageStatus.OK));
         }
 
-        return count;
+        // the folders are scanned while the database gets dumped, so that the size of the entire export is known early
+        if (includeSQLdump) {
+            messageLog.getPhase("database");
+        }
+        Map<String, Path> roots = getSelectedFolders();
+        try (TreeScanner scanner = new TreeScanner(scanThreads, createFilter())) {
+            scanner.setProgress(progressTracker);
+            scanner.start(roots);
+            try (JobMetrics.Timing timing = metrics.time("sql.dump")) {
+                long before = progressTracker.getCurrentBytes();
+                addDatabaseDump(zos);
+                timing.add(progressTracker.getCurrentBytes() - before, 0);
+            }
+            addTrees(zos, scanner, roots);
+            metrics.record("scan", scanner.getDuration(), scanner.getBytes(), scanner.getFiles());
+        }
+        metrics.record("filter", filterNanos.sum(), 0, filterChecks.sum());
+        if (throttle.isActive()) {
+            metrics.record("throttle.wait", throttle.getWaitNanos(), 0, 0);
+            messageLog.add(new Message("The export was throttled for " + TimeUnit.NANOSECONDS.toSeconds(throttle.getWaitNanos()) + " seconds.",
+                    MessageStatus.OK));
+        }
+
+        phase = "manifest";
+        try (JobMetrics.Timing timing = metrics.time("manifest")) {
+            writeManifest(zos);
+            timing.add(0, manifestWriter.getCount());
+        }
+        String report = metrics.getReport();
+        if (timingReport) {
+            byte[] reportBytes = report.getBytes(StandardCharsets.UTF_8);
+            zos.putStream(Manifest.TIMING_ENTRY, new ByteArrayInputStream(reportBytes), System.currentTimeMillis(), reportBytes.length);
+        }
+        log.debug("Timing of export {}:\n{}", dumpId, report);
+
+        // finish the zip file or wait for the snapshot, the underlying stream is closed by the caller
+        zos.finish();
+        Files.move(manifestWriter.getFile(), getManifestFile(dumpId), StandardCopyOption.REPLACE_EXISTING);
     }
 
     /**
-     * private method to add content to zip file
+     * internal method to remove the manifest of a failed export, a later export must not use it as base
+     */
+    private void discardManifest() {
+        try {
+            manifestWriter.close();
+            Files.deleteIfExists(manifestWriter.getFile());
+        } catch (IOException e) {
+            log.error("Cannot remove the manifest " + manifestWriter.getFile(), e);
+        }
+    }
+
+    /**
+     * internal method to add the database dump into the archive, the dumped bytes are added to the progress while they are written
      * 
      * @param zos
-     * @param srcFile
-     * @param parrentDirectoryName
+     * @throws IOException
+     * @throws InterruptedException
      */
-    private void addDirToArchive(ZipOutputStream zos, Path srcFile, String parrentDirectoryName, boolean isMetadataFolder) throws IOException {
-        String zipEntryName = srcFile.toFile().getName();
-        if (StringUtils.isNotBlank(parrentDirectoryName)) {
-            zipEntryName = parrentDirectoryName + "/" + srcFile.toFile().getName();
+    private void addDatabaseDump(ArchiveWriter zos) throws IOException, InterruptedException {
+        // add database rows of the selected processes into zip
+        if (includeSQLdump && restrict) {
+            if (commandExportTable.length() > 0 && !processTables.isEmpty()) {
+                // the output of the commands is written directly into the archive
+                try (InputStream in = progressTracker.count(new CommandStream("Database dump", getProcessRowCommands()), false)) {
+                    zos.putStream(ZIP_SQL_DUMP_PATH + "/goobi.sql", in, System.currentTimeMillis());
+                }
+                progressTracker.advanceUnknown(1, 0);
+                messageLog.add(new Message("Added database dump of " + processTables.size() + " tables for the selected processes to archive.",
+                        MessageStatus.OK));
+            } else {
+                messageLog.add(new Message("Skipping the database dump as the export is restricted to selected processes and no table command is configured.",
+                        MessageStatus.WARNING));
+            }
         }
 
-        boolean ignoreThis = checkIfPathShallBeIgnored(zipEntryName, isMetadataFolder);
-        if (!ignoreThis) {
-            if (Files.isDirectory(srcFile)) {
-                messageList.add(new Message("Add folder " + zipEntryName + " to archive.", MessageStatus.OK));
-                for (Path file : StorageProvider.getInstance().listFiles(srcFile.toString())) {
-                    addDirToArchive(zos, file, zipEntryName, isMetadataFolder);
-                    continue;
+        // add database into zip
+        if (includeSQLdump && !restrict) {
+            if (tableDump.isEnabled()) {
+                // schema and tables are dumped into separate entries
+                tableDump.export(zos, ZIP_SQL_DUMP_PATH, messageLog, progressTracker);
+            } else if (command.length() > 0 && streamingSqlDump) {
+                // the output of the dump is written directly into the archive while the command is running
+                messageLog.add(new Message("Streaming SQL dump into archive.", MessageStatus.OK));
+                List<String> commandList = ExternalCommand.parse(command, "DATABASE_TEMPFILE", sqlFilePath);
+                try (InputStream in = progressTracker.count(new CommandStream("Database dump", List.of(commandList)), false)) {
+                    zos.putStream(ZIP_SQL_DUMP_PATH + "/goobi.sql", in, System.currentTimeMillis());
                 }
+                progressTracker.advanceUnknown(1, 0);
+                messageLog.add(new Message("Created SQL dump successfully.", MessageStatus.OK));
+            } else if (command.length() > 0) {
+                ExternalCommand dump = ExternalCommand.start("Database dump", ExternalCommand.parse(command, "DATABASE_TEMPFILE", sqlFilePath), false,
+                        false);
 
-            } else {
-                numberCurrentFile++;
-                byte[] buffer = new byte[1024];
-                FileInputStream fis = new FileInputStream(srcFile.toFile());
-                zos.putNextEntry(new ZipEntry(zipEntryName));
-                int length;
-                while ((length = fis.read(buffer)) > 0) {
-                    zos.write(buffer, 0, length);
+                // check if SQL dump generation was successfull
+                try {
+                    dump.waitForSuccess();
+                    messageLog.add(new Message("Created SQL dump successfully.", MessageStatus.OK));
+                } catch (IOException e) {
+                    log.error("Error during creation of database dump", e);
+                    messageLog.add(new Message("Error during creation of database dump: " + e.getMessage(), MessageStatus.ERROR));
                 }
-                zos.closeEntry();
-                fis.close();
+                messageLog.add(new Message("Add database dump to archive.", MessageStatus.OK));
+                Path sqlFile = Paths.get(sqlFilePath);
+                long size = Files.exists(sqlFile) ? Files.size(sqlFile) : 0;
+                progressTracker.addTotal(1, size);
+                zos.putFile(ZIP_SQL_DUMP_PATH + "/goobi.sql", sqlFile);
+                progressTracker.advance(1, size);
+            } else {
+                messageLog.add(new Message("Skipping sql dump command as it is not configured.", MessageStatus.OK));
             }
         }
     }
 
     /**
-     * internal method to check if the given path shall be included in the zip file. If just special IDs shall be taken or specific content shall be
-     * ignored then a file can get excluded this way
+     * internal method to get all folders which are selected for the export
      * 
-     * @param path
-     * @param isMetadataFolder
-     * @return
+     * @return names inside of the archive and paths of the folders
+     * @throws IOException
+     */
+    private Map<String, Path> getSelectedFolders() throws IOException {
+        Map<String, Path> roots = new LinkedHashMap<>();
+        metadataName = null;
+        // add database into zip
+        if (includeSQLdump && !restrict && new File(ConfigurationHelper.getInstance().getGoobiFolder() + "db/").exists()) {
+            addRoot(roots, ConfigurationHelper.getInstance().getGoobiFolder() + "db/");
+        }
+        // add all rulesets into zip
+        if (includeRulesets) {
+            addRoot(roots, ConfigurationHelper.getInstance().getRulesetFolder());
+        }
+        // add all configurations into zip
+        if (includeConfiguration) {
+            addRoot(roots, ConfigurationHelper.getInstance().getConfigurationFolder());
+        }
+        // add all scripts into zip
+        if (includeScripts) {
+            addRoot(roots, ConfigurationHelper.getInstance().getScriptsFolder());
+        }
+        // add all dockets into zip
+        if (includeDockets) {
+            addRoot(roots, ConfigurationHelper.getInstance().getXsltFolder());
+        }
+        // add all plugins into zip
+        if (includePlugins) {
+            addRoot(roots, ConfigurationHelper.getInstance().getPluginFolder());
+        }
+        // add all metadata content into zip
+        if (includeMetadata && restrict) {
+            addProcessFolders(roots, ConfigurationHelper.getInstance().getMetadataFolder());
+        } else if (includeMetadata) {
+            metadataName = addRoot(roots, ConfigurationHelper.getInstance().getMetadataFolder());
+        }
+        return roots;
+    }
+
+    /**
+     * internal method to select a folder for the export
+     * 
+     * @param roots
+     * @param inFolder
+     * @return the name of the folder inside of the archive
      */
-    private boolean checkIfPathShallBeIgnored(String path, boolean isMetadataFolder) {
-        boolean ignoreThis = false;
+    private String addRoot(Map<String, Path> roots, String inFolder) {
+        Path srcDir = Paths.get(inFolder);
+        String name = srcDir.getFileName().toString();
+        exportedFolders.put(name, srcDir);
+        messageLog.getPhase(name);
+        roots.put(name, srcDir);
+        return name;
+    }
 
-        // just do the checking for metatada folder, otherwise take it
-        if (!isMetadataFolder) {
-            return ignoreThis;
+    /**
+     * find the files of the base dump that got deleted in the meantime. These are all files of the exported folders which were not seen again
+     * during the scan and do not exist anymore.
+     *
+     * @param baseManifest manifest of the base dump, the files seen during the scan are removed from it already
+     * @param folders exported folders by their name inside of the archive
+     * @return paths of the deleted files inside of the archive
+     */
+    static List<String> findTombstones(Manifest baseManifest, Map<String, Path> folders) {
+        List<String> deleted = new ArrayList<>();
+        for (Iterator<String> iterator = baseManifest.paths(); iterator.hasNext();) {
+            String path = iterator.next();
+            int separator = path.indexOf('/');
+            Path folder = separator > 0 ? folders.get(path.substring(0, separator)) : null;
+            if (folder != null && !Files.exists(folder.resolve(path.substring(separator + 1)))) {
+                deleted.add(path);
+            }
         }
+        return deleted;
+    }
+
+    /**
+     * internal method to add the manifest, the information about the dump and the list of deleted files into the archive
+     * 
+     * @param zos
+     * @throws IOException
+     */
+    private void writeManifest(ArchiveWriter zos) throws IOException {
+        manifestWriter.close();
+        long now = System.currentTimeMillis();
+        zos.putFile(Manifest.MANIFEST_ENTRY, manifestWriter.getFile());
 
-        // if it is the metadatafolder itself take it too
-        if ((path + "/").equals(ConfigurationHelper.getInstance().getMetadataFolder())) {
-            return ignoreThis;
+        int tombstones = 0;
+        if (baseManifest != null) {
+            StringBuilder deleted = new StringBuilder();
+            for (String path : findTombstones(baseManifest, exportedFolders)) {
+                deleted.append(path).append('\n');
+                tombstones++;
+            }
+            byte[] deletedBytes = deleted.toString().getBytes(StandardCharsets.UTF_8);
+            zos.putStream(Manifest.TOMBSTONE_ENTRY, new ByteArrayInputStream(deletedBytes), now, deletedBytes.length);
         }
 
-        // just accept the IDs which are requested
-        if (restrict && !restrictIDs.isEmpty()) {
-            boolean IdIsCorrect = false;
-            String ids[] = restrictIDs.split(",");
-            for (String s : ids) {
-                //				if (path.equals(ConfigurationHelper.getInstance().getMetadataFolder() + s) || path.startsWith(ConfigurationHelper.getInstance().getMetadataFolder() + s + "/")){
-                IdIsCorrect = true;
-                //				}
+        Properties info = new Properties();
+        info.setProperty("id", dumpId);
+        if (restrict) {
+            // a partial dump must never replace the entire content of the target system
+            info.setProperty("type", Manifest.TYPE_PARTIAL);
+            info.setProperty("processes", String.valueOf(processIds.size()));
+        } else {
+            info.setProperty("type", incremental ? Manifest.TYPE_INCREMENTAL : Manifest.TYPE_FULL);
+        }
+        if (incremental) {
+            info.setProperty("base", baseDumpId);
+        }
+        info.setProperty("folders", String.join(",", exportedFolders.keySet()));
+        // the importer must not delete files that were excluded from the export when it merges the processes
+        int excludeCount = 0;
+        for (Exclude exclude : excludeList) {
+            if (exclude.isUse()) {
+                info.setProperty("exclude." + excludeCount++, exclude.getRegex());
             }
-            if (!IdIsCorrect) {
-                ignoreThis = true;
-                return ignoreThis;
+        }
+        info.setProperty("excludes", String.valueOf(excludeCount));
+        ByteArrayOutputStream infoBytes = new ByteArrayOutputStream();
+        info.store(infoBytes, "Goobi dump");
+        zos.putStream(Manifest.INFO_ENTRY, new ByteArrayInputStream(infoBytes.toByteArray()), now, infoBytes.size());
+
+        messageLog.add(new Message("Added manifest with " + manifestWriter.getCount() + " files to archive"
+                + (incremental ? ", " + tombstones + " files were deleted since the base dump." : "."), MessageStatus.OK));
+    }
+
+    /**
+     * get the file where the manifest of a dump is kept
+     * 
+     * @param id
+     * @return path of the manifest
+     */
+    private Path getManifestFile(String id) {
+        return Paths.get(manifestFolder, id + ".tsv");
+    }
+
+    /**
+     * get the list of all dumps which can be used as base for an incremental export, the newest dump comes first
+     * 
+     * @return list of dump ids
+     */
+    public List<String> getAvailableBaseDumps() {
+        List<String> ids = new ArrayList<>();
+        Path folder = Paths.get(manifestFolder);
+        if (!Files.isDirectory(folder)) {
+            return ids;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*.tsv")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                ids.add(name.substring(0, name.length() - 4));
             }
+        } catch (IOException e) {
+            log.error("Error while reading the manifest folder", e);
         }
+        ids.sort(Comparator.reverseOrder());
+        return ids;
+    }
 
-        // ignore folders which are selected
-        for (Exclude e : excludeList) {
-            if (e.isUse()) {
-                if (path.matches(e.getRegex())) {
-                    ignoreThis = true;
-                    messageList.add(new Message("Ignore file " + path + ".", MessageStatus.WARNING));
-                    break;
-                } else {
-                    messageList.add(new Message("Add file " + path + " to archive.", MessageStatus.OK));
+    /**
+     * internal method to resolve the process ids of a partial export. The ids are taken from the list of ids and ranges and from the search
+     * filter. Ranges are resolved using the existing process folders, so that only the metadata folder itself needs to be listed.
+     * 
+     * @return the ids of all selected processes
+     * @throws IOException
+     */
+    private Set<Integer> resolveProcessIds() throws IOException {
+        ProcessSelection selection;
+        try {
+            selection = ProcessSelection.parse(restrictIDs);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        Set<Integer> ids = new HashSet<>(selection.getIds());
+        if (selection.hasRanges()) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(ConfigurationHelper.getInstance().getMetadataFolder()))) {
+                for (Path folder : stream) {
+                    String name = folder.getFileName().toString();
+                    if (StringUtils.isNumeric(name) && name.length() < 10 && selection.contains(Integer.parseInt(name))) {
+                        ids.add(Integer.parseInt(name));
+                    }
                 }
             }
         }
+        if (StringUtils.isNotBlank(restrictFilter)) {
+            String sql = FilterHelper.criteriaBuilder(restrictFilter, false, null, null, null, true, false);
+            ids.addAll(ProcessManager.getIdsForFilter(sql));
+        }
+        return ids;
+    }
+
+    /**
+     * internal method to select only the folders of the selected processes. The folders are resolved directly, the remaining content of the
+     * metadata folder is not traversed.
+     * 
+     * @param roots
+     * @param metadataFolder
+     */
+    private void addProcessFolders(Map<String, Path> roots, String metadataFolder) {
+        Path srcDir = Paths.get(metadataFolder);
+        metadataName = srcDir.getFileName().toString();
+        exportedFolders.put(metadataName, srcDir);
+        PhaseStatistics metadataPhase = messageLog.getPhase(metadataName);
+        List<Integer> sortedIds = new ArrayList<>(processIds);
+        Collections.sort(sortedIds);
+        int missing = 0;
+        for (Integer id : sortedIds) {
+            Path processFolder = srcDir.resolve(String.valueOf(id));
+            String name = metadataName + "/" + id;
+            if (!Files.isDirectory(processFolder)) {
+                missing++;
+            } else if (!checkIfPathShallBeIgnored(name, true, true)) {
+                roots.put(name, processFolder);
+                metadataPhase.folderAdded();
+            }
+        }
+        if (missing > 0) {
+            messageLog.add(new Message(missing + " of the selected processes do not have a metadata folder.", MessageStatus.WARNING));
+        }
+    }
 
-        return ignoreThis;
+    /**
+     * internal method to get the commands that dump the database rows of the selected processes, one command for each configured table
+     * 
+     * @return the commands
+     */
+    private List<List<String>> getProcessRowCommands() {
+        List<Integer> sortedIds = new ArrayList<>(processIds);
+        Collections.sort(sortedIds);
+        String idList = sortedIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+        List<List<String>> commands = new ArrayList<>();
+        for (Map.Entry<String, String> table : processTables.entrySet()) {
+            String where = table.getValue().replace("PROCESS_IDS", idList);
+            List<String> commandList = new ArrayList<>();
+            for (String part : ExternalCommand.parse(commandExportTable, "TABLE", table.getKey())) {
+                commandList.add(part.replace("WHERE_CLAUSE", where));
+            }
+            commands.add(commandList);
+        }
+        return commands;
     }
 
-    public static void main(String[] args) throws Exception {
-        XMLConfiguration config = new XMLConfiguration("/opt/digiverso/goobi/config/plugin_DumpPlugin.xml");
-        Exporter e = new Exporter(config);
-        //		e.setRestrict(true);
-        //		e.setRestrictIDs("10,13,15");
-        //		
-        //		System.out.println(e.checkIfPathShallBeIgnored("/opt/digiverso/goobi/metadata/131", true));
-        //		System.out.println(e.checkIfPathShallBeIgnored("/opt/digiverso/goobi/metadata/131/", true));
-        //		System.out.println(e.checkIfPathShallBeIgnored("/opt/digiverso/goobi/metadata/131/images/abdrdevod_PPN521089360_media/00000034.tif", true));
-        //		System.out.println(e.checkIfPathShallBeIgnored("/opt/digiverso/goobi/metadata/13", true));
-        //		System.out.println(e.checkIfPathShallBeIgnored("/opt/digiverso/goobi/metadata/13/", true));
-        //		System.out.println(e.checkIfPathShallBeIgnored("/opt/digiverso/goobi/metadata/13/images/abdrdevod_PPN521089360_media/00000034.tif", true));
+    /**
+     * internal method to create the filter for the scanner. The exclusions are applied to the metadata folder only, the directories which
+     * are not excluded are counted for their folder
+     * 
+     * @return the filter
+     */
+    private TreeScanner.Filter createFilter() {
+        return new TreeScanner.Filter() {
+            @Override
+            public boolean isDirectoryExcluded(String name) {
+                if (checkIfPathShallBeIgnored(name, true, isMetadataPath(name))) {
+                    return true;
+                }
+                messageLog.getPhase(getFolderName(name)).folderAdded();
+                return false;
+            }
 
-        //		e.getExcludeList().add(new Exclude("buuu", ".*master.*", true));
-        //		System.out.println(e.checkIfPathShallBeIgnored("/opt/digiverso/goobi/metadata/131/images/master_abdrdevod_PPN521089360_media/00000034.tif", true));
+            @Override
+            public boolean isFileExcluded(String name) {
+                return checkIfPathShallBeIgnored(name, false, isMetadataPath(name));
+            }
+        };
+    }
 
-        String s1 = "/opt/digiverso/goobi/metadata/131/images/master_abdrdevod_PPN521089360_tif/00000034.tif";
-        System.out.println(s1.matches(".*master.*"));
-        System.out.println(s1.matches(".*tif"));
+    /**
+     * private method to add the content of all selected folders to the archive. The folders are walked in parallel by a {@link TreeScanner},
+     * which reads the attributes of each file once. The same entries update the total of the progress and get written into the archive.
+     * 
+     * @param zos
+     * @param scanner the started scanner
+     * @param roots names inside of the archive and paths of the directories
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void addTrees(ArchiveWriter zos, TreeScanner scanner, Map<String, Path> roots) throws IOException, InterruptedException {
+        TreeScanner.Entry entry;
+        JobMetrics.Timing timing = null;
+        long count = 0;
+        try {
+            while ((entry = scanner.next()) != null) {
+                String folderName = getFolderName(entry.getName());
+                if (!folderName.equals(phase) || timing == null) {
+                    // the time is measured for each folder, the files of different folders can alternate
+                    if (timing != null) {
+                        timing.close();
+                    }
+                    timing = metrics.time("compression." + folderName);
+                    phase = folderName;
+                    currentPhase = messageLog.getPhase(folderName);
+                }
+                checkCancelled();
+                addEntryToArchive(zos, entry);
+                timing.add(entry.getSize(), 1);
+                if (count++ % 100 == 0) {
+                    metrics.sample("scan.queue", scanner.getQueued());
+                    metrics.sample("compression.pending", zos.getPendingBlocks());
+                    logProgress();
+                }
+            }
+        } finally {
+            if (timing != null) {
+                timing.close();
+            }
+        }
+        for (String error : scanner.getErrors()) {
+            String folderName = phase;
+            for (Map.Entry<String, Path> root : roots.entrySet()) {
+                if (error.startsWith(root.getValue().toString())) {
+                    folderName = getFolderName(root.getKey());
+                }
+            }
+            messageLog.getPhase(folderName).fileFailed();
+            messageLog.add(new Message("Cannot read " + error + ", it is missing in the archive.", MessageStatus.ERROR));
+        }
+        for (String folderName : exportedFolders.keySet()) {
+            PhaseStatistics statistics = messageLog.getPhase(folderName);
+            if (folderName.equals(metadataName) && restrict) {
+                messageLog.add(new Message("Added folders of the selected processes to archive: " + statistics.getSummary() + ".", MessageStatus.OK));
+            } else {
+                messageLog.add(new Message("Added folder " + folderName + " to archive: " + statistics.getSummary() + ".", MessageStatus.OK));
+            }
+        }
+    }
 
+    /**
+     * internal method to write the progress into the log file once a minute, so that long running exports can be monitored
+     */
+    private void logProgress() {
+        long now = System.currentTimeMillis();
+        if (now - lastProgressLog >= 60000) {
+            lastProgressLog = now;
+            log.info("Export progress: {}", progressTracker.getSummary());
+        }
     }
 
     /**
-     * public getter to receive the progress in percent
+     * get the name of the selected folder a path inside of the archive belongs to
      * 
-     * @param file
+     * @param name
+     * @return the first element of the path
      */
-    public int getProgress() {
-        if (numberAllFiles == 0) {
-            return 0;
+    private static String getFolderName(String name) {
+        int separator = name.indexOf('/');
+        return separator > 0 ? name.substring(0, separator) : name;
+    }
+
+    private boolean isMetadataPath(String name) {
+        return metadataName != null && name.startsWith(metadataName + "/");
+    }
+
+    /**
+     * private method to add a single scanned file to the archive, unchanged files of incremental exports are only listed in the manifest
+     * 
+     * @param zos
+     * @param entry
+     * @throws IOException
+     */
+    private void addEntryToArchive(ArchiveWriter zos, TreeScanner.Entry entry) throws IOException {
+        String zipEntryName = entry.getName();
+        ManifestEntry previous = baseManifest == null ? null : baseManifest.remove(zipEntryName);
+        if (previous != null && previous.isUnchanged(entry.getSize(), entry.getLastModified())) {
+            // unchanged since the base dump, just keep it in the manifest
+            manifestWriter.add(zipEntryName, previous);
+            currentPhase.fileSkipped();
+        } else if (snapshotWriter != null) {
+            // the file is linked or copied in the background, no hash is calculated for snapshots
+            snapshotWriter.putFile(zipEntryName, entry.getPath(), entry.getSize(), entry.getLastModified());
+            manifestWriter.add(zipEntryName, new ManifestEntry(entry.getSize(), entry.getLastModified(), ""));
+            currentPhase.fileAdded(entry.getSize());
         } else {
-            int result = 100 * numberCurrentFile / numberAllFiles;
-            return result;
+            String hash = addFileToArchive(zos, zipEntryName, entry.getPath(), entry.getLastModified(), entry.getSize());
+            manifestWriter.add(zipEntryName, new ManifestEntry(entry.getSize(), entry.getLastModified(), hash));
+            currentPhase.fileAdded(entry.getSize());
         }
+        progressTracker.advance(1, entry.getSize());
+    }
+
+    /**
+     * internal method to add a single file to the archive, the content hash is calculated while the file is read
+     * 
+     * @param zos
+     * @param zipEntryName
+     * @param srcFile
+     * @param mtime
+     * @param size size of the file when it was scanned
+     * @return the content hash or an empty string if no hash shall be calculated
+     * @throws IOException
+     */
+    private String addFileToArchive(ArchiveWriter zos, String zipEntryName, Path srcFile, long mtime, long size) throws IOException {
+        if (!manifestHash) {
+            try (InputStream in = throttle.input(Files.newInputStream(srcFile))) {
+                zos.putStream(zipEntryName, in, mtime, size);
+            }
+            return "";
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new DigestInputStream(throttle.input(Files.newInputStream(srcFile)), digest)) {
+            zos.putStream(zipEntryName, in, mtime, size);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * internal method to check if the given path shall be included in the zip file. Specific content can be ignored using the exclusions, if a
+     * directory is ignored its content is not traversed at all
+     * 
+     * @param path
+     * @param isDirectory
+     * @param isMetadataFolder
+     * @return
+     */
+    private boolean checkIfPathShallBeIgnored(String path, boolean isDirectory, boolean isMetadataFolder) {
+        // just do the checking for metatada folder, otherwise take it
+        if (!isMetadataFolder || !exportFilter.isActive()) {
+            return false;
+        }
+
+        // ignore folders and files which are selected
+        long start = System.nanoTime();
+        boolean ignoreThis = isDirectory ? exportFilter.isDirectoryExcluded(path) : exportFilter.isExcluded(path);
+        filterNanos.add(System.nanoTime() - start);
+        filterChecks.increment();
+        if (ignoreThis && isDirectory) {
+            messageLog.getPhase(getFolderName(path)).folderSkipped();
+        } else if (ignoreThis) {
+            messageLog.getPhase(getFolderName(path)).fileSkipped();
+        }
+        return ignoreThis;
+    }
+
+    /**
+     * get all messages that are still kept in the message log
+     * 
+     * @return the messages, oldest first
+     */
+    public List<Message> getMessageList() {
+        return messageLog.getMessages();
+    }
+
+    /**
+     * get the current progress for the event stream of the user interface
+     * 
+     * @param sequence sequence number of the last message the client has received
+     * @return the progress including all newer messages
+     */
+    public Map<String, Object> getProgressEvent(long sequence) {
+        Map<String, Object> event = ProgressChannel.createEvent(messageLog, sequence, phase, isRunning(), progressTracker);
+        event.put("queued", isQueued());
+        event.put("finished", finished);
+        event.put("downloadReady", downloadReady);
+        return event;
+    }
+
+    /**
+     * public getter to receive the progress of the entire export in percent, it is based on the bytes of all selected folders and the
+     * database dump
+     */
+    public int getProgress() {
+        return progressTracker.getPercent();
     }
 
 }
@@ -0,0 +1,130 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * An external command like the database dump or import. The error output is read by a separate thread, so that the command cannot stall
+ * because of a full pipe. The standard input and output can be used as streams, so that no temporary files are needed.
+ */
+@Log4j2
+public class ExternalCommand {
+
+    // only the last part of the error output is kept for the error message
+    private static final int MAX_ERROR_OUTPUT = 16 * 1024;
+
+    private final String name;
+    private final Process process;
+    private final Thread errorReader;
+    private final StringBuilder errorOutput = new StringBuilder();
+
+    private ExternalCommand(String name, Process process) {
+        this.name = name;
+        this.process = process;
+        errorReader = new Thread(this::readErrorOutput, "exchange-command-" + process.pid());
+        errorReader.setDaemon(true);
+        errorReader.start();
+    }
+
+    /**
+     * split a configured command into its parts. The parts are separated by a comma followed by a space, as in the configuration file
+     *
+     * @param command the configured command
+     * @param placeholder placeholder that gets replaced in all parts, can be null
+     * @param value replacement of the placeholder
+     * @return the parts of the command
+     */
+    public static List<String> parse(String command, String placeholder, String value) {
+        List<String> parts = new ArrayList<>();
+        for (String part : command.split(", ")) {
+            parts.add(placeholder == null ? part : part.replace(placeholder, value));
+        }
+        return parts;
+    }
+
+    /**
+     * start a command
+     *
+     * @param name name of the command for messages
+     * @param command the parts of the command
+     * @param pipeInput true to write into the standard input of the command using {@link #getInput()}, otherwise it is closed
+     * @param pipeOutput true to read the standard output of the command using {@link #getOutput()}, otherwise it gets discarded
+     * @return the running command
+     * @throws IOException if the command cannot be started
+     */
+    public static ExternalCommand start(String name, List<String> command, boolean pipeInput, boolean pipeOutput) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        if (!pipeOutput) {
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        }
+        Process process = builder.start();
+        if (!pipeInput) {
+            process.getOutputStream().close();
+        }
+        return new ExternalCommand(name, process);
+    }
+
+    /**
+     * get the standard output of the command
+     */
+    public InputStream getOutput() {
+        return process.getInputStream();
+    }
+
+    /**
+     * get the standard input of the command, it must be closed after all data is written
+     */
+    public OutputStream getInput() {
+        return process.getOutputStream();
+    }
+
+    /**
+     * wait until the command is finished
+     *
+     * @throws IOException if the command did not finish successfully, the message contains the error output
+     * @throws InterruptedException
+     */
+    public void waitForSuccess() throws IOException, InterruptedException {
+        int result = process.waitFor();
+        errorReader.join();
+        if (result != 0) {
+            String errors;
+            synchronized (errorOutput) {
+                errors = errorOutput.toString().trim();
+            }
+            throw new IOException(name + " failed with exit code " + result + (errors.isEmpty() ? "" : ": " + errors));
+        }
+    }
+
+    /**
+     * stop the command if it is still running
+     */
+    public void destroy() {
+        process.destroy();
+    }
+
+    private void readErrorOutput() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                log.debug("{}: {}", name, line);
+                synchronized (errorOutput) {
+                    errorOutput.append(line).append('\n');
+                    if (errorOutput.length() > MAX_ERROR_OUTPUT) {
+                        errorOutput.delete(0, errorOutput.length() - MAX_ERROR_OUTPUT);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error while reading the error output of " + name, e);
+        }
+    }
+}
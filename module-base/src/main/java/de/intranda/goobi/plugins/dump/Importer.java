@@ -1,27 +1,54 @@
 package de.intranda.goobi.plugins.dump;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.nio.file.FileAlreadyExistsException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.function.IOSupplier;
 import org.primefaces.event.FileUploadEvent;
 
 import de.sub.goobi.config.ConfigurationHelper;
-import de.sub.goobi.helper.StorageProvider;
+import de.sub.goobi.helper.FacesContextHelper;
+import jakarta.faces.context.FacesContext;
 import lombok.Data;
 import lombok.extern.log4j.Log4j;
 
@@ -29,11 +56,16 @@ import lombok.extern.log4j.Log4j;
 @Data
 public class Importer {
 
-    private int numberAllFiles = 0;
-    private int numberCurrentFile = 0;
-    private List<Message> messageList;
+    private ProgressTracker progressTracker = new ProgressTracker();
+    private JobMetrics metrics = new JobMetrics();
+    private MessageLog messageLog = new MessageLog();
+    private volatile String phase;
     private Path importFile;
-    private boolean finished = false;
+    private volatile boolean finished = false;
+    // the current or last job of this importer
+    private volatile ExchangeJob job;
+    private JobManager jobManager;
+    private UploadManager uploadManager;
     private boolean confirmation = false;
     private boolean includeRulesets = false;
     private boolean includeScripts = false;
@@ -42,48 +74,381 @@ public class Importer {
     private boolean includeDockets = false;
     private boolean includePlugins = false;
     private boolean includeSQLdump = false;
+    // merge the metadata folder process by process instead of replacing it
+    private boolean mergeMetadata = false;
+    // keep existing processes that are not contained in the dump when the metadata is merged
+    private boolean keepMissingProcesses = true;
+
+    // staging folders of the imports that are running in this process, other processes are recognized by the lock files of their folders
+    private static final Set<Path> ACTIVE_STAGING_FOLDERS = ConcurrentHashMap.newKeySet();
+    // lock files without a staging folder are only removed after this time, the folder is created after the lock was acquired
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final long ORPHANED_LOCK_MILLIS = TimeUnit.HOURS.toMillis(1);
 
     private String command;
+    // each import extracts the dump into its own subfolder of the staging folder
+    private String stagingFolder;
     private String tempDumpFolder;
+    // holds the lock of the staging folder as long as the import is running
+    private FileChannel stagingLock;
+    private boolean streamingImport;
+    // format of the stored file, it is detected from its first bytes
+    private ArchiveFormat archiveFormat;
+    private int extractionThreads;
+    private TrashFolder trash;
+    private int mergeThreads;
+    // limits the bandwidth of the import, so that it does not slow down the running Goobi
+    private IoThrottle throttle;
+
+    private boolean deltaDump = false;
+    private boolean incrementalDump = false;
+    private boolean streamingSqlImport;
+    private ExternalCommand sqlImport;
+    // the streamed database import was started during the extraction, the database is changed even if the import stops afterwards
+    private boolean sqlImportStarted;
+    private TableDump tableDump;
+    private List<String> tombstones;
+    // exclusions of the export that created the dump, null if the dump does not contain them
+    private ExportFilter dumpFilter;
 
     public Importer(XMLConfiguration config) {
-        messageList = new ArrayList<>();
         command = config.getString("commandImport", "");
-        tempDumpFolder = ConfigurationHelper.getInstance().getTemporaryFolder() + "dump";
+        streamingSqlImport = config.getBoolean("commandImport[@streaming]", false);
+        tableDump = new TableDump(config);
+        // the staging folder is placed next to the Goobi folders by default, so that the extracted folders can be renamed into place
+        String goobiFolder = ConfigurationHelper.getInstance().getGoobiFolder();
+        stagingFolder = config.getString("extraction[@folder]", goobiFolder + ".exchange-staging");
+        trash = new TrashFolder(Paths.get(config.getString("trash[@folder]", goobiFolder + ".exchange-trash")),
+                config.getInt("trash[@threads]", 4));
+        // delete what was left by a previous run
+        trash.purge();
+        purgeStagingFolder();
+        mergeMetadata = config.getBoolean("merge[@enabled]", false);
+        keepMissingProcesses = config.getBoolean("merge[@keepMissing]", true);
+        mergeThreads = config.getInt("merge[@threads]", Runtime.getRuntime().availableProcessors());
+        throttle = new IoThrottle(config);
+        streamingImport = config.getBoolean("streamingImport", true);
+        extractionThreads = config.getInt("extraction[@threads]", Runtime.getRuntime().availableProcessors());
+        jobManager = JobManager.getInstance(config);
+        uploadManager = UploadManager.getInstance(config);
+        uploadManager.register();
+        ProgressChannel.register(ProgressChannel.IMPORT, this::getProgressEvent);
+        if (config.getBoolean("metrics[@jmx]", true)) {
+            ExchangeMBean.register(ExchangeJob.Type.IMPORT);
+        }
     }
 
     /**
-     * public Eventhandler to allow a file upload
+     * public Eventhandler to allow a file upload. The import runs in the current request, it is rejected if the configured number of imports
+     * is running already.
      * 
      * @param event
      */
     public void uploadFile(FileUploadEvent event) {
+        if (isRunning()){
+            messageLog.add(new Message("An import is running already.", MessageStatus.WARNING));
+            return;
+        }
+        ExchangeJob newJob = new ExchangeJob(ExchangeJob.Type.IMPORT, "Import of " + event.getFile().getFileName(), Exporter.getUserName(),
+                progressTracker, this::getPhase, () -> runImport(() -> importUploadedFile(event)), false);
+        newJob.setMetrics(metrics);
+        try {
+            jobManager.runNow(this, newJob, () -> prepareJob(newJob));
+        } catch (RejectedExecutionException e) {
+            messageLog.add(new Message("Import could not be started: " + e.getMessage(), MessageStatus.ERROR));
+        }
+    }
+
+    /**
+     * import a goobi dump file from the local filesystem without user interface, e.g. from the command line or a scheduled task. The import
+     * runs in the current thread, the file is not deleted afterwards.
+     * 
+     * @param file the goobi dump file or the index of a dump that was split into volumes
+     * @return true if the import was successful
+     */
+    public boolean importFile(Path file) {
+        if (isRunning()){
+            messageLog.add(new Message("An import is running already.", MessageStatus.WARNING));
+            return false;
+        }
+        if (!Files.isRegularFile(file)){
+            messageLog.add(new Message("The file " + file + " does not exist.", MessageStatus.ERROR));
+            return false;
+        }
+        ExchangeJob newJob = new ExchangeJob(ExchangeJob.Type.IMPORT, "Import of " + file.getFileName(), Exporter.getUserName(), progressTracker,
+                this::getPhase, () -> runImport(() -> {
+                    startStoredFileProgress();
+                    importStoredFile();
+                }), false);
+        newJob.setMetrics(metrics);
+        try {
+            jobManager.runNow(this, newJob, () -> {
+                prepareJob(newJob);
+                importFile = file;
+            });
+        } catch (RejectedExecutionException e) {
+            messageLog.add(new Message("Import could not be started: " + e.getMessage(), MessageStatus.ERROR));
+            return false;
+        }
+        return finished;
+    }
+
+    /**
+     * public method to import a chunked upload, the page calls it with the parameter uploadId as soon as the upload was created. The import
+     * is queued as background job, it extracts the leading chunks while the following ones are still uploaded.
+     */
+    public void importUpload() {
+        FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
+        String uploadId = facesContext == null ? null : facesContext.getExternalContext().getRequestParameterMap().get("uploadId");
+        // only the user who created the upload may import it
+        ChunkedUpload upload = uploadManager.get(AccessGuard.getLogin(), uploadId);
+        if (upload == null){
+            messageLog.add(new Message("The upload " + uploadId + " does not exist.", MessageStatus.ERROR));
+            return;
+        }
+        if (isRunning()){
+            messageLog.add(new Message("An import is running already.", MessageStatus.WARNING));
+            return;
+        }
+        ExchangeJob newJob = new ExchangeJob(ExchangeJob.Type.IMPORT, "Import of " + upload.getName(), Exporter.getUserName(), progressTracker,
+                this::getPhase, () -> runImport(() -> importChunkedUpload(upload)), false);
+        newJob.setMetrics(metrics);
+        try {
+            jobManager.submit(this, newJob, () -> prepareJob(newJob));
+        } catch (RejectedExecutionException e) {
+            messageLog.add(new Message("Import could not be started: " + e.getMessage(), MessageStatus.ERROR));
+        }
+    }
+
+    /**
+     * internal method to reset the state of the importer for a new job, it is called once the job manager accepted the job
+     * 
+     * @param newJob
+     */
+    private void prepareJob(ExchangeJob newJob) {
         finished = false;
-        numberAllFiles = 0;
-        numberCurrentFile = 0;
-        messageList = new ArrayList<>();
+        messageLog.clear();
+        sqlImport = null;
+        sqlImportStarted = false;
+        job = newJob;
+    }
+
+    /**
+     * cancel the current import. It stops during the upload or extraction, once the content of Goobi gets replaced the import is not
+     * cancelled anymore.
+     */
+    public void cancelImport() {
+        ExchangeJob current = job;
+        if (current != null && current.cancel()){
+            messageLog.add(new Message("Cancellation of the import was requested.", MessageStatus.WARNING));
+        }
+    }
+
+    /**
+     * check if an import of this importer is running
+     */
+    public boolean isRunning() {
+        ExchangeJob current = job;
+        return current != null && !current.getState().isDone();
+    }
+
+    /**
+     * internal method that executes the import job
+     * 
+     * @param work the extraction and replacement of the content
+     * @return true if the import was successful
+     */
+    private boolean runImport(Runnable work) {
+        progressTracker.start();
+        metrics.start();
+        throttle.reset();
+        try {
+            work.run();
+        } finally {
+            removeStagingFolder();
+            progressTracker.finish();
+            if (throttle.isActive()) {
+                metrics.record("throttle.wait", throttle.getWaitNanos(), 0, 0);
+            }
+            log.info("Import finished: " + progressTracker.getSummary());
+            log.info("Timing of import:\n" + metrics.getReport());
+        }
+        return finished;
+    }
+
+    /**
+     * internal method to stop the import if the current job was cancelled
+     * 
+     * @throws InterruptedIOException
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        ExchangeJob current = job;
+        if (current != null){
+            current.checkCancelled();
+        }
+    }
 
-        // upload the file and store it in the filesystem
+    /**
+     * internal method to check if the import was cancelled before the content of Goobi gets replaced
+     * 
+     * @return true if the import shall stop
+     */
+    private boolean isCancelled() {
+        ExchangeJob current = job;
+        if (current != null && current.isCancelRequested()){
+            if (sqlImportStarted) {
+                messageLog.add(new Message("The import was cancelled, the files of Goobi were not changed.", MessageStatus.WARNING));
+            } else {
+                messageLog.add(new Message("The import was cancelled, the content of Goobi was not changed.", MessageStatus.WARNING));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * internal method to check if the cancellation of the current job was requested, without a message
+     */
+    private boolean isCancelRequested() {
+        ExchangeJob current = job;
+        return current != null && current.isCancelRequested();
+    }
+
+    /**
+     * internal method to extract the uploaded file and to replace the content of Goobi with it
+     * 
+     * @param event
+     */
+    private void importUploadedFile(FileUploadEvent event) {
+        if (streamingImport) {
+            // extract the content directly from the uploaded stream
+            importStream(event.getFile()::getInputStream, event.getFile().getSize());
+            return;
+        }
+
+        // upload the file and store it in the filesystem, the file is read a second time for the extraction
+        phase = "upload";
+        progressTracker.setTotal(0, 2 * event.getFile().getSize());
         try {
             String filename = event.getFile().getFileName();
-            storeUploadedFile(filename, event.getFile().getInputStream());
+            try (JobMetrics.Timing timing = metrics.time("upload")) {
+                storeUploadedFile(filename, progressTracker.count(event.getFile().getInputStream(), true));
+                timing.add(progressTracker.getCurrentBytes(), 1);
+            }
         } catch (IOException e) {
-            log.error("IOException while uploading the goobi dump file", e);
-            messageList.add(
-                    new Message("IOException while uploading the goobi dump file: " + e.getMessage(), MessageStatus.ERROR));
+            if (!isCancelled()) {
+                log.error("IOException while uploading the goobi dump file", e);
+                messageLog.add(
+                        new Message("IOException while uploading the goobi dump file: " + e.getMessage(), MessageStatus.ERROR));
+            }
+            return;
+        }
+        if (!isCancelled()){
+            importStoredFile();
         }
+    }
 
-        // start the unzipping
+    /**
+     * internal method to extract the content while the uploaded file is read and to replace the content of Goobi with it. The progress is
+     * measured by the bytes read from the uploaded file.
+     * 
+     * @param stream opens the uploaded file
+     * @param size size of the uploaded file in bytes
+     */
+    private void importStream(IOSupplier<InputStream> stream, long size) {
+        progressTracker.setTotal(0, size);
+        try (InputStream in = progressTracker.count(stream.get(), true);
+                JobMetrics.Timing timing = metrics.time("extraction")) {
+            extractStream(in);
+            timing.add(progressTracker.getCurrentBytes(), messageLog.getPhase("extraction").getFilesAdded());
+        } catch (IOException e) {
+            if (!isCancelled()) {
+                log.error("IOException while extracting the uploaded file", e);
+                messageLog.add(new Message("IOException while extracting the uploaded file: " + e.getMessage(), MessageStatus.ERROR));
+            }
+            reportStreamedSqlImport();
+            return;
+        }
+        if (!isCancelled()) {
+            replaceContent();
+        } else {
+            reportStreamedSqlImport();
+        }
+    }
+
+    /**
+     * internal method to import a chunked upload. The streaming import extracts the leading chunks while the following ones are still
+     * uploaded, otherwise the import waits until all chunks are received. The upload is deleted once the import was successful.
+     * 
+     * @param upload
+     */
+    private void importChunkedUpload(ChunkedUpload upload) {
+        if (streamingImport) {
+            importStream(() -> upload.openStream(uploadManager.getStallTimeout(), this::isCancelRequested), upload.getSize());
+        } else {
+            phase = "upload";
+            try {
+                upload.awaitComplete(uploadManager.getStallTimeout(), this::isCancelRequested);
+            } catch (IOException e) {
+                if (!isCancelled()) {
+                    log.error("IOException while uploading the goobi dump file", e);
+                    messageLog.add(new Message("IOException while uploading the goobi dump file: " + e.getMessage(), MessageStatus.ERROR));
+                }
+                return;
+            }
+            importFile = upload.getFile();
+            if (!isCancelled()) {
+                startStoredFileProgress();
+                importStoredFile();
+            }
+        }
+        if (finished) {
+            uploadManager.delete(upload);
+        }
+    }
+
+    /**
+     * internal method to set the total progress of a file that is on the local disk already. The progress of the extraction is measured in
+     * bytes of the stored file, volumes are read twice for the verification and the extraction. The total is set before anything is counted,
+     * so that the progress never goes backwards
+     */
+    private void startStoredFileProgress() {
         try {
+            long size = VolumeIndex.isIndex(importFile) ? 2 * VolumeIndex.read(importFile).getTotalSize() : Files.size(importFile);
+            progressTracker.setTotal(0, size);
+        } catch (IOException e) {
+            // the extraction reports the error
+            log.debug("Cannot get the size of " + importFile, e);
+        }
+    }
+
+    /**
+     * internal method to extract the goobi dump file from the local filesystem and to replace the content of Goobi with it
+     */
+    private void importStoredFile() {
+        // start the unzipping
+        try (JobMetrics.Timing timing = metrics.time("extraction")) {
             unzipUploadedFile();
+            timing.add(messageLog.getPhase("extraction").getBytesAdded(), messageLog.getPhase("extraction").getFilesAdded());
         } catch (IOException e) {
             log.error("IOException while extracting the uploaded file", e);
-            messageList.add(
+            messageLog.add(
                     new Message("IOException while extracting the uploaded file: " + e.getMessage(), MessageStatus.ERROR));
+            reportStreamedSqlImport();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            messageLog.add(new Message("Extraction of the uploaded file was interrupted.", MessageStatus.ERROR));
+            reportStreamedSqlImport();
+            return;
         }
 
         // start to replace the goobi content with the content of the uploaded unzipped file
-        replaceContent();
+        if (!isCancelled()){
+            replaceContent();
+        } else {
+            reportStreamedSqlImport();
+        }
     }
 
     /**
@@ -97,24 +462,27 @@ public class Importer {
         try {
             String extension = fileName.substring(fileName.indexOf("."));
             importFile = Files.createTempFile(fileName, extension);
-            out = new FileOutputStream(importFile.toFile());
+            out = throttle.output(new FileOutputStream(importFile.toFile()));
 
             int read = 0;
             byte[] bytes = new byte[1024];
             while ((read = in.read(bytes)) != -1) {
+                checkCancelled();
                 out.write(bytes, 0, read);
             }
             out.flush();
+        } catch (InterruptedIOException e) {
+            log.debug("Upload of the file " + fileName + " was cancelled");
         } catch (IOException e) {
             log.error("IOException while copying the file " + fileName, e);
-            messageList.add(new Message("IOException while copying the file: " + e.getMessage(), MessageStatus.ERROR));
+            messageLog.add(new Message("IOException while copying the file: " + e.getMessage(), MessageStatus.ERROR));
         } finally {
             if (in != null) {
                 try {
                     in.close();
                 } catch (IOException e) {
                     log.error("Error while closing the InputStream", e);
-                    messageList.add(
+                    messageLog.add(
                             new Message("Error while closing the InputStream: " + e.getMessage(), MessageStatus.ERROR));
                 }
             }
@@ -123,7 +491,7 @@ public class Importer {
                     out.close();
                 } catch (IOException e) {
                     log.error("Error while closing the OutputStream", e);
-                    messageList.add(new Message("Error while closing the OutputStream: " + e.getMessage(),
+                    messageLog.add(new Message("Error while closing the OutputStream: " + e.getMessage(),
                             MessageStatus.ERROR));
                 }
             }
@@ -131,72 +499,603 @@ public class Importer {
     }
 
     /**
-     * internal method for unzipping the content of an uploaded zip file
+     * internal method to extract the content of the uploaded file while it is read from the stream. The file is read only once and not
+     * copied into a temporary file first. The progress is measured by the number of bytes read.
+     * 
+     * @param in
+     * @throws IOException
      */
-    private void unzipUploadedFile() throws IOException{
-        messageList.add(new Message("Starting to extract the uploaded file into " + tempDumpFolder, MessageStatus.OK));
+    private void extractStream(InputStream in) throws IOException {
+        Path temp = prepareStagingFolder();
+        try (ArchiveReader reader = ArchiveFormat.open(in)) {
+            extractEntries(reader, temp);
+        }
+        progressTracker.complete();
+    }
 
+    /**
+     * internal method to create the staging folder of the current job. Each job gets its own subfolder, so that imports of different users can
+     * run at the same time. The name contains a random part, because the ids of the jobs are only unique inside of one process and the command
+     * line tool may import into the same staging folder as the application. The folder is protected by a lock file next to it, so that other
+     * processes do not purge it.
+     * 
+     * @return the empty staging folder
+     * @throws IOException
+     */
+    private Path prepareStagingFolder() throws IOException {
+        phase = "extraction";
+        Path temp = Paths.get(stagingFolder, "import-" + job.getId() + "-" + UUID.randomUUID());
+        Files.createDirectories(temp.getParent());
+        // register the folder first, the purge of another importer in this process must not probe the lock
+        ACTIVE_STAGING_FOLDERS.add(temp);
+        try {
+            stagingLock = lockStagingFolder(temp);
+        } catch (IOException e) {
+            ACTIVE_STAGING_FOLDERS.remove(temp);
+            throw e;
+        }
+        tempDumpFolder = temp.toString();
+        Files.createDirectories(temp);
+        checkStagingFileSystem(temp);
+        messageLog.add(new Message("Starting to extract the uploaded file into " + tempDumpFolder, MessageStatus.OK));
+        return temp;
+    }
+
+    /**
+     * internal method to remove the staging folder of the current job after the import, the remaining content gets deleted in the background
+     */
+    private void removeStagingFolder() {
+        if (tempDumpFolder == null) {
+            return;
+        }
         Path temp = Paths.get(tempDumpFolder);
-        if (temp.toFile().exists()){
-            messageList.add(new Message("Cleanup temp folder " + tempDumpFolder + " first.", MessageStatus.OK));
-            StorageProvider.getInstance().deleteDir(temp);
-        }
-
-        //count the content
-        ZipFile zipfile = new ZipFile(importFile.toFile());
-        numberAllFiles = zipfile.size();
-        numberCurrentFile = 0;
-        zipfile.close();
-
-        ZipInputStream zis = new ZipInputStream(new FileInputStream(importFile.toFile()));
-        ZipEntry ze = zis.getNextEntry();
-        while (ze != null) {
-            String fileName = ze.getName();
-            Path newFile = Paths.get(tempDumpFolder, fileName);
-            if (!newFile.toFile().isHidden()){
-                if (ze.isDirectory()) {
-                    messageList.add(new Message("Creating directory: " + ze.getName(), MessageStatus.OK));
-                    Files.createDirectories(newFile);
-                } else{
-                    numberCurrentFile++;
-                    try{
-                        if (!newFile.getParent().toFile().exists()){
-                            Files.createDirectories(newFile.getParent());
-                            messageList.add(new Message("Creating directory: " + newFile.getParent(), MessageStatus.OK));
-                        }
-                    }catch(FileAlreadyExistsException e){
-                        log.info("Folder does exist already and does not get created again: " + newFile.getParent());
-                    }
-                    try{
-                        Files.createFile(newFile);
-                    }catch (FileAlreadyExistsException e){
-                        //messageList.add(new Message("File exists already and does not get created again:" + ze.getName(), MessageStatus.OK));
+        try {
+            trash.dispose(temp);
+        } catch (IOException e) {
+            log.error("Cannot remove the staging folder " + temp, e);
+        } finally {
+            releaseStagingLock(temp);
+            ACTIVE_STAGING_FOLDERS.remove(temp);
+            tempDumpFolder = null;
+        }
+    }
+
+    /**
+     * internal method to create and lock the lock file of a staging folder
+     * 
+     * @param folder the staging folder
+     * @return the channel that holds the lock
+     * @throws IOException if the lock file cannot be created or is locked by another process
+     */
+    private static FileChannel lockStagingFolder(Path folder) throws IOException {
+        FileChannel channel = FileChannel.open(getLockFile(folder), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() == null) {
+                throw new IOException("The staging folder " + folder + " is locked by another process.");
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("The staging folder " + folder + " is already locked.", e);
+        }
+        return channel;
+    }
+
+    /**
+     * internal method to release the lock of the staging folder of the current job and to remove the lock file
+     * 
+     * @param folder the staging folder
+     */
+    private void releaseStagingLock(Path folder) {
+        if (stagingLock == null) {
+            return;
+        }
+        try {
+            // delete the file while the lock is held, so that no other process can remove a file that was just locked again
+            Files.deleteIfExists(getLockFile(folder));
+            stagingLock.close();
+        } catch (IOException e) {
+            log.error("Cannot release the lock of the staging folder " + folder, e);
+        } finally {
+            stagingLock = null;
+        }
+    }
+
+    /**
+     * check if the staging folder of the lock file is used by a running import of another process. The folders of this process must not be
+     * checked, closing the channel would release the lock of the running import.
+     * 
+     * @param lockFile
+     * @return true if another process holds the lock
+     */
+    static boolean isLocked(Path lockFile) {
+        if (!Files.exists(lockFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            // keep the folder if the state is unknown
+            log.warn("Cannot check the lock file " + lockFile, e);
+            return true;
+        }
+    }
+
+    static Path getLockFile(Path folder) {
+        return folder.resolveSibling(folder.getFileName() + LOCK_SUFFIX);
+    }
+
+    /**
+     * internal method to remove the staging folders that were left by imports of a previous run of the application. Folders of running
+     * imports are kept, no matter if they belong to this process or to another one like the command line tool.
+     */
+    private void purgeStagingFolder() {
+        Path root = Paths.get(stagingFolder);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(LOCK_SUFFIX)) {
+                    Path folder = path.resolveSibling(name.substring(0, name.length() - LOCK_SUFFIX.length()));
+                    if (!Files.exists(folder) && !ACTIVE_STAGING_FOLDERS.contains(folder)
+                            && System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis() > ORPHANED_LOCK_MILLIS && !isLocked(path)) {
+                        Files.deleteIfExists(path);
                     }
+                } else if (!ACTIVE_STAGING_FOLDERS.contains(path) && !isLocked(getLockFile(path))) {
+                    trash.dispose(path);
+                    Files.deleteIfExists(getLockFile(path));
+                }
+            }
+        } catch (IOException e) {
+            log.error("Cannot clean up the staging folder " + root, e);
+        }
+    }
+
+    /**
+     * internal method to extract all entries of an archive one after another, the sql dump is streamed into the database import if
+     * configured
+     * 
+     * @param reader
+     * @param temp
+     * @throws IOException
+     */
+    private void extractEntries(ArchiveReader reader, Path temp) throws IOException {
+        PhaseStatistics phase = messageLog.getPhase("extraction");
+        Set<Path> createdFolders = new HashSet<>();
+        extractEntries(reader, temp, createdFolders);
+        phase.foldersAdded(createdFolders.size());
+        messageLog.add(new Message("File successfully extracted: " + phase.getSummary() + ".", MessageStatus.OK));
+    }
 
-                    FileOutputStream fos = new FileOutputStream(newFile.toFile());
-                    byte[] buffer = new byte[1024];
-                    int len;
-                    while ((len = zis.read(buffer)) > 0) {
-                        fos.write(buffer, 0, len);
+    /**
+     * internal method to extract all entries of an archive into the staging folder without summary, it is used for the volumes of a
+     * multi-volume dump as well
+     * 
+     * @param reader
+     * @param temp
+     * @param createdFolders folders which were created already, it must be thread safe if several archives are extracted at the same time
+     * @throws IOException
+     */
+    private void extractEntries(ArchiveReader reader, Path temp, Set<Path> createdFolders) throws IOException {
+        PhaseStatistics phase = messageLog.getPhase("extraction");
+        ArchiveReader.Entry entry;
+        while ((entry = reader.next()) != null) {
+            checkCancelled();
+            Path newFile = resolveEntry(temp, entry.getName());
+            if (!newFile.toFile().isHidden()) {
+                if (entry.isDirectory()) {
+                    createFolder(newFile, createdFolders);
+                } else if (isSqlDump(entry.getName()) && includeSQLdump && streamingSqlImport && command.length() > 0) {
+                    // the database import runs in the background while the remaining files get extracted
+                    startSqlImport(reader.getInputStream());
+                } else {
+                    createFolder(newFile.getParent(), createdFolders);
+                    try (OutputStream out = throttle.output(Files.newOutputStream(newFile))) {
+                        reader.getInputStream().transferTo(out);
                     }
-                    fos.close();
+                    if (entry.getLastModified() >= 0) {
+                        Files.setLastModifiedTime(newFile, FileTime.fromMillis(entry.getLastModified()));
+                    }
+                    phase.fileAdded(Files.size(newFile));
+                    progressTracker.advanceUnknown(1, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * internal method to get the path of an entry of the zip file inside of the given folder. Entries that would be written outside of the
+     * folder are rejected.
+     * 
+     * @param folder
+     * @param name
+     * @return the path of the entry
+     * @throws IOException
+     */
+    private Path resolveEntry(Path folder, String name) throws IOException {
+        String relative = name;
+        while (relative.startsWith("/")) {
+            relative = relative.substring(1);
+        }
+        Path path = folder.resolve(relative).normalize();
+        if (!path.startsWith(folder)) {
+            throw new IOException("Invalid entry in zip file: " + name);
+        }
+        return path;
+    }
+
+    /**
+     * internal method to create a folder including its parents, folders which were created already are not checked again
+     * 
+     * @param folder
+     * @param createdFolders
+     * @throws IOException
+     */
+    private void createFolder(Path folder, Set<Path> createdFolders) throws IOException {
+        if (createdFolders.add(folder)) {
+            Files.createDirectories(folder);
+        }
+    }
+
+    /**
+     * internal method for unzipping the content of an uploaded zip file. The file is on the local disk already, therefore the entries get
+     * extracted in parallel
+     */
+    private void unzipUploadedFile() throws IOException, InterruptedException {
+        Path temp = prepareStagingFolder();
+        if (VolumeIndex.isIndex(importFile)) {
+            // the volumes can be in different formats, the sql dump is always read from the volume while it is extracted
+            archiveFormat = null;
+            extractVolumes(VolumeIndex.read(importFile), importFile.toAbsolutePath().getParent(), temp);
+            return;
+        }
+        archiveFormat = ArchiveFormat.detect(importFile);
+        if (archiveFormat != ArchiveFormat.ZIP) {
+            // tar archives are compressed as a single stream, their entries can only be read one after another
+            try (ArchiveReader reader = ArchiveFormat.open(progressTracker.count(throttle.input(Files.newInputStream(importFile)), true))) {
+                extractEntries(reader, temp);
+            }
+            progressTracker.complete();
+            return;
+        }
+
+        ZipExtractor extractor = new ZipExtractor(importFile, temp, extractionThreads);
+        extractor.setThrottle(throttle);
+        extractor.setCancelled(this::isCancelRequested);
+        if (includeSQLdump && streamingSqlImport && command.length() > 0) {
+            // the sql dump is read directly from the uploaded file during the import
+            extractor.setFilter(name -> !isSqlDump(name));
+        }
+        extractor.prepare();
+        // the progress is measured in bytes of the stored file, the extracted bytes are scaled down to them
+        progressTracker.addTotal(extractor.getTotalFiles(), 0);
+        double scale = extractor.getTotalBytes() > 0 ? (double) Files.size(importFile) / extractor.getTotalBytes() : 0;
+        extractor.extract((name, bytes) -> addExtractedFile(bytes, (long) (bytes * scale)));
+        progressTracker.complete();
+        PhaseStatistics phase = messageLog.getPhase("extraction");
+        for (String error : extractor.getErrors()) {
+            phase.fileFailed();
+            messageLog.add(new Message("Error while extracting " + error, MessageStatus.ERROR));
+        }
+        if (!extractor.getErrors().isEmpty()) {
+            throw new IOException(extractor.getErrors().size() + " files could not be extracted.");
+        }
+        phase.foldersAdded(extractor.getTotalFolders());
+        messageLog.add(new Message("File successfully extracted: " + phase.getSummary() + ".", MessageStatus.OK));
+    }
+
+    /**
+     * internal method to extract the volumes of a multi-volume dump. Each volume is a complete archive. All volumes are verified against the
+     * size and checksum of the index before the first one gets extracted, because the extraction already streams the sql dump into the
+     * database. Afterwards the volumes are extracted in parallel.
+     * 
+     * @param index index of the dump
+     * @param folder folder of the index and of the volumes
+     * @param temp staging folder
+     * @throws IOException if a volume is missing, corrupt or could not be extracted
+     * @throws InterruptedException
+     */
+    private void extractVolumes(VolumeIndex index, Path folder, Path temp) throws IOException, InterruptedException {
+        List<VolumeIndex.Volume> volumes = index.getVolumes();
+        for (VolumeIndex.Volume volume : volumes) {
+            Path file = folder.resolve(volume.getName());
+            if (!Files.isRegularFile(file)){
+                throw new IOException("The volume " + volume.getName() + " is missing.");
+            }
+            if (Files.size(file) != volume.getSize()){
+                throw new IOException("The volume " + volume.getName() + " has " + Files.size(file) + " bytes instead of " + volume.getSize() + ".");
+            }
+        }
+        PhaseStatistics phase = messageLog.getPhase("extraction");
+        Set<Path> createdFolders = ConcurrentHashMap.newKeySet();
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(extractionThreads, volumes.size())), r -> {
+            Thread t = new Thread(r, "exchange-volume-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int failed = 0;
+        try {
+            List<Future<?>> checks = new ArrayList<>();
+            for (VolumeIndex.Volume volume : volumes) {
+                checks.add(executor.submit(() -> {
+                    checkCancelled();
+                    verifyVolume(folder.resolve(volume.getName()), volume);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < checks.size(); i++) {
+                try {
+                    checks.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    messageLog.add(new Message(e.getCause().getMessage(), MessageStatus.ERROR));
+                }
+            }
+            checkCancelled();
+            if (failed > 0) {
+                throw new IOException(failed + " of " + volumes.size() + " volumes are corrupt, nothing was extracted.");
+            }
+            messageLog.add(new Message("The checksums of all " + volumes.size() + " volumes are valid.", MessageStatus.OK));
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (VolumeIndex.Volume volume : volumes) {
+                futures.add(executor.submit(() -> {
+                    checkCancelled();
+                    extractVolume(folder.resolve(volume.getName()), temp, createdFolders);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    log.error("Error while extracting the volume " + volumes.get(i).getName(), e.getCause());
+                    messageLog.add(new Message("Error while extracting the volume " + volumes.get(i).getName() + ": " + e.getCause().getMessage(),
+                            MessageStatus.ERROR));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        checkCancelled();
+        if (failed > 0) {
+            throw new IOException(failed + " of " + volumes.size() + " volumes could not be extracted.");
+        }
+        progressTracker.complete();
+        phase.foldersAdded(createdFolders.size());
+        messageLog.add(new Message("File successfully extracted from " + volumes.size() + " volumes: " + phase.getSummary() + ".", MessageStatus.OK));
+    }
+
+    /**
+     * internal method to calculate the checksum of a single volume and to compare it with the index
+     * 
+     * @param file
+     * @param volume
+     * @throws IOException if the volume is corrupt or cannot be read
+     */
+    private void verifyVolume(Path file, VolumeIndex.Volume volume) throws IOException {
+        MessageDigest digest = VolumeIndex.newDigest();
+        try (InputStream in = new DigestInputStream(progressTracker.count(throttle.input(Files.newInputStream(file)), true), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        if (!VolumeIndex.toHex(digest.digest()).equalsIgnoreCase(volume.getChecksum())){
+            throw new IOException("The checksum of the volume " + volume.getName() + " does not match, the volume is corrupt.");
+        }
+    }
+
+    /**
+     * internal method to extract a single volume that was verified already
+     * 
+     * @param file
+     * @param temp
+     * @param createdFolders
+     * @throws IOException if the volume could not be extracted
+     */
+    private void extractVolume(Path file, Path temp, Set<Path> createdFolders) throws IOException {
+        try (InputStream in = progressTracker.count(throttle.input(Files.newInputStream(file)), true);
+                ArchiveReader reader = ArchiveFormat.open(in)) {
+            extractEntries(reader, temp, createdFolders);
+        }
+    }
+
+    /**
+     * internal method to check if an entry of the zip file is the sql dump
+     * 
+     * @param name
+     * @return true if the entry contains the sql dump
+     */
+    private boolean isSqlDump(String name) {
+        return "sql/goobi.sql".equals(name) || "/sql/goobi.sql".equals(name);
+    }
+
+    /**
+     * internal method to start the database import and to write the sql dump into its standard input. The import keeps running until
+     * {@link #finishSqlImport()} gets called
+     * 
+     * @param in the content of the sql dump
+     * @throws IOException
+     */
+    private void startSqlImport(InputStream in) throws IOException {
+        messageLog.add(new Message("Streaming SQL dump into the database.", MessageStatus.OK));
+        sqlImport = ExternalCommand.start("Database import", ExternalCommand.parse(command, "DATABASE_TEMPFILE", "-"), true, false);
+        sqlImportStarted = true;
+        OutputStream out = sqlImport.getInput();
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                checkCancelled();
+                try {
+                    out.write(buffer, 0, read);
+                } catch (IOException e) {
+                    // the import stopped reading, its error output explains why
+                    log.error("Error while writing the sql dump into the database import", e);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // the dump was not read completely, stop the database import before it executes the truncated dump
+            sqlImport.destroy();
+            sqlImport = null;
+            closeQuietly(out);
+            throw e;
+        }
+        closeQuietly(out);
+    }
+
+    /**
+     * internal method to close the input of the database import, the import reports its own errors
+     * 
+     * @param out
+     */
+    private static void closeQuietly(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.debug("Cannot close the input of the database import", e);
+        }
+    }
 
+    /**
+     * internal method to report the state of the database if the import stops before the files of Goobi were replaced. The streamed database
+     * import cannot be undone once it was started: mysql commits the statements of a dump one after another and the DDL statements commit
+     * implicitly, so the database contains a part or all of the new content.
+     */
+    private void reportStreamedSqlImport() {
+        if (!sqlImportStarted) {
+            return;
+        }
+        if (sqlImport != null) {
+            // the dump was written completely, let the import finish instead of leaving a random part of it
+            finishSqlImport();
+        }
+        messageLog.add(new Message("The database import was started during the extraction already, the database contains new content while the "
+                + "files of Goobi were not changed. Repeat the import to get a consistent state.", MessageStatus.ERROR));
+    }
+
+    /**
+     * internal method to read the sql dump from the uploaded file and to write it into the database import
+     * 
+     * @param zipFile
+     * @throws IOException
+     */
+    private void startSqlImport(Path zipFile) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            ZipEntry entry = zip.getEntry("sql/goobi.sql");
+            if (entry == null) {
+                entry = zip.getEntry("/sql/goobi.sql");
+            }
+            if (entry != null) {
+                try (InputStream in = zip.getInputStream(entry)) {
+                    startSqlImport(in);
                 }
             }
-            ze = zis.getNextEntry();
         }
-        zis.closeEntry();
-        zis.close();
-        messageList.add(new Message("File successfully extracted.", MessageStatus.OK));
+    }
+
+    /**
+     * internal method to wait for the streamed database import
+     */
+    private void finishSqlImport() {
+        try {
+            sqlImport.waitForSuccess();
+            messageLog.add(new Message("SQL dump successfully imported", MessageStatus.OK));
+        } catch (IOException e) {
+            log.error("Error during importing the database dump", e);
+            messageLog.add(new Message("Error during importing the database dump: " + e.getMessage(), MessageStatus.ERROR));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sqlImport.destroy();
+            messageLog.add(new Message("Import of the database dump was interrupted.", MessageStatus.ERROR));
+        } finally {
+            sqlImport = null;
+        }
+    }
+
+    /**
+     * internal method to check that the staging folder is on the same file system as each Goobi folder that gets replaced. Otherwise the
+     * extracted folder cannot be renamed into place but gets copied after the old folder was moved away, which takes as long as the
+     * extraction and leaves Goobi without the folder in the meantime. The check runs before anything is extracted, folders that are merged
+     * are written file by file anyway and are not checked.
+     * 
+     * @param temp
+     * @throws IOException if a folder is on another file system
+     */
+    private void checkStagingFileSystem(Path temp) throws IOException {
+        FileStore staging = Files.getFileStore(temp);
+        List<String> foreign = new ArrayList<>();
+        for (String folder : getReplacedFolders()) {
+            Path target = Paths.get(ConfigurationHelper.getInstance().getGoobiFolder() + folder);
+            // a missing folder is created next to the others
+            if (!staging.equals(Files.getFileStore(Files.exists(target) ? target : target.getParent()))) {
+                foreign.add(folder);
+            }
+        }
+        if (!foreign.isEmpty()) {
+            throw new IOException("The staging folder " + temp + " is not on the same file system as the Goobi folders " + String.join(", ", foreign)
+                    + ", the import was not started. Please configure an extraction folder on their file system.");
+        }
+    }
+
+    /**
+     * internal method to get the Goobi folders that the import replaces as a whole
+     */
+    private List<String> getReplacedFolders() {
+        List<String> folders = new ArrayList<>();
+        if (includeRulesets) {
+            folders.add("rulesets");
+        }
+        if (includeScripts) {
+            folders.add("scripts");
+        }
+        if (includeDockets) {
+            folders.add("xslt");
+        }
+        if (includePlugins) {
+            folders.add("plugins");
+        }
+        if (includeMetadata && !mergeMetadata) {
+            folders.add("metadata");
+        }
+        if (includeConfiguration) {
+            folders.add("config");
+        }
+        if (includeSQLdump) {
+            folders.add("db");
+        }
+        return folders;
+    }
+
+    /**
+     * internal method to count the progress of the extraction, it gets called by the worker threads
+     * 
+     * @param bytes extracted bytes of the file
+     * @param progress share of the file in bytes of the archive
+     */
+    private void addExtractedFile(long bytes, long progress) {
+        progressTracker.advance(1, progress);
+        messageLog.getPhase("extraction").fileAdded(bytes);
     }
 
     /**
      * internal method to replace the Goobi content with new content from the unzipped file
      */
     private void replaceContent(){
-        messageList.add(new Message("Starting to replace existing content in Goobi.", MessageStatus.OK));
+        phase = "replace";
+        messageLog.add(new Message("Starting to replace existing content in Goobi.", MessageStatus.OK));
 
         try {
+            readDumpInfo();
 
             // add all rulesets from zip
             if (includeRulesets){
@@ -206,10 +1105,13 @@ public class Importer {
             if (includeScripts){
                 replaceFolder("scripts");
                 // make all scripts executable
-                File[] scripts = new File(ConfigurationHelper.getInstance().getGoobiFolder() + "scripts").listFiles();
-                for (File s : scripts){
-                    if (!s.isDirectory()){
-                        s.setExecutable(true,false);
+                try (JobMetrics.Timing timing = metrics.time("chmod.scripts")){
+                    File[] scripts = new File(ConfigurationHelper.getInstance().getGoobiFolder() + "scripts").listFiles();
+                    for (File s : scripts){
+                        if (!s.isDirectory()){
+                            s.setExecutable(true,false);
+                            timing.add(0, 1);
+                        }
                     }
                 }
             }
@@ -232,70 +1134,341 @@ public class Importer {
 
             // insert SQL content (dump or folder)
             if (includeSQLdump){
-                if (command.length()>0){
-                    Path tmpSql = Paths.get(tempDumpFolder, "/sql/goobi.sql");
-                    if (tmpSql.toFile().exists()){
-                        String myCommand = command.replaceAll("DATABASE_TEMPFILE", tempDumpFolder + "/sql/goobi.sql");
-                        String[] commandArray = myCommand.split(", ");
-                        Process runtimeProcess = Runtime.getRuntime().exec(commandArray);
-                        int processComplete = runtimeProcess.waitFor();
-                        if (processComplete == 0) {
-                            messageList.add(new Message("SQL dump successfully imported", MessageStatus.OK));
-                        } else {
-                            messageList.add(new Message("Error during importing the database dump", MessageStatus.ERROR));
-                        }
-                    } else {
-                        messageList.add(new Message("An SQL dump was not contained in the file and gets skipped.", MessageStatus.WARNING));
-                    }
-                }else{
-                    messageList.add(new Message("Skipping importing the sql dump import command as it is not configured", MessageStatus.OK));
+                try (JobMetrics.Timing timing = metrics.time("sql.import")){
+                    long before = progressTracker.getCurrentBytes();
+                    importSqlDump();
+                    timing.add(progressTracker.getCurrentBytes() - before, 0);
                 }
 
                 replaceFolder("db");
             }
 
-            messageList.add(new Message("Entire Goobi dump import finished successfully.", MessageStatus.OK));
+            messageLog.add(new Message("Entire Goobi dump import finished successfully.", MessageStatus.OK));
             finished = true;
         } catch (IOException | InterruptedException e) {
             log.error("Exception while importing data from uploaded file", e);
-            messageList.add(new Message("Exception while importing data from uploaded file: " + e.getMessage(),
+            messageLog.add(new Message("Exception while importing data from uploaded file: " + e.getMessage(),
                     MessageStatus.ERROR));
         }
     }
 
 
     /**
-     * internal method to replace a given folder of Goobi with the one from the unzipped uploaded file
+     * internal method to import the database dump, either from separate table dumps, streamed from the uploaded file or from the extracted
+     * sql file
+     * 
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void importSqlDump() throws IOException, InterruptedException {
+        Path schema = Paths.get(tempDumpFolder, "sql", TableDump.SCHEMA + ".sql");
+        if (schema.toFile().exists()) {
+            // the dump contains separate entries for the schema and each table
+            if (tableDump.isEnabled()) {
+                tableDump.restore(schema.getParent(), messageLog, progressTracker);
+            } else {
+                messageLog.add(new Message("The file contains a database dump of single tables, it requires the database mode 'tables'.",
+                        MessageStatus.ERROR));
+            }
+        } else if (command.length() > 0 && streamingSqlImport) {
+            if (sqlImport == null && importFile != null && archiveFormat == ArchiveFormat.ZIP) {
+                startSqlImport(importFile);
+            }
+            if (sqlImport != null) {
+                finishSqlImport();
+            } else {
+                messageLog.add(new Message("An SQL dump was not contained in the file and gets skipped.", MessageStatus.WARNING));
+            }
+        } else if (command.length()>0){
+            Path tmpSql = Paths.get(tempDumpFolder, "/sql/goobi.sql");
+            if (tmpSql.toFile().exists()){
+                ExternalCommand databaseImport = ExternalCommand.start("Database import",
+                        ExternalCommand.parse(command, "DATABASE_TEMPFILE", tempDumpFolder + "/sql/goobi.sql"), false, false);
+                try {
+                    databaseImport.waitForSuccess();
+                    messageLog.add(new Message("SQL dump successfully imported", MessageStatus.OK));
+                } catch (IOException e) {
+                    log.error("Error during importing the database dump", e);
+                    messageLog.add(new Message("Error during importing the database dump: " + e.getMessage(), MessageStatus.ERROR));
+                }
+            } else {
+                messageLog.add(new Message("An SQL dump was not contained in the file and gets skipped.", MessageStatus.WARNING));
+            }
+        }else{
+            messageLog.add(new Message("Skipping importing the sql dump import command as it is not configured", MessageStatus.OK));
+        }
+    }
+
+    /**
+     * internal method to read the information about the uploaded dump. Incremental dumps contain the list of files that got deleted since the
+     * base dump, partial dumps contain only some processes
+     * 
+     * @throws IOException
+     */
+    private void readDumpInfo() throws IOException {
+        deltaDump = false;
+        incrementalDump = false;
+        tombstones = new ArrayList<>();
+        dumpFilter = null;
+        Path infoFile = Paths.get(tempDumpFolder, Manifest.INFO_ENTRY);
+        if (!infoFile.toFile().exists()) {
+            return;
+        }
+        Properties info = new Properties();
+        try (InputStream in = Files.newInputStream(infoFile)) {
+            info.load(in);
+        }
+        if (info.getProperty("excludes") != null) {
+            List<Exclude> excludes = new ArrayList<>();
+            int count;
+            try {
+                count = Integer.parseInt(info.getProperty("excludes"));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid number of exclusions in the dump information: " + info.getProperty("excludes"), e);
+            }
+            for (int i = 0; i < count; i++) {
+                excludes.add(new Exclude("exclude " + i, info.getProperty("exclude." + i, ""), true));
+            }
+            dumpFilter = new ExportFilter(excludes);
+        }
+        if (Manifest.TYPE_PARTIAL.equals(info.getProperty("type"))) {
+            deltaDump = true;
+            messageLog.add(new Message("Applying partial dump " + info.getProperty("id") + " with " + info.getProperty("processes")
+                    + " processes. It gets applied on top of the existing content.", MessageStatus.WARNING));
+        } else if (Manifest.TYPE_INCREMENTAL.equals(info.getProperty("type"))) {
+            deltaDump = true;
+            incrementalDump = true;
+            Path tombstoneFile = Paths.get(tempDumpFolder, Manifest.TOMBSTONE_ENTRY);
+            if (tombstoneFile.toFile().exists()) {
+                tombstones = Files.readAllLines(tombstoneFile, StandardCharsets.UTF_8);
+            }
+            messageLog.add(new Message("Applying incremental dump " + info.getProperty("id") + " which is based on dump " + info.getProperty("base")
+                    + ". It gets applied on top of the existing content.", MessageStatus.WARNING));
+        }
+    }
+
+    /**
+     * internal method to replace a given folder of Goobi with the one from the unzipped uploaded file. If the uploaded file is an incremental
+     * or partial dump, the content is applied on top of the existing folder instead. The metadata folder of full and partial dumps can be
+     * merged process by process.
      * 
      * @param folder
      * @throws IOException
      * @throws InterruptedException
      */
     private void replaceFolder(String folder) throws IOException, InterruptedException {
-        Path tmpMetadataFolder = Paths.get(tempDumpFolder, folder);
+        if ("metadata".equals(folder) && mergeMetadata && !incrementalDump) {
+            // incremental dumps contain only the changed files of each process, so they are always applied on top of the existing content
+            try (JobMetrics.Timing timing = metrics.time("replace." + folder + ".merge")){
+                ProcessMerger merger = mergeProcesses(folder);
+                timing.add(merger.getWrittenBytes(), merger.getWrittenFiles());
+            }
+            return;
+        }
+        if (deltaDump) {
+            try (JobMetrics.Timing timing = metrics.time("replace." + folder + ".apply")){
+                timing.add(0, applyDelta(folder));
+            }
+            return;
+        }
+        Path staged = Paths.get(tempDumpFolder, folder);
+        Path target = Paths.get(ConfigurationHelper.getInstance().getGoobiFolder() + folder);
         // just do the replacement if the target exists in the unzipped file
-        if (tmpMetadataFolder.toFile().exists()){
-            FileUtils.deleteDirectory(Paths.get(ConfigurationHelper.getInstance().getGoobiFolder() + folder).toFile());
-            messageList.add(new Message("Deleted old folder: " + ConfigurationHelper.getInstance().getGoobiFolder() + folder, MessageStatus.OK));
-            Files.move(tmpMetadataFolder, Paths.get(ConfigurationHelper.getInstance().getGoobiFolder() + folder));
-            messageList.add(new Message("Folder " + folder + " replaced successfully", MessageStatus.OK));
-        } else {
-            messageList.add(new Message("Folder " + folder + " was not contained in the uploaded file and gets skipped.", MessageStatus.WARNING));
+        if (!staged.toFile().exists()){
+            messageLog.add(new Message("Folder " + folder + " was not contained in the uploaded file and gets skipped.", MessageStatus.WARNING));
+            return;
         }
+        metrics.time("replace." + folder + ".swap", () -> {
+            // rename the old folder out of the way and the staged one into place, the old one is removed when the new one is in place
+            Path old = target.resolveSibling(target.getFileName() + ".old");
+            if (Files.exists(old)){
+                // left over by an import that was aborted
+                trash.dispose(old);
+            }
+            boolean hasOld = Files.exists(target);
+            if (hasOld){
+                Files.move(target, old, StandardCopyOption.ATOMIC_MOVE);
+            }
+            try {
+                moveIntoPlace(folder, staged, target);
+            } catch (IOException e){
+                if (hasOld){
+                    FileUtils.deleteQuietly(target.toFile());
+                    Files.move(old, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+                throw e;
+            }
+            if (hasOld && !trash.dispose(old)){
+                messageLog.add(new Message("Old folder " + target + " could not be moved into the trash folder and was deleted directly.",
+                        MessageStatus.WARNING));
+            }
+        });
+        metrics.sample("trash.pending", TrashFolder.getPending());
+        messageLog.add(new Message("Folder " + folder + " replaced successfully, the old content gets deleted in the background.", MessageStatus.OK));
     }
 
     /**
-     * public getter to receive the progress in percent
+     * internal method to move a staged folder to its target. If it cannot be renamed, it gets copied
      * 
-     * @param file
+     * @param folder
+     * @param staged
+     * @param target
+     * @throws IOException
      */
-    public int getProgress(){
-        if (numberAllFiles==0){
-            return 0;
-        }else{
-            int result = 100 * numberCurrentFile / numberAllFiles;
-            return result;
+    private void moveIntoPlace(String folder, Path staged, Path target) throws IOException {
+        try {
+            Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e){
+            messageLog.add(new Message("Folder " + folder + " cannot be renamed into place, it gets copied from the staging folder.",
+                    MessageStatus.WARNING));
+            FileUtils.moveDirectory(staged.toFile(), target.toFile());
         }
     }
 
+    /**
+     * internal method to merge the extracted metadata folder into the existing one process by process. Only changed files are written, the
+     * modification times and hashes are taken from the manifest of the dump if it is available.
+     * 
+     * @param folder
+     * @return the merger with the statistics
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private ProcessMerger mergeProcesses(String folder) throws IOException, InterruptedException {
+        Path source = Paths.get(tempDumpFolder, folder);
+        ProcessMerger merger = new ProcessMerger(source, Paths.get(ConfigurationHelper.getInstance().getGoobiFolder() + folder), mergeThreads);
+        if (!source.toFile().exists()){
+            messageLog.add(new Message("Folder " + folder + " was not contained in the uploaded file and gets skipped.", MessageStatus.WARNING));
+            return merger;
+        }
+        messageLog.add(new Message("Merging the processes of folder " + folder + " into the existing content.", MessageStatus.OK));
+        Path manifestFile = Paths.get(tempDumpFolder, Manifest.MANIFEST_ENTRY);
+        if (manifestFile.toFile().exists()){
+            merger.setManifest(Manifest.read(manifestFile));
+            merger.setManifestPrefix(folder + "/");
+        }
+        if (deltaDump && !keepMissingProcesses) {
+            // a partial dump contains only some processes, all other processes would be removed
+            messageLog.add(new Message("The dump contains only some processes, processes that are missing in the dump are kept.",
+                    MessageStatus.WARNING));
+        }
+        merger.setKeepMissing(keepMissingProcesses || deltaDump);
+        merger.setExportFilter(dumpFilter);
+        if (dumpFilter == null) {
+            messageLog.add(new Message("The dump does not contain the exclusions of the export, files that are missing in the dump are kept.",
+                    MessageStatus.WARNING));
+        }
+        merger.setTrash(trash);
+        PhaseStatistics statistics = messageLog.getPhase("merge");
+        merger.setListener((name, bytes) -> statistics.fileAdded(bytes));
+        merger.merge();
+        for (String error : merger.getErrors()){
+            statistics.fileFailed();
+            messageLog.add(new Message("Error while merging process " + error, MessageStatus.ERROR));
+        }
+        messageLog.add(new Message("Folder " + folder + " merged: " + merger.getSummary() + ".", MessageStatus.OK));
+        return merger;
+    }
+
+    /**
+     * internal method to apply the content of an incremental dump on top of an existing folder. New and changed files get moved into the
+     * folder, files that were deleted since the base dump get removed
+     * 
+     * @param folder
+     * @return the number of files that were added, changed or deleted
+     * @throws IOException
+     */
+    private int applyDelta(String folder) throws IOException {
+        Path source = Paths.get(tempDumpFolder, folder);
+        Path target = Paths.get(ConfigurationHelper.getInstance().getGoobiFolder() + folder);
+        int changed = moveDelta(source, target);
+        int deleted = deleteTombstones(target, folder, tombstones);
+        messageLog.add(new Message("Folder " + folder + " updated: " + changed + " files added or changed, " + deleted + " files deleted.",
+                MessageStatus.OK));
+        return changed + deleted;
+    }
+
+    /**
+     * internal method to move all files of an extracted folder into the existing folder, existing files get replaced
+     * 
+     * @param source
+     * @param target
+     * @return the number of moved files
+     * @throws IOException
+     */
+    static int moveDelta(Path source, Path target) throws IOException {
+        int changed = 0;
+        if (source.toFile().exists()) {
+            List<Path> files;
+            try (Stream<Path> stream = Files.walk(source)) {
+                files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                Path destination = target.resolve(source.relativize(file).toString());
+                Files.createDirectories(destination.getParent());
+                Files.move(file, destination, StandardCopyOption.REPLACE_EXISTING);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * internal method to delete the files of a folder that are listed in the tombstones of an incremental dump. Paths that point outside of the
+     * folder are ignored
+     * 
+     * @param target the existing folder
+     * @param folder name of the folder, the tombstones start with it
+     * @param tombstones paths of the deleted files
+     * @return the number of deleted files
+     * @throws IOException
+     */
+    static int deleteTombstones(Path target, String folder, List<String> tombstones) throws IOException {
+        int deleted = 0;
+        Path base = target.toAbsolutePath().normalize();
+        for (String path : tombstones) {
+            if (!path.startsWith(folder + "/")) {
+                continue;
+            }
+            Path file = base.resolve(path.substring(folder.length() + 1)).normalize();
+            if (!file.startsWith(base) || file.equals(base)) {
+                log.warn("Ignoring invalid path in the tombstones: " + path);
+                continue;
+            }
+            if (Files.deleteIfExists(file)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * get all messages that are still kept in the message log
+     * 
+     * @return the messages, oldest first
+     */
+    public List<Message> getMessageList() {
+        return messageLog.getMessages();
+    }
+
+    /**
+     * get the current progress for the event stream of the user interface
+     * 
+     * @param sequence sequence number of the last message the client has received
+     * @return the progress including all newer messages
+     */
+    public Map<String, Object> getProgressEvent(long sequence) {
+        Map<String, Object> event = ProgressChannel.createEvent(messageLog, sequence, phase, isRunning(), progressTracker);
+        event.put("finished", finished);
+        return event;
+    }
+
+    /**
+     * public getter to receive the progress of the entire import in percent, it is based on the bytes of the uploaded file and of the
+     * extracted content
+     */
+    public int getProgress(){
+        return progressTracker.getPercent();
+    }
+
 }
@@ -0,0 +1,249 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Limits the bandwidth and the number of I/O operations of an export or import, so that the jobs do not starve the running Goobi instance
+ * that uses the same disks. Reads, writes and operations are limited by separate token buckets which are shared by all threads of a job.
+ * Each read or write call on a throttled stream counts as one operation, opening a stream counts as another one.
+ *
+ * In adaptive mode the limits are scaled down when the observed latency of the read and write calls exceeds the target latency and are
+ * raised again slowly when the latency is below the target, so that the job uses the bandwidth that the disks can spare. The latency of
+ * large calls is scaled down to the latency of a 128 KB request, so that it does not depend on the buffer size of the caller.
+ */
+@Log4j2
+public class IoThrottle {
+
+    // rate used by the adaptive mode for unlimited directions
+    public static final long DEFAULT_ADAPTIVE_RATE = 200L * 1024 * 1024;
+
+    private static final long REQUEST_SIZE = 128 * 1024;
+    private static final long ADJUST_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final double MIN_FACTOR = 0.05;
+    private static final double DECREASE = 0.7;
+    private static final double INCREASE = 1.1;
+
+    private final Bucket read;
+    private final Bucket write;
+    private final Bucket operations;
+    @Getter
+    private final boolean adaptive;
+    private final long targetLatency;
+
+    @Getter
+    private volatile double factor = 1;
+    private final LongAdder waitNanos = new LongAdder();
+    private long windowStart = System.nanoTime();
+    private long windowCalls;
+    private long windowLatency;
+
+    /**
+     * create the throttle from the element throttle of the configuration, the bandwidth is configured in MB per second
+     *
+     * @param config
+     */
+    public IoThrottle(XMLConfiguration config) {
+        this(megabytes(config.getDouble("throttle[@read]", 0)), megabytes(config.getDouble("throttle[@write]", 0)),
+                config.getLong("throttle[@iops]", 0),
+                config.getBoolean("throttle[@adaptive]", false) ? Math.max(1, config.getLong("throttle[@latency]", 20)) : 0);
+    }
+
+    /**
+     * @param readBytesPerSecond maximum read bandwidth, 0 for unlimited
+     * @param writeBytesPerSecond maximum write bandwidth, 0 for unlimited
+     * @param operationsPerSecond maximum number of read and write calls per second, 0 for unlimited
+     * @param targetLatencyMillis target latency of the adaptive mode, 0 disables the adaptive mode
+     */
+    public IoThrottle(long readBytesPerSecond, long writeBytesPerSecond, long operationsPerSecond, long targetLatencyMillis) {
+        this.adaptive = targetLatencyMillis > 0;
+        this.targetLatency = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.read = createBucket(readBytesPerSecond);
+        this.write = createBucket(writeBytesPerSecond);
+        this.operations = operationsPerSecond > 0 ? new Bucket(operationsPerSecond) : null;
+    }
+
+    private static long megabytes(double value) {
+        return (long) (value * 1024 * 1024);
+    }
+
+    private Bucket createBucket(long bytesPerSecond) {
+        if (bytesPerSecond > 0) {
+            return new Bucket(bytesPerSecond);
+        }
+        return adaptive ? new Bucket(DEFAULT_ADAPTIVE_RATE) : null;
+    }
+
+    /**
+     * check if any limit is configured
+     */
+    public boolean isActive() {
+        return read != null || write != null || operations != null;
+    }
+
+    /**
+     * wrap a stream that reads from the disk, the stream is returned unchanged if no limit is configured
+     */
+    public InputStream input(InputStream in) throws InterruptedIOException {
+        if (!isActive()) {
+            return in;
+        }
+        acquire(null, 0, 1);
+        return new ThrottledInputStream(in, this);
+    }
+
+    /**
+     * wrap a stream that writes to the disk, the stream is returned unchanged if no limit is configured
+     */
+    public OutputStream output(OutputStream out) throws InterruptedIOException {
+        if (!isActive()) {
+            return out;
+        }
+        acquire(null, 0, 1);
+        return new ThrottledOutputStream(out, this);
+    }
+
+    /**
+     * remove the statistics of the previous job, the adaptive mode starts again with the configured limits
+     */
+    public void reset() {
+        waitNanos.reset();
+        synchronized (this) {
+            factor = 1;
+            windowStart = System.nanoTime();
+            windowCalls = 0;
+            windowLatency = 0;
+        }
+        applyFactor();
+    }
+
+    /**
+     * get the time the callers had to wait for the throttle since the last reset
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    void afterRead(long bytes, long latency) throws InterruptedIOException {
+        observe(bytes, latency);
+        acquire(read, bytes, 1);
+    }
+
+    void afterWrite(long bytes, long latency) throws InterruptedIOException {
+        observe(bytes, latency);
+        acquire(write, bytes, 1);
+    }
+
+    /**
+     * take the tokens from the buckets and wait until the debt is paid off
+     */
+    private void acquire(Bucket bucket, long bytes, long calls) throws InterruptedIOException {
+        long wait = 0;
+        if (bucket != null && bytes > 0) {
+            wait = bucket.take(bytes);
+        }
+        if (operations != null) {
+            wait = Math.max(wait, operations.take(calls));
+        }
+        if (wait <= 0) {
+            return;
+        }
+        waitNanos.add(wait);
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the I/O throttle");
+        }
+    }
+
+    private void observe(long bytes, long latency) {
+        if (!adaptive) {
+            return;
+        }
+        long normalized = bytes > REQUEST_SIZE ? latency * REQUEST_SIZE / bytes : latency;
+        boolean adjust = false;
+        synchronized (this) {
+            windowCalls++;
+            windowLatency += normalized;
+            long now = System.nanoTime();
+            if (now - windowStart >= ADJUST_INTERVAL) {
+                long average = windowLatency / windowCalls;
+                double previous = factor;
+                if (average > targetLatency) {
+                    factor = Math.max(MIN_FACTOR, factor * DECREASE);
+                } else {
+                    factor = Math.min(1, factor * INCREASE);
+                }
+                adjust = factor != previous;
+                if (adjust && log.isDebugEnabled()) {
+                    log.debug("I/O latency {} ms, throttle set to {}% of the limits", TimeUnit.NANOSECONDS.toMillis(average),
+                            Math.round(factor * 100));
+                }
+                windowStart = now;
+                windowCalls = 0;
+                windowLatency = 0;
+            }
+        }
+        if (adjust) {
+            applyFactor();
+        }
+    }
+
+    private void applyFactor() {
+        for (Bucket bucket : new Bucket[] { read, write, operations }) {
+            if (bucket != null) {
+                bucket.setFactor(factor);
+            }
+        }
+    }
+
+    /**
+     * token bucket that may go into debt, the caller that causes the debt waits until it is paid off. The bucket holds the tokens of a
+     * quarter second at most, so that short bursts are possible without exceeding the rate noticeably.
+     */
+    private static final class Bucket {
+
+        private final double limit;
+        private double rate;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        private Bucket(double limit) {
+            this.limit = limit;
+            this.rate = limit;
+            this.tokens = capacity();
+        }
+
+        private double capacity() {
+            return rate / 4;
+        }
+
+        private synchronized void setFactor(double factor) {
+            rate = Math.max(1, limit * factor);
+            tokens = Math.min(tokens, capacity());
+        }
+
+        /**
+         * @return the time in nanoseconds the caller has to wait
+         */
+        private synchronized long take(long amount) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity(), tokens + (now - last) * rate / TimeUnit.SECONDS.toNanos(1));
+            last = now;
+            tokens -= amount;
+            if (tokens >= 0) {
+                return 0;
+            }
+            return (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+}
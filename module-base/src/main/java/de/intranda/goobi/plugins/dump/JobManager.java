@@ -0,0 +1,338 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Application wide scheduler for export and import jobs. Jobs are kept in a bounded queue and started as soon as fewer jobs of their type are
+ * running than configured, so that two users who start an export at the same time do not work on the same staging folder or the same Goobi
+ * folders. If the container provides a managed executor service it gets used, otherwise a small pool of daemon threads is created, so that
+ * the jobs do not block the request threads of the servlet container.
+ *
+ * Each owner, e.g. the exporter or importer of a session, has at most one queued or running job. The check and the submission of a job
+ * happen under the same lock, so that two requests of the same session cannot start two jobs which share the state of the owner.
+ *
+ * The list of jobs is a copy-on-write list and the state of each job is kept in volatile fields, so that the user interface can read the
+ * snapshots of all queued, running and recently finished jobs without locking.
+ */
+@Log4j2
+public class JobManager {
+
+    private static final String MANAGED_EXECUTOR = "java:comp/DefaultManagedExecutorService";
+    // number of finished jobs that are kept for the list of jobs
+    private static final int HISTORY = 20;
+
+    private static JobManager instance;
+
+    private final int queueSize;
+    private final Map<ExchangeJob.Type, Integer> limits = new EnumMap<>(ExchangeJob.Type.class);
+    // guarded by this
+    private final Deque<ExchangeJob> queue = new ArrayDeque<>();
+    private final Map<ExchangeJob.Type, Integer> running = new EnumMap<>(ExchangeJob.Type.class);
+    // the queued or running job of each owner
+    private final Map<Object, ExchangeJob> owners = new HashMap<>();
+    private final List<ExchangeJob> jobs = new CopyOnWriteArrayList<>();
+    private final Executor executor;
+
+    JobManager(int queueSize, int exports, int imports) {
+        this.queueSize = Math.max(0, queueSize);
+        limits.put(ExchangeJob.Type.EXPORT, Math.max(1, exports));
+        limits.put(ExchangeJob.Type.IMPORT, Math.max(1, imports));
+        for (ExchangeJob.Type type : ExchangeJob.Type.values()) {
+            running.put(type, 0);
+        }
+        executor = createExecutor(limits.get(ExchangeJob.Type.EXPORT) + limits.get(ExchangeJob.Type.IMPORT));
+    }
+
+    /**
+     * get the job manager, it is created with the limits of the given configuration when it is requested for the first time
+     *
+     * @param config
+     * @return the job manager of the application
+     */
+    public static synchronized JobManager getInstance(XMLConfiguration config) {
+        if (instance == null) {
+            instance = new JobManager(config.getInt("jobs[@queue]", 10), config.getInt("jobs[@exports]", 1), config.getInt("jobs[@imports]", 1));
+        }
+        return instance;
+    }
+
+    /**
+     * get the job manager, if it was not created yet the default limits are used
+     *
+     * @return the job manager of the application
+     */
+    public static synchronized JobManager getInstance() {
+        if (instance == null) {
+            instance = new JobManager(10, 1, 1);
+        }
+        return instance;
+    }
+
+    /**
+     * add a job without owner to the queue, it gets started as soon as possible
+     *
+     * @param job
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public void submit(ExchangeJob job) {
+        submit(null, job, null);
+    }
+
+    /**
+     * add a job to the queue, it gets started as soon as possible
+     *
+     * @param owner the owner of the job, it can have only one queued or running job, can be null
+     * @param job
+     * @param prepare sets up the state of the owner for the job, it is called once the job was accepted and before it can start, can be null
+     * @throws RejectedExecutionException if the queue is full or the owner has a job already
+     */
+    public synchronized void submit(Object owner, ExchangeJob job, Runnable prepare) {
+        if (queue.size() >= queueSize && !hasCapacity(job.getType())) {
+            throw new RejectedExecutionException("The queue is full, " + queue.size() + " jobs are waiting already.");
+        }
+        claim(owner, job, prepare);
+        queue.add(job);
+        addToList(job);
+        dispatch();
+    }
+
+    /**
+     * execute a job without owner in the current thread
+     *
+     * @param job
+     * @throws RejectedExecutionException if too many jobs of the same type are running
+     */
+    public void runNow(ExchangeJob job) {
+        runNow(null, job, null);
+    }
+
+    /**
+     * execute a job in the current thread, e.g. a download or an upload that is bound to the current request. Such a job cannot wait in the
+     * queue, it is rejected if the limit of its type is reached.
+     *
+     * @param owner the owner of the job, it can have only one queued or running job, can be null
+     * @param job
+     * @param prepare sets up the state of the owner for the job, it is called once the job was accepted, can be null
+     * @throws RejectedExecutionException if too many jobs of the same type are running or the owner has a job already
+     */
+    public void runNow(Object owner, ExchangeJob job, Runnable prepare) {
+        synchronized (this) {
+            if (!hasCapacity(job.getType())) {
+                throw new RejectedExecutionException("Another " + job.getType().name().toLowerCase() + " is running already.");
+            }
+            claim(owner, job, prepare);
+            running.merge(job.getType(), 1, Integer::sum);
+            addToList(job);
+        }
+        try {
+            job.run();
+        } finally {
+            finished(job);
+        }
+    }
+
+    /**
+     * cancel a queued or running job
+     *
+     * @param id id of the job
+     * @return true if the job was found and is not finished yet
+     */
+    public boolean cancel(long id) {
+        for (ExchangeJob job : jobs) {
+            if (job.getId() == id) {
+                boolean cancelled = job.cancel();
+                synchronized (this) {
+                    if (queue.remove(job)) {
+                        owners.values().remove(job);
+                        dispatch();
+                    }
+                }
+                return cancelled;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * get the snapshots of all queued, running and recently finished jobs, oldest first
+     */
+    public List<JobSnapshot> getJobs() {
+        List<JobSnapshot> snapshots = new ArrayList<>();
+        for (ExchangeJob job : jobs) {
+            snapshots.add(job.getSnapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * get the job of a type that is monitored, this is the oldest running job or the newest job if none is running
+     *
+     * @param type
+     * @return the job or null if there was no job of the type
+     */
+    public ExchangeJob getCurrentJob(ExchangeJob.Type type) {
+        ExchangeJob current = null;
+        for (ExchangeJob job : jobs) {
+            if (job.getType() != type) {
+                continue;
+            }
+            if (job.getState() == ExchangeJob.State.RUNNING) {
+                return job;
+            }
+            current = job;
+        }
+        return current;
+    }
+
+    /**
+     * get the number of jobs of a type in a state
+     */
+    public int count(ExchangeJob.Type type, ExchangeJob.State state) {
+        int count = 0;
+        for (ExchangeJob job : jobs) {
+            if (job.getType() == type && job.getState() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * get the number of jobs that wait in front of the given job
+     *
+     * @return the position or -1 if the job is not queued
+     */
+    public synchronized int getPosition(ExchangeJob job) {
+        int position = 0;
+        for (ExchangeJob queued : queue) {
+            if (queued == job) {
+                return position;
+            }
+            position++;
+        }
+        return -1;
+    }
+
+    private boolean hasCapacity(ExchangeJob.Type type) {
+        return running.get(type) < limits.get(type);
+    }
+
+    /**
+     * internal method to register the job as the job of its owner, it must be called while holding the lock
+     *
+     * @throws RejectedExecutionException if the owner has a job which is not done yet
+     */
+    private void claim(Object owner, ExchangeJob job, Runnable prepare) {
+        if (owner != null) {
+            ExchangeJob current = owners.get(owner);
+            if (current != null && !current.getState().isDone()) {
+                throw new RejectedExecutionException("Another " + job.getType().name().toLowerCase() + " of the same user is queued or running.");
+            }
+        }
+        if (prepare != null) {
+            prepare.run();
+        }
+        if (owner != null) {
+            owners.put(owner, job);
+        }
+    }
+
+    private void finished(ExchangeJob job) {
+        synchronized (this) {
+            running.merge(job.getType(), -1, Integer::sum);
+            owners.values().remove(job);
+            dispatch();
+        }
+    }
+
+    /**
+     * start all queued jobs for which the limit of their type is not reached yet, jobs of other types may overtake waiting ones
+     */
+    private void dispatch() {
+        for (ExchangeJob job : new ArrayList<>(queue)) {
+            if (job.getState() != ExchangeJob.State.QUEUED) {
+                queue.remove(job);
+                owners.values().remove(job);
+                continue;
+            }
+            if (!hasCapacity(job.getType())) {
+                continue;
+            }
+            queue.remove(job);
+            running.merge(job.getType(), 1, Integer::sum);
+            try {
+                executor.execute(() -> {
+                    try {
+                        job.run();
+                    } finally {
+                        finished(job);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.error("Exchange job " + job.getId() + " could not be started", e);
+                running.merge(job.getType(), -1, Integer::sum);
+                owners.values().remove(job);
+                job.reject();
+            }
+        }
+    }
+
+    /**
+     * add a job to the list of jobs and remove the oldest finished jobs
+     */
+    private void addToList(ExchangeJob job) {
+        jobs.add(job);
+        int done = 0;
+        for (ExchangeJob existing : jobs) {
+            if (existing.getState().isDone()) {
+                done++;
+            }
+        }
+        for (ExchangeJob existing : jobs) {
+            if (done <= HISTORY) {
+                break;
+            }
+            if (existing.getState().isDone()) {
+                jobs.remove(existing);
+                done--;
+            }
+        }
+    }
+
+    private static Executor createExecutor(int threads) {
+        try {
+            Object managed = new InitialContext().lookup(MANAGED_EXECUTOR);
+            if (managed instanceof ExecutorService) {
+                log.debug("Using managed executor service for exchange jobs");
+                return (ExecutorService) managed;
+            }
+        } catch (NamingException e) {
+            log.debug("No managed executor service available, using own thread pool for exchange jobs");
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "exchange-job-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -0,0 +1,197 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.io.function.IORunnable;
+
+/**
+ * Timers, counters and queue depths of a single export or import job. Each step of a job records its duration together with the processed
+ * bytes and files, queues are sampled while they are used. The metrics are exposed using JMX by {@link ExchangeMBean} and can be written as
+ * timing report into the archive, so that runs of different releases can be compared.
+ *
+ * All methods can be called from several threads.
+ */
+public class JobMetrics {
+
+    private final Map<String, Timer> timers = new LinkedHashMap<>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+    private volatile long started;
+    private final LongAdder jobs = new LongAdder();
+
+    /**
+     * remove the metrics of the previous job
+     */
+    public synchronized void start() {
+        timers.clear();
+        gauges.clear();
+        started = System.currentTimeMillis();
+        jobs.increment();
+    }
+
+    /**
+     * start to measure a step, the step is recorded when the returned timing gets closed
+     *
+     * @param name name of the step, e.g. <code>sql.dump</code>
+     * @return the running timing
+     */
+    public Timing time(String name) {
+        return new Timing(timer(name));
+    }
+
+    /**
+     * measure a step that does not count any content
+     *
+     * @param name name of the step
+     * @param step the work of the step
+     * @throws IOException if the step failed, the duration is recorded anyway
+     */
+    public void time(String name, IORunnable step) throws IOException {
+        Timing timing = time(name);
+        try {
+            step.run();
+        } finally {
+            timing.close();
+        }
+    }
+
+    /**
+     * record the duration of a step
+     *
+     * @param name name of the step
+     * @param nanos duration in nanoseconds
+     * @param bytes processed bytes
+     * @param files processed files
+     */
+    public void record(String name, long nanos, long bytes, long files) {
+        timer(name).record(nanos, bytes, files);
+    }
+
+    /**
+     * record the current depth of a queue
+     *
+     * @param name name of the queue
+     * @param depth number of waiting elements
+     */
+    public void sample(String name, long depth) {
+        Gauge gauge;
+        synchronized (this) {
+            gauge = gauges.computeIfAbsent(name, k -> new Gauge());
+        }
+        gauge.current.set(depth);
+        gauge.max.accumulateAndGet(depth, Math::max);
+    }
+
+    private synchronized Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * get the number of jobs that were measured since the start of the application
+     */
+    public long getJobs() {
+        return jobs.sum();
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * get all values as flat map, the keys are the name of the metric followed by the name of the value, e.g. <code>sql.dump.millis</code>
+     *
+     * @return the values in the order the metrics were recorded first
+     */
+    public synchronized Map<String, Long> getValues() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            values.put(entry.getKey() + ".count", timer.count.sum());
+            values.put(entry.getKey() + ".millis", TimeUnit.NANOSECONDS.toMillis(timer.nanos.sum()));
+            values.put(entry.getKey() + ".maxMillis", TimeUnit.NANOSECONDS.toMillis(timer.maxNanos.get()));
+            values.put(entry.getKey() + ".bytes", timer.bytes.sum());
+            values.put(entry.getKey() + ".files", timer.files.sum());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            values.put(entry.getKey() + ".current", entry.getValue().current.get());
+            values.put(entry.getKey() + ".max", entry.getValue().max.get());
+        }
+        return values;
+    }
+
+    /**
+     * create the timing report of the job. It is a tab separated text with one line per step and one line per queue.
+     *
+     * @return the report
+     */
+    public synchronized String getReport() {
+        List<String> lines = new ArrayList<>();
+        lines.add("# step\tcount\tmillis\tmaxMillis\tbytes\tfiles");
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            lines.add(entry.getKey() + "\t" + timer.count.sum() + "\t" + TimeUnit.NANOSECONDS.toMillis(timer.nanos.sum()) + "\t"
+                    + TimeUnit.NANOSECONDS.toMillis(timer.maxNanos.get()) + "\t" + timer.bytes.sum() + "\t" + timer.files.sum());
+        }
+        if (!gauges.isEmpty()) {
+            lines.add("# queue\tcurrent\tmax");
+            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+                lines.add(entry.getKey() + "\t" + entry.getValue().current.get() + "\t" + entry.getValue().max.get());
+            }
+        }
+        return String.join("\n", lines) + "\n";
+    }
+
+    private static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder files = new LongAdder();
+
+        private void record(long duration, long byteCount, long fileCount) {
+            count.increment();
+            nanos.add(duration);
+            maxNanos.accumulateAndGet(duration, Math::max);
+            bytes.add(byteCount);
+            files.add(fileCount);
+        }
+    }
+
+    private static class Gauge {
+        private final AtomicLong current = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+    }
+
+    /**
+     * a running measurement of a step, it gets recorded when it is closed
+     */
+    public static class Timing implements AutoCloseable {
+        private final Timer timer;
+        private final long start = System.nanoTime();
+        private long bytes;
+        private long files;
+
+        private Timing(Timer timer) {
+            this.timer = timer;
+        }
+
+        /**
+         * add processed content to the step
+         */
+        public void add(long byteCount, long fileCount) {
+            bytes += byteCount;
+            files += fileCount;
+        }
+
+        @Override
+        public void close() {
+            timer.record(System.nanoTime() - start, bytes, files);
+        }
+    }
+}
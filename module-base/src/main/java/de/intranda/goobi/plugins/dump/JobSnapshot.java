@@ -0,0 +1,72 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Immutable copy of the state and progress of an {@link ExchangeJob} for the user interface.
+ */
+@Getter
+public class JobSnapshot {
+
+    private final long id;
+    private final ExchangeJob.Type type;
+    private final ExchangeJob.State state;
+    private final boolean cancelRequested;
+    private final String description;
+    private final String user;
+    private final String phase;
+    private final long submitted;
+    private final long started;
+    private final long ended;
+    private final int percent;
+    private final long currentBytes;
+    private final long totalBytes;
+    private final long throughput;
+    private final long eta;
+
+    JobSnapshot(ExchangeJob job, String phase, ProgressTracker progress) {
+        this.id = job.getId();
+        this.type = job.getType();
+        this.state = job.getState();
+        this.cancelRequested = job.isCancelRequested();
+        this.description = job.getDescription();
+        this.user = job.getUser();
+        this.phase = phase == null ? "" : phase;
+        this.submitted = job.getSubmitted();
+        this.started = job.getStarted();
+        this.ended = job.getEnded();
+        boolean running = state == ExchangeJob.State.RUNNING;
+        this.percent = running ? progress.getPercent() : state == ExchangeJob.State.FINISHED ? 100 : 0;
+        this.currentBytes = running ? progress.getCurrentBytes() : 0;
+        this.totalBytes = running ? progress.getTotalBytes() : 0;
+        this.throughput = running ? progress.getThroughput() : 0;
+        this.eta = running ? progress.getEta() : -1;
+    }
+
+    public boolean isDone() {
+        return state.isDone();
+    }
+
+    /**
+     * convert the snapshot into a map with classes of the JDK for the event servlet
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", id);
+        map.put("type", type.name());
+        map.put("state", state.name());
+        map.put("cancelRequested", cancelRequested);
+        map.put("description", description);
+        map.put("user", user == null ? "" : user);
+        map.put("phase", phase);
+        map.put("percent", percent);
+        map.put("bytes", currentBytes);
+        map.put("totalBytes", totalBytes);
+        map.put("throughput", throughput);
+        map.put("eta", eta);
+        return map;
+    }
+}
@@ -0,0 +1,104 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * List of all files of a dump with their size, modification time and optional content hash. Each export writes its manifest into the archive
+ * and keeps a copy in the manifest folder, so that later exports can be created incrementally against it.
+ * 
+ * The manifest is a tab separated text file with one line per file: path, size, modification time in milliseconds and the hash.
+ */
+public class Manifest {
+
+    public static final String ARCHIVE_FOLDER = "exchange";
+    public static final String MANIFEST_ENTRY = ARCHIVE_FOLDER + "/manifest.tsv";
+    public static final String INFO_ENTRY = ARCHIVE_FOLDER + "/dump.properties";
+    public static final String TOMBSTONE_ENTRY = ARCHIVE_FOLDER + "/tombstones.txt";
+    public static final String TIMING_ENTRY = ARCHIVE_FOLDER + "/timing.tsv";
+
+    public static final String TYPE_FULL = "full";
+    public static final String TYPE_INCREMENTAL = "incremental";
+    public static final String TYPE_PARTIAL = "partial";
+
+    private final Map<String, ManifestEntry> entries = new HashMap<>();
+
+    /**
+     * read a manifest from a file
+     * 
+     * @param file
+     * @return the manifest
+     * @throws IOException
+     */
+    public static Manifest read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * read a manifest from a stream, the stream is not closed
+     * 
+     * @param in
+     * @return the manifest
+     * @throws IOException
+     */
+    public static Manifest read(InputStream in) throws IOException {
+        Manifest manifest = new Manifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\t", -1);
+            if (parts.length < 3) {
+                throw new IOException("Invalid manifest line: " + line);
+            }
+            String hash = parts.length > 3 ? parts[3] : "";
+            manifest.entries.put(parts[0], new ManifestEntry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), hash));
+        }
+        return manifest;
+    }
+
+    /**
+     * format a single line of the manifest
+     * 
+     * @param path
+     * @param entry
+     * @return the line including the line break
+     */
+    public static String formatLine(String path, ManifestEntry entry) {
+        return path + "\t" + entry.getSize() + "\t" + entry.getMtime() + "\t" + (entry.getHash() == null ? "" : entry.getHash()) + "\n";
+    }
+
+    public ManifestEntry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * remove an entry from the manifest, this is used to find out which files of a previous dump were not seen again
+     * 
+     * @param path
+     * @return the removed entry or null
+     */
+    public ManifestEntry remove(String path) {
+        return entries.remove(path);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Iterator<String> paths() {
+        return entries.keySet().iterator();
+    }
+}
@@ -0,0 +1,27 @@
+package de.intranda.goobi.plugins.dump;
+
+import lombok.Data;
+
+@Data
+public class ManifestEntry {
+    private long size;
+    private long mtime;
+    private String hash;
+
+    public ManifestEntry(long size, long mtime, String hash) {
+        this.size = size;
+        this.mtime = mtime;
+        this.hash = hash;
+    }
+
+    /**
+     * check if a file with the given attributes is unchanged compared to this entry
+     * 
+     * @param otherSize
+     * @param otherMtime
+     * @return true if size and modification time are identical
+     */
+    public boolean isUnchanged(long otherSize, long otherMtime) {
+        return size == otherSize && mtime == otherMtime;
+    }
+}
@@ -0,0 +1,46 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import lombok.Getter;
+
+/**
+ * Writes the manifest of a running export line by line into a file, so that the list of files does not need to be kept in memory.
+ */
+public class ManifestWriter implements Closeable {
+
+    @Getter
+    private final Path file;
+    private final BufferedWriter writer;
+    @Getter
+    private long count = 0;
+
+    public ManifestWriter(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.getParent());
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        writer.write("# path\tsize\tmtime\thash\n");
+    }
+
+    /**
+     * add a file to the manifest
+     * 
+     * @param path path of the file inside of the archive
+     * @param entry
+     * @throws IOException
+     */
+    public void add(String path, ManifestEntry entry) throws IOException {
+        writer.write(Manifest.formatLine(path, entry));
+        count++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -6,6 +6,8 @@ import lombok.Data;
 public class Message {
 	private String message;
 	private MessageStatus status;
+	// position of the message in the message log, it is assigned when the message gets added
+	private long sequence = -1;
 	
 	public Message(String message, MessageStatus status){
 		this.message = message;
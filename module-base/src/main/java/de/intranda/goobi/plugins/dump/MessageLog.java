@@ -0,0 +1,139 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Bounded log of the messages of an export or import. Only the newest messages are kept in a ring buffer, older ones get dropped. Each message
+ * gets a sequence number, so that the user interface can request the messages it has not seen yet instead of rendering the entire log again.
+ *
+ * Events that occur for each single file are not logged as messages. They are counted in the {@link PhaseStatistics} of the current phase.
+ */
+public class MessageLog {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final Message[] buffer;
+    // sequence number of the next message
+    private long nextSequence = 0;
+    // sequence number of the oldest message that was not cleared
+    private long firstSequence = 0;
+    @Getter
+    private volatile int errors = 0;
+    @Getter
+    private volatile int warnings = 0;
+
+    private final Map<String, PhaseStatistics> phases = new LinkedHashMap<>();
+
+    public MessageLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MessageLog(int capacity) {
+        buffer = new Message[Math.max(1, capacity)];
+    }
+
+    /**
+     * add a message to the log, the oldest message gets dropped if the log is full
+     *
+     * @param message
+     */
+    public synchronized void add(Message message) {
+        message.setSequence(nextSequence);
+        buffer[(int) (nextSequence % buffer.length)] = message;
+        nextSequence++;
+        if (message.getStatus() == MessageStatus.ERROR) {
+            errors++;
+        } else if (message.getStatus() == MessageStatus.WARNING) {
+            warnings++;
+        }
+    }
+
+    /**
+     * remove all messages and phases. The sequence numbers keep increasing, so that clients do not miss messages of the next run
+     */
+    public synchronized void clear() {
+        for (long i = getOldestSequence(); i < nextSequence; i++) {
+            buffer[(int) (i % buffer.length)] = null;
+        }
+        firstSequence = nextSequence;
+        errors = 0;
+        warnings = 0;
+        phases.clear();
+    }
+
+    /**
+     * get all messages that are still kept in the log
+     *
+     * @return a copy of the messages, oldest first
+     */
+    public List<Message> getMessages() {
+        return getMessagesSince(-1);
+    }
+
+    /**
+     * get all messages with a sequence number larger than the given one
+     *
+     * @param sequence sequence number of the last message the client has seen, -1 to get all messages
+     * @return a copy of the new messages, oldest first
+     */
+    public synchronized List<Message> getMessagesSince(long sequence) {
+        long from = Math.max(sequence + 1, getOldestSequence());
+        List<Message> result = new ArrayList<>((int) Math.max(0, nextSequence - from));
+        for (long i = from; i < nextSequence; i++) {
+            result.add(buffer[(int) (i % buffer.length)]);
+        }
+        return result;
+    }
+
+    /**
+     * get the sequence number of the oldest message that is still kept, all older messages are dropped or cleared
+     *
+     * @return the sequence number
+     */
+    public synchronized long getOldestSequence() {
+        return Math.max(firstSequence, nextSequence - buffer.length);
+    }
+
+    /**
+     * get the sequence number of the newest message
+     *
+     * @return the sequence number or -1 if no message was added yet
+     */
+    public synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * get the number of messages that were dropped since the last call of {@link #clear()}, because the log was full
+     *
+     * @return the number of dropped messages
+     */
+    public synchronized long getDropped() {
+        return getOldestSequence() - firstSequence;
+    }
+
+    /**
+     * get the counters of a phase, the phase gets created if it does not exist yet
+     *
+     * @param name name of the phase
+     * @return the counters
+     */
+    public synchronized PhaseStatistics getPhase(String name) {
+        return phases.computeIfAbsent(name, PhaseStatistics::new);
+    }
+
+    /**
+     * get the counters of all phases
+     *
+     * @return a copy of the phases in the order they were started
+     */
+    public synchronized Collection<PhaseStatistics> getPhases() {
+        return new ArrayList<>(phases.values());
+    }
+}
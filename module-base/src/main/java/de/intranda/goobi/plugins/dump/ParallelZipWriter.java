@@ -0,0 +1,591 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Zip writer that compresses the content on a pool of worker threads, similar to pigz. Files are split into blocks of {@value #BLOCK_SIZE}
+ * bytes. Each block gets deflated independently using the last 32 KB of the previous block as dictionary and is terminated with a sync flush,
+ * so that the compressed blocks can be concatenated into one valid deflate stream. The blocks are written to the output in the order they
+ * were submitted.
+ *
+ * A {@link CompressionPolicy} decides for each entry if it gets deflated or stored without compression. Stored entries need the crc in the
+ * local header, therefore their content is buffered while the crc is calculated.
+ *
+ * The sizes and checksums are written as data descriptors after each entry, the central directory uses ZIP64 extensions where needed, so
+ * that archives and entries larger than 4 GB can be created. Entries whose size is unknown in advance or may reach 4 GB get a ZIP64 extra field
+ * in the local header and a ZIP64 data descriptor, so that streaming readers know the size of the descriptor before they read it.
+ */
+public class ParallelZipWriter implements ArchiveWriter {
+
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    // deflate may expand incompressible data slightly, entries close to the limit may exceed it after the compression
+    private static final int ZIP64_MARGIN = 64;
+    private static final int ZIP64_COUNT_LIMIT = 0xFFFF;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+
+    // bit 3: sizes and crc in data descriptor, bit 11: names are UTF-8
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[10]);
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int maxPendingBlocks;
+    private final Deque<Block> pending = new ArrayDeque<>();
+    private final List<Entry> entries = new ArrayList<>();
+
+    private final CompressionPolicy policy;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private long zip64Threshold = ZIP64_LIMIT;
+    private long written = 0;
+    private boolean finished = false;
+
+    /**
+     * create a new writer
+     *
+     * @param out the stream to write the archive to
+     * @param workers number of threads to use for the compression, 1 compresses in the calling thread
+     * @param policy policy to decide how each entry gets compressed, if it is null all entries are deflated with the default level
+     */
+    public ParallelZipWriter(OutputStream out, int workers, CompressionPolicy policy) {
+        this.policy = policy;
+        this.out = new BufferedOutputStream(out, 256 * 1024);
+        if (workers > 1) {
+            AtomicInteger counter = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "exchange-deflate-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            maxPendingBlocks = workers * 4;
+        } else {
+            pool = null;
+            maxPendingBlocks = 1;
+        }
+    }
+
+    /**
+     * set the deflate level for the following entries, it is only used if no compression policy is set
+     *
+     * @param level a value between 0 and 9 or -1 for the default level, other values are clamped into this range
+     */
+    public void setLevel(int level) {
+        this.level = CompressionPolicy.clampLevel(level);
+    }
+
+    /**
+     * set the size from which entries and offsets use ZIP64 values, only lowered by the tests to check the ZIP64 structures with small files
+     *
+     * @param zip64Threshold size in bytes
+     */
+    void setZip64Threshold(long zip64Threshold) {
+        this.zip64Threshold = Math.min(zip64Threshold, ZIP64_LIMIT);
+    }
+
+    /**
+     * add the content of a file as new entry
+     *
+     * @param name name of the entry inside of the archive
+     * @param file
+     * @throws IOException
+     */
+    @Override
+    public void putFile(String name, Path file) throws IOException {
+        long time = Files.getLastModifiedTime(file).toMillis();
+        try (InputStream in = Files.newInputStream(file)) {
+            putStream(name, in, time, Files.size(file));
+        }
+    }
+
+    /**
+     * add the content of a stream as new entry, the size of the content does not need to be known in advance. The stream is not closed.
+     *
+     * @param name name of the entry inside of the archive
+     * @param in
+     * @param time last modification time in milliseconds
+     * @throws IOException
+     */
+    @Override
+    public void putStream(String name, InputStream in, long time) throws IOException {
+        putStream(name, in, time, -1);
+    }
+
+    /**
+     * add the content of a stream whose size is known in advance. Entries of an unknown size or a size close to 4 GB are written with ZIP64
+     * values in the local header and in the data descriptor.
+     *
+     * @param name name of the entry inside of the archive
+     * @param in
+     * @param time last modification time in milliseconds
+     * @param size expected size of the content or -1 if it is unknown
+     * @throws IOException
+     */
+    @Override
+    public void putStream(String name, InputStream in, long time, long size) throws IOException {
+        ensureOpen();
+        Entry entry = new Entry(name, time);
+        entry.zip64 = size < 0 || size + size / ZIP64_MARGIN >= zip64Threshold;
+        Deque<byte[]> buffered = new ArrayDeque<>();
+        buffered.add(readBlock(in));
+        int entryLevel = policy == null ? level : policy.getLevel(name, buffered.getFirst());
+        if (entryLevel == CompressionPolicy.STORED) {
+            if (putStored(entry, buffered, in)) {
+                return;
+            }
+            // too large to be buffered, use deflate blocks without compression instead, so that the crc can follow the data
+            entryLevel = Deflater.NO_COMPRESSION;
+        }
+        putDeflated(entry, buffered, in, entryLevel);
+    }
+
+    /**
+     * read the entire content to calculate the crc before the data gets written. This is only done up to the configured maximum size of
+     * stored entries.
+     *
+     * @return true if the entry was stored, false if the content is too large. In that case all blocks read so far are in the buffer.
+     */
+    private boolean putStored(Entry entry, Deque<byte[]> buffered, InputStream in) throws IOException {
+        long maxSize = policy == null ? 0 : policy.getStoredMaxSize();
+        CRC32 crc = new CRC32();
+        long size = 0;
+        byte[] block = buffered.getFirst();
+        while (true) {
+            crc.update(block);
+            size += block.length;
+            if (block.length < BLOCK_SIZE) {
+                break;
+            }
+            if (size >= maxSize) {
+                return false;
+            }
+            block = readBlock(in);
+            if (block.length == 0) {
+                break;
+            }
+            buffered.addLast(block);
+        }
+        entry.method = ZipEntryMethod.STORED;
+        entry.crc = crc.getValue();
+        entry.size = size;
+        // the size of stored entries is known now, they need no data descriptor
+        entry.zip64 = size >= zip64Threshold;
+        boolean first = true;
+        while (!buffered.isEmpty()) {
+            byte[] data = buffered.removeFirst();
+            submit(new Block(entry, CompletableFuture.completedFuture(data), first, buffered.isEmpty()));
+            first = false;
+        }
+        return true;
+    }
+
+    private void putDeflated(Entry entry, Deque<byte[]> buffered, InputStream in, int entryLevel) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] dictionary = null;
+        byte[] block = buffered.removeFirst();
+        boolean first = true;
+        while (true) {
+            byte[] next = EMPTY;
+            if (block.length == BLOCK_SIZE) {
+                next = buffered.isEmpty() ? readBlock(in) : buffered.removeFirst();
+            }
+            boolean last = next.length == 0;
+            crc.update(block);
+            entry.size += block.length;
+            if (last) {
+                entry.crc = crc.getValue();
+            }
+            submit(new Block(entry, compress(block, dictionary, entryLevel, last), first, last));
+            if (last) {
+                break;
+            }
+            dictionary = Arrays.copyOfRange(block, block.length - DICTIONARY_SIZE, block.length);
+            block = next;
+            first = false;
+        }
+    }
+
+    /**
+     * write all pending blocks and the central directory. The underlying stream is flushed, but not closed.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            while (!pending.isEmpty()) {
+                writeBlock(pending.removeFirst());
+            }
+            writeCentralDirectory();
+            out.flush();
+        } finally {
+            finished = true;
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * close the underlying stream. An archive that was not finished is incomplete anyway, e.g. because the export failed or was cancelled.
+     * Its pending blocks are dropped, the workers are stopped and no central directory is written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            out.close();
+            return;
+        }
+        finished = true;
+        try {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            pending.clear();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * get the number of blocks which are compressed or wait to be written
+     *
+     * @return number of blocks
+     */
+    @Override
+    public int getPendingBlocks() {
+        return pending.size();
+    }
+
+    /**
+     * get the number of bytes written into the archive so far
+     *
+     * @return number of bytes
+     */
+    public long getBytesWritten() {
+        return written;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Zip archive is finished already");
+        }
+    }
+
+    private static byte[] readBlock(InputStream in) throws IOException {
+        byte[] buffer = new byte[BLOCK_SIZE];
+        int length = in.readNBytes(buffer, 0, BLOCK_SIZE);
+        if (length == BLOCK_SIZE) {
+            return buffer;
+        }
+        return length == 0 ? EMPTY : Arrays.copyOf(buffer, length);
+    }
+
+    private Future<byte[]> compress(byte[] data, byte[] dictionary, int blockLevel, boolean last) {
+        if (pool == null) {
+            return CompletableFuture.completedFuture(deflate(data, dictionary, blockLevel, last));
+        }
+        return pool.submit(() -> deflate(data, dictionary, blockLevel, last));
+    }
+
+    private void submit(Block block) throws IOException {
+        pending.addLast(block);
+        while (pending.size() > maxPendingBlocks) {
+            writeBlock(pending.removeFirst());
+        }
+    }
+
+    /**
+     * deflate a single block. All blocks except the last one end with a sync flush marker, the last block finishes the deflate stream.
+     */
+    private static byte[] deflate(byte[] data, byte[] dictionary, int blockLevel, boolean last) {
+        Deflater[] deflaters = DEFLATERS.get();
+        int index = blockLevel < 0 ? 6 : blockLevel;
+        if (deflaters[index] == null) {
+            deflaters[index] = new Deflater(index, true);
+        }
+        Deflater deflater = deflaters[index];
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data);
+        if (last) {
+            deflater.finish();
+        }
+        byte[] buffer = new byte[data.length + data.length / 1000 + 64];
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int space = buffer.length - length;
+            int count = deflater.deflate(buffer, length, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            length += count;
+            if (last ? deflater.finished() : count < space) {
+                break;
+            }
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void writeBlock(Block block) throws IOException {
+        byte[] data;
+        try {
+            data = block.data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compression was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Error during compression of " + block.entry.name, e.getCause());
+        }
+        Entry entry = block.entry;
+        if (block.first) {
+            entry.offset = written;
+            writeLocalHeader(entry);
+        }
+        write(data, 0, data.length);
+        entry.compressedSize += data.length;
+        if (block.last) {
+            if (entry.method == ZipEntryMethod.DEFLATED) {
+                writeDataDescriptor(entry);
+            }
+            entries.add(entry);
+        }
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        int extraLength = entry.zip64 ? 20 : 0;
+        ByteBuffer header = buffer(30 + entry.nameBytes.length + extraLength);
+        header.putInt(LOCAL_HEADER);
+        header.putShort((short) (entry.zip64 ? 45 : 20));
+        header.putShort((short) entry.getFlags());
+        header.putShort((short) entry.method.getId());
+        header.putInt((int) entry.dosTime);
+        // crc and sizes of deflated entries follow in the data descriptor
+        boolean stored = entry.method == ZipEntryMethod.STORED;
+        long size = stored ? entry.size : 0;
+        header.putInt(stored ? (int) entry.crc : 0);
+        header.putInt((int) (entry.zip64 ? ZIP64_LIMIT : size));
+        header.putInt((int) (entry.zip64 ? ZIP64_LIMIT : size));
+        header.putShort((short) entry.nameBytes.length);
+        header.putShort((short) extraLength);
+        header.put(entry.nameBytes);
+        if (entry.zip64) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(size);
+            header.putLong(size);
+        }
+        write(header);
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        boolean zip64 = entry.zip64 || entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+        ByteBuffer descriptor = buffer(zip64 ? 24 : 16);
+        descriptor.putInt(DATA_DESCRIPTOR);
+        descriptor.putInt((int) entry.crc);
+        if (zip64) {
+            descriptor.putLong(entry.compressedSize);
+            descriptor.putLong(entry.size);
+        } else {
+            descriptor.putInt((int) entry.compressedSize);
+            descriptor.putInt((int) entry.size);
+        }
+        write(descriptor);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = written;
+        for (Entry entry : entries) {
+            boolean sizeZip64 = entry.size >= zip64Threshold;
+            boolean compressedZip64 = entry.compressedSize >= zip64Threshold;
+            boolean offsetZip64 = entry.offset >= zip64Threshold;
+            int extraLength = (sizeZip64 ? 8 : 0) + (compressedZip64 ? 8 : 0) + (offsetZip64 ? 8 : 0);
+            if (extraLength > 0) {
+                extraLength += 4;
+            }
+            int version = extraLength > 0 ? 45 : 20;
+
+            ByteBuffer header = buffer(46 + entry.nameBytes.length + extraLength);
+            header.putInt(CENTRAL_HEADER);
+            header.putShort((short) version);
+            header.putShort((short) version);
+            header.putShort((short) entry.getFlags());
+            header.putShort((short) entry.method.getId());
+            header.putInt((int) entry.dosTime);
+            header.putInt((int) entry.crc);
+            header.putInt((int) (compressedZip64 ? ZIP64_LIMIT : entry.compressedSize));
+            header.putInt((int) (sizeZip64 ? ZIP64_LIMIT : entry.size));
+            header.putShort((short) entry.nameBytes.length);
+            header.putShort((short) extraLength);
+            // comment length, disk number, internal and external attributes
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(0);
+            header.putInt((int) (offsetZip64 ? ZIP64_LIMIT : entry.offset));
+            header.put(entry.nameBytes);
+            if (extraLength > 0) {
+                header.putShort((short) 0x0001);
+                header.putShort((short) (extraLength - 4));
+                if (sizeZip64) {
+                    header.putLong(entry.size);
+                }
+                if (compressedZip64) {
+                    header.putLong(entry.compressedSize);
+                }
+                if (offsetZip64) {
+                    header.putLong(entry.offset);
+                }
+            }
+            write(header);
+        }
+        long size = written - start;
+
+        if (entries.size() >= ZIP64_COUNT_LIMIT || start >= zip64Threshold || size >= zip64Threshold) {
+            long zip64End = written;
+            ByteBuffer record = buffer(56 + 20);
+            record.putInt(ZIP64_END);
+            record.putLong(44);
+            record.putShort((short) 45);
+            record.putShort((short) 45);
+            record.putInt(0);
+            record.putInt(0);
+            record.putLong(entries.size());
+            record.putLong(entries.size());
+            record.putLong(size);
+            record.putLong(start);
+            record.putInt(ZIP64_LOCATOR);
+            record.putInt(0);
+            record.putLong(zip64End);
+            record.putInt(1);
+            write(record);
+        }
+
+        ByteBuffer end = buffer(22);
+        end.putInt(END);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(entries.size(), ZIP64_COUNT_LIMIT));
+        end.putShort((short) Math.min(entries.size(), ZIP64_COUNT_LIMIT));
+        end.putInt((int) Math.min(size, ZIP64_LIMIT));
+        end.putInt((int) Math.min(start, ZIP64_LIMIT));
+        end.putShort((short) 0);
+        write(end);
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        write(buffer.array(), 0, buffer.position());
+    }
+
+    private void write(byte[] data, int offset, int length) throws IOException {
+        out.write(data, offset, length);
+        written += length;
+    }
+
+    /**
+     * convert a java timestamp into the MS-DOS format used in zip files
+     */
+    private static long toDosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (date.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (date.getYear() - 1980L) << 25 | (long) date.getMonthValue() << 21 | (long) date.getDayOfMonth() << 16
+                | (long) date.getHour() << 11 | (long) date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+
+    private static class Entry {
+        private final String name;
+        private final byte[] nameBytes;
+        private final long dosTime;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+        private boolean zip64;
+        private ZipEntryMethod method = ZipEntryMethod.DEFLATED;
+
+        private Entry(String name, long time) {
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.dosTime = toDosTime(time);
+        }
+
+        private int getFlags() {
+            return method == ZipEntryMethod.DEFLATED ? FLAG_DATA_DESCRIPTOR | FLAG_UTF8 : FLAG_UTF8;
+        }
+    }
+
+    private enum ZipEntryMethod {
+        STORED(0),
+        DEFLATED(8);
+
+        private final int id;
+
+        ZipEntryMethod(int id) {
+            this.id = id;
+        }
+
+        private int getId() {
+            return id;
+        }
+    }
+
+    private static class Block {
+        private final Entry entry;
+        private final Future<byte[]> data;
+        private final boolean first;
+        private final boolean last;
+
+        private Block(Entry entry, Future<byte[]> data, boolean first, boolean last) {
+            this.entry = entry;
+            this.data = data;
+            this.first = first;
+            this.last = last;
+        }
+    }
+}
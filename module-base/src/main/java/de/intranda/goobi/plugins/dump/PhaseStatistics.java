@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.io.FileUtils;
+
+import lombok.Getter;
+
+/**
+ * Counters of a single phase of an export or import, e.g. the export of the metadata folder. The counters replace the single messages for
+ * each file, they can be updated from several threads.
+ */
+public class PhaseStatistics {
+
+    @Getter
+    private final String name;
+    private final LongAdder filesAdded = new LongAdder();
+    private final LongAdder bytesAdded = new LongAdder();
+    private final LongAdder filesSkipped = new LongAdder();
+    private final LongAdder filesFailed = new LongAdder();
+    private final LongAdder foldersAdded = new LongAdder();
+    private final LongAdder foldersSkipped = new LongAdder();
+
+    public PhaseStatistics(String name) {
+        this.name = name;
+    }
+
+    public void fileAdded(long bytes) {
+        filesAdded.increment();
+        bytesAdded.add(bytes);
+    }
+
+    public void fileSkipped() {
+        filesSkipped.increment();
+    }
+
+    public void fileFailed() {
+        filesFailed.increment();
+    }
+
+    public void folderAdded() {
+        foldersAdded.increment();
+    }
+
+    public void foldersAdded(long count) {
+        foldersAdded.add(count);
+    }
+
+    public void folderSkipped() {
+        foldersSkipped.increment();
+    }
+
+    public long getFilesAdded() {
+        return filesAdded.sum();
+    }
+
+    public long getBytesAdded() {
+        return bytesAdded.sum();
+    }
+
+    public long getFilesSkipped() {
+        return filesSkipped.sum();
+    }
+
+    public long getFilesFailed() {
+        return filesFailed.sum();
+    }
+
+    public long getFoldersAdded() {
+        return foldersAdded.sum();
+    }
+
+    public long getFoldersSkipped() {
+        return foldersSkipped.sum();
+    }
+
+    /**
+     * get a short summary of all counters, e.g. for the final message of the phase
+     *
+     * @return the summary
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(getFilesAdded()).append(" files (").append(FileUtils.byteCountToDisplaySize(getBytesAdded())).append(") in ");
+        summary.append(getFoldersAdded()).append(" folders");
+        if (getFilesSkipped() > 0 || getFoldersSkipped() > 0) {
+            summary.append(", skipped ").append(getFilesSkipped()).append(" files and ").append(getFoldersSkipped()).append(" folders");
+        }
+        if (getFilesFailed() > 0) {
+            summary.append(", ").append(getFilesFailed()).append(" files failed");
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,372 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Merges an extracted metadata folder into the existing one process by process instead of replacing the entire folder. Each process folder of
+ * the dump is compared with the existing process folder: files with the same size and modification time are kept, changed and new files are
+ * moved into place and files that do not exist in the dump anymore are deleted. Only files that the export would have contained are deleted,
+ * files that match an exclusion of the export, e.g. the images, are never touched. If the exclusions of the export are unknown, no file is
+ * deleted. Processes that are not contained in the dump stay untouched, unless {@link #setKeepMissing(boolean)} is disabled. The processes
+ * are merged in parallel, so the duration depends on the size of the dump and not on the size of the existing folder.
+ *
+ * If the manifest of the dump is available, the modification times are taken from it, because the times in the zip file are less precise. If
+ * the manifest contains content hashes, files with the same size but a different modification time are compared by their hash.
+ */
+@Log4j2
+public class ProcessMerger {
+
+    // modification times in zip files are stored with a precision of two seconds
+    private static final long ZIP_TIME_PRECISION = 2000;
+
+    private final Path source;
+    private final Path target;
+    private final int threads;
+
+    // manifest of the dump, can be null
+    @Setter
+    private Manifest manifest;
+    // prefix of the paths in the manifest, e.g. metadata/
+    @Setter
+    private String manifestPrefix = "";
+    @Setter
+    private boolean keepMissing = true;
+    // exclusions of the export, files that match them are not contained in the dump and must be kept. If it is null, no file is deleted
+    @Setter
+    private ExportFilter exportFilter;
+    // old process folders are moved into the trash folder, if it is null they are deleted directly
+    @Setter
+    private TrashFolder trash;
+    @Setter
+    private ZipExtractor.Listener listener;
+
+    private final LongAdder processes = new LongAdder();
+    private final LongAdder changedProcesses = new LongAdder();
+    private final LongAdder removedProcesses = new LongAdder();
+    private final LongAdder unchangedFiles = new LongAdder();
+    private final LongAdder writtenFiles = new LongAdder();
+    private final LongAdder writtenBytes = new LongAdder();
+    private final LongAdder deletedFiles = new LongAdder();
+    @Getter
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param source extracted folder, its content gets moved into the target folder
+     * @param target existing folder
+     * @param threads number of processes that are merged in parallel
+     */
+    public ProcessMerger(Path source, Path target, int threads) {
+        this.source = source;
+        this.target = target;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * merge all process folders of the source folder into the target folder. Errors of single processes do not stop the merge, they can be
+     * requested afterwards using {@link #getErrors()}
+     *
+     * @throws IOException if the folders cannot be read
+     * @throws InterruptedException
+     */
+    public void merge() throws IOException, InterruptedException {
+        Files.createDirectories(target);
+        Set<String> names = new HashSet<>();
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "exchange-merge-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+                for (Path process : stream) {
+                    String name = process.getFileName().toString();
+                    names.add(name);
+                    pool.submit(() -> {
+                        try {
+                            mergeProcess(name);
+                        } catch (IOException e) {
+                            log.error("Error while merging process folder " + name, e);
+                            errors.add(name + ": " + e.getMessage());
+                        }
+                    });
+                }
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (!keepMissing) {
+            removeMissingProcesses(names);
+        }
+    }
+
+    private void mergeProcess(String name) throws IOException {
+        processes.increment();
+        Path from = source.resolve(name);
+        Path to = target.resolve(name);
+        if (!Files.exists(to, LinkOption.NOFOLLOW_LINKS)) {
+            // new process, the entire folder can be renamed into place
+            List<Path> files = listFiles(from);
+            try {
+                Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                if (Files.isDirectory(from)) {
+                    FileUtils.moveDirectory(from.toFile(), to.toFile());
+                } else {
+                    Files.move(from, to);
+                }
+            }
+            for (Path file : files) {
+                String relative = from.relativize(file).toString();
+                written(relative.isEmpty() ? name : name + "/" + relative, to.resolve(relative));
+            }
+            changedProcesses.increment();
+            return;
+        }
+        if (!Files.isDirectory(from)) {
+            // a single file on the top level of the folder
+            if (mergeFile(from, to, name)) {
+                changedProcesses.increment();
+            }
+            return;
+        }
+
+        boolean changed = false;
+        Set<String> incoming = new HashSet<>();
+        for (Path file : listFiles(from)) {
+            String relative = from.relativize(file).toString();
+            incoming.add(relative);
+            changed |= mergeFile(file, to.resolve(relative), name + "/" + relative);
+        }
+
+        if (exportFilter != null) {
+            changed |= deleteRemovedFiles(from, to, name, incoming);
+        }
+        if (changed) {
+            changedProcesses.increment();
+        }
+    }
+
+    /**
+     * delete the files and folders of an existing process that are not contained in the dump anymore. Files and folders that were excluded from
+     * the export are kept, together with the folders that contain them.
+     *
+     * @return true if a file was deleted
+     */
+    private boolean deleteRemovedFiles(Path from, Path to, String name, Set<String> incoming) throws IOException {
+        boolean changed = false;
+        List<Path> existing;
+        try (Stream<Path> stream = Files.walk(to)) {
+            existing = stream.collect(Collectors.toList());
+        }
+        Collections.reverse(existing);
+        for (Path path : existing) {
+            String relative = to.relativize(path).toString();
+            if (relative.isEmpty() || incoming.contains(relative) || isExcluded(name, relative, Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))) {
+                continue;
+            }
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (!Files.isDirectory(from.resolve(relative))) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (DirectoryNotEmptyException e) {
+                        // the folder contains excluded files
+                    }
+                }
+            } else {
+                Files.delete(path);
+                deletedFiles.increment();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * check if a path of an existing process was excluded from the export, either by itself or by one of its folders
+     *
+     * @param name name of the process folder
+     * @param relative path inside of the process folder
+     * @param directory true if the path is a folder
+     * @return true if the path must be kept
+     */
+    boolean isExcluded(String name, String relative, boolean directory) {
+        String path = manifestPrefix + name + "/" + relative.replace('\\', '/');
+        if (directory ? exportFilter.isDirectoryExcluded(path) : exportFilter.isExcluded(path)) {
+            return true;
+        }
+        int separator = path.lastIndexOf('/');
+        while (separator > manifestPrefix.length() + name.length()) {
+            path = path.substring(0, separator);
+            if (exportFilter.isDirectoryExcluded(path)) {
+                return true;
+            }
+            separator = path.lastIndexOf('/');
+        }
+        return false;
+    }
+
+    /**
+     * move a single file into place if it differs from the existing one
+     *
+     * @return true if the file was written
+     */
+    private boolean mergeFile(Path from, Path to, String path) throws IOException {
+        ManifestEntry entry = manifest == null ? null : manifest.get(manifestPrefix + path);
+        if (isUnchanged(from, to, entry)) {
+            unchangedFiles.increment();
+            return false;
+        }
+        Files.createDirectories(to.getParent());
+        Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        if (entry != null) {
+            // keep the exact modification time of the exported file, so that the next merge can compare it
+            Files.setLastModifiedTime(to, FileTime.fromMillis(entry.getMtime()));
+        }
+        written(path, to);
+        return true;
+    }
+
+    private boolean isUnchanged(Path from, Path to, ManifestEntry entry) throws IOException {
+        if (!Files.isRegularFile(to)) {
+            return false;
+        }
+        long size = Files.size(to);
+        if (size != Files.size(from)) {
+            return false;
+        }
+        long mtime = Files.getLastModifiedTime(to).toMillis();
+        if (entry == null) {
+            return Math.abs(Files.getLastModifiedTime(from).toMillis() - mtime) < ZIP_TIME_PRECISION;
+        }
+        if (entry.isUnchanged(size, mtime)) {
+            return true;
+        }
+        return entry.getHash() != null && !entry.getHash().isEmpty() && entry.getHash().equals(hash(to));
+    }
+
+    private void written(String path, Path file) throws IOException {
+        long bytes = Files.size(file);
+        writtenFiles.increment();
+        writtenBytes.add(bytes);
+        if (listener != null) {
+            listener.fileExtracted(path, bytes);
+        }
+    }
+
+    private void removeMissingProcesses(Set<String> names) throws IOException {
+        List<Path> missing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(target)) {
+            for (Path process : stream) {
+                if (!names.contains(process.getFileName().toString())) {
+                    missing.add(process);
+                }
+            }
+        }
+        for (Path process : missing) {
+            if (trash != null) {
+                trash.dispose(process);
+            } else if (Files.isDirectory(process, LinkOption.NOFOLLOW_LINKS)) {
+                FileUtils.deleteDirectory(process.toFile());
+            } else {
+                Files.delete(process);
+            }
+            removedProcesses.increment();
+        }
+    }
+
+    private static List<Path> listFiles(Path folder) throws IOException {
+        try (Stream<Path> stream = Files.walk(folder)) {
+            return stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public long getProcesses() {
+        return processes.sum();
+    }
+
+    public long getChangedProcesses() {
+        return changedProcesses.sum();
+    }
+
+    public long getRemovedProcesses() {
+        return removedProcesses.sum();
+    }
+
+    public long getUnchangedFiles() {
+        return unchangedFiles.sum();
+    }
+
+    public long getWrittenFiles() {
+        return writtenFiles.sum();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes.sum();
+    }
+
+    public long getDeletedFiles() {
+        return deletedFiles.sum();
+    }
+
+    /**
+     * get a short summary of the merge for the message log
+     */
+    public String getSummary() {
+        String summary = getProcesses() + " processes compared, " + getChangedProcesses() + " changed, " + getWrittenFiles() + " files written ("
+                + FileUtils.byteCountToDisplaySize(getWrittenBytes()) + "), " + getUnchangedFiles() + " files unchanged, " + getDeletedFiles()
+                + " files deleted";
+        if (!keepMissing) {
+            summary += ", " + getRemovedProcesses() + " processes removed that were not contained in the dump";
+        }
+        return summary;
+    }
+}
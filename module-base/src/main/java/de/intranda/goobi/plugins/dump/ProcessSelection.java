@@ -0,0 +1,77 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.Getter;
+
+/**
+ * Selection of processes for a partial export. The selection is parsed from a list of process ids and ranges like
+ * <code>12, 15, 100-250</code>. Ids, commas, semicolons and whitespace can be mixed.
+ */
+public class ProcessSelection {
+
+    @Getter
+    private final Set<Integer> ids = new HashSet<>();
+    private final List<long[]> ranges = new ArrayList<>();
+
+    /**
+     * parse the given text into a selection
+     * 
+     * @param value list of ids and ranges
+     * @return the selection
+     * @throws IllegalArgumentException if the text contains something that is neither an id nor a range
+     */
+    public static ProcessSelection parse(String value) {
+        ProcessSelection selection = new ProcessSelection();
+        if (value == null) {
+            return selection;
+        }
+        for (String token : value.split("[,;\\s]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            try {
+                int dash = token.indexOf('-');
+                if (dash > 0) {
+                    long from = Long.parseLong(token.substring(0, dash));
+                    long to = Long.parseLong(token.substring(dash + 1));
+                    selection.ranges.add(new long[] { Math.min(from, to), Math.max(from, to) });
+                } else {
+                    selection.ids.add(Integer.parseInt(token));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid process id or range: " + token, e);
+            }
+        }
+        return selection;
+    }
+
+    /**
+     * check if a process id is part of the selection
+     * 
+     * @param id
+     * @return true if the id was listed or is part of a range
+     */
+    public boolean contains(int id) {
+        if (ids.contains(id)) {
+            return true;
+        }
+        for (long[] range : ranges) {
+            if (id >= range[0] && id <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasRanges() {
+        return !ranges.isEmpty();
+    }
+
+    public boolean isEmpty() {
+        return ids.isEmpty() && ranges.isEmpty();
+    }
+}
@@ -0,0 +1,113 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+import de.sub.goobi.helper.FacesContextHelper;
+import jakarta.faces.context.FacesContext;
+
+/**
+ * Connects the exporter and the importer with the event servlet of the user interface. Both register a function in the session that creates
+ * the current progress including all messages newer than a given sequence number. The servlet pushes these events to the browser, so that the
+ * page does not need to poll.
+ *
+ * The servlet is loaded by a different class loader than the plugin, therefore the events only contain classes of the JDK.
+ */
+public final class ProgressChannel {
+
+    // name of the session attribute that holds the channels, must be identical with the constant in the servlet
+    public static final String SESSION_ATTRIBUTE = "intranda_administration_exchange_progress";
+
+    public static final String EXPORT = "export";
+    public static final String IMPORT = "import";
+    public static final String JOBS = "jobs";
+
+    private ProgressChannel() {
+    }
+
+    /**
+     * register the progress of the exporter or importer in the current session
+     * 
+     * @param channel name of the channel, {@link #EXPORT} or {@link #IMPORT}
+     * @param source function that creates the progress event for a given message sequence number
+     */
+    @SuppressWarnings("unchecked")
+    public static void register(String channel, LongFunction<Map<String, Object>> source) {
+        FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
+        if (facesContext == null) {
+            return;
+        }
+        Map<String, Object> sessionMap = facesContext.getExternalContext().getSessionMap();
+        Map<String, LongFunction<Map<String, Object>>> channels = (Map<String, LongFunction<Map<String, Object>>>) sessionMap
+                .computeIfAbsent(SESSION_ATTRIBUTE, k -> new ConcurrentHashMap<String, LongFunction<Map<String, Object>>>());
+        channels.put(channel, source);
+    }
+
+    /**
+     * create the event with the list of all queued, running and recently finished jobs
+     * 
+     * @param jobs snapshots of the jobs
+     * @return the event
+     */
+    public static Map<String, Object> createJobsEvent(List<JobSnapshot> jobs) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (JobSnapshot job : jobs) {
+            items.add(job.toMap());
+        }
+        event.put("jobs", items);
+        return event;
+    }
+
+    /**
+     * create a progress event
+     * 
+     * @param log message log of the job
+     * @param sequence sequence number of the last message the client has received
+     * @param phase name of the current phase
+     * @param running true if the job is running
+     * @param progress byte based progress of the entire job
+     * @return the event
+     */
+    public static Map<String, Object> createEvent(MessageLog log, long sequence, String phase, boolean running, ProgressTracker progress) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("phase", phase == null ? "" : phase);
+        event.put("running", running);
+        event.put("files", progress.getCurrentFiles());
+        event.put("totalFiles", progress.getTotalFiles());
+        event.put("bytes", progress.getCurrentBytes());
+        event.put("totalBytes", progress.getTotalBytes());
+        event.put("percent", progress.getPercent());
+        // moving average of the throughput in bytes per second and the remaining time in seconds
+        event.put("throughput", progress.getThroughput());
+        event.put("eta", progress.getEta());
+
+        event.put("errors", log.getErrors());
+        event.put("warnings", log.getWarnings());
+        event.put("oldest", log.getOldestSequence());
+        event.put("dropped", log.getDropped());
+        List<Map<String, Object>> phases = new ArrayList<>();
+        for (PhaseStatistics statistics : log.getPhases()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("name", statistics.getName());
+            item.put("summary", statistics.getSummary());
+            item.put("failed", statistics.getFilesFailed());
+            phases.add(item);
+        }
+        event.put("phases", phases);
+        List<Map<String, Object>> messages = new ArrayList<>();
+        for (Message message : log.getMessagesSince(sequence)) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("seq", message.getSequence());
+            item.put("status", message.getStatus().name());
+            item.put("message", message.getMessage());
+            messages.add(item);
+        }
+        event.put("messages", messages);
+        return event;
+    }
+}
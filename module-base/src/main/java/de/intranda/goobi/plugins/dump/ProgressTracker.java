@@ -0,0 +1,210 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Progress of an entire export or import job in bytes. The total grows while the content gets scanned, so that all categories and the database
+ * dump are covered by a single progress. The throughput is a moving average, so that the estimated remaining time follows changes like a
+ * switch from small METS files to large images. Each sample is weighted by the time it covers, so that the average does not depend on how
+ * often the user interface polls it.
+ */
+public class ProgressTracker {
+
+    // minimum time between two samples of the throughput
+    private static final long SAMPLE_INTERVAL = 1000;
+    // time in milliseconds after which the weight of older samples dropped to 1/e, a sample of one second gets a weight of 0.3
+    private static final double TIME_CONSTANT = 2800;
+
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final AtomicLong totalFiles = new AtomicLong();
+    private final AtomicLong currentFiles = new AtomicLong();
+
+    private volatile long startTime;
+    private volatile long endTime;
+    private long sampleTime;
+    private long sampleBytes;
+    private double throughput;
+
+    /**
+     * reset all counters and start the clock
+     */
+    public synchronized void start() {
+        totalBytes.set(0);
+        currentBytes.set(0);
+        totalFiles.set(0);
+        currentFiles.set(0);
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        sampleTime = startTime;
+        sampleBytes = 0;
+        throughput = 0;
+    }
+
+    /**
+     * stop the clock, the progress is complete afterwards
+     */
+    public synchronized void finish() {
+        endTime = System.currentTimeMillis();
+        totalBytes.set(Math.max(totalBytes.get(), currentBytes.get()));
+    }
+
+    public boolean isRunning() {
+        return startTime > 0 && endTime == 0;
+    }
+
+    /**
+     * add content that was found and still needs to be processed
+     */
+    public void addTotal(long files, long bytes) {
+        totalFiles.addAndGet(files);
+        totalBytes.addAndGet(bytes);
+    }
+
+    /**
+     * set the total content, e.g. if the size of an upload is known
+     */
+    public void setTotal(long files, long bytes) {
+        totalFiles.set(files);
+        totalBytes.set(bytes);
+    }
+
+    /**
+     * add processed content
+     */
+    public void advance(long files, long bytes) {
+        currentFiles.addAndGet(files);
+        currentBytes.addAndGet(bytes);
+    }
+
+    /**
+     * add content with a size that was not known in advance, like the database dump. It is added to the processed and to the total bytes
+     */
+    public void advanceUnknown(long files, long bytes) {
+        totalFiles.addAndGet(files);
+        currentFiles.addAndGet(files);
+        totalBytes.addAndGet(bytes);
+        currentBytes.addAndGet(bytes);
+    }
+
+    /**
+     * mark all known bytes as processed, e.g. if the end of a stream was not read
+     */
+    public void complete() {
+        long remaining = totalBytes.get() - currentBytes.get();
+        if (remaining > 0) {
+            currentBytes.addAndGet(remaining);
+        }
+    }
+
+    /**
+     * wrap a stream, so that all bytes read from it are counted as processed
+     *
+     * @param in the stream
+     * @param known true if the bytes are part of the total already, false if they shall be added to the total too
+     * @return the counting stream
+     */
+    public InputStream count(InputStream in, boolean known) {
+        if (known) {
+            return new CountingInputStream(in, bytes -> advance(0, bytes));
+        }
+        return new CountingInputStream(in, bytes -> advanceUnknown(0, bytes));
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public long getCurrentBytes() {
+        return currentBytes.get();
+    }
+
+    public long getTotalFiles() {
+        return totalFiles.get();
+    }
+
+    public long getCurrentFiles() {
+        return currentFiles.get();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * get the progress in percent, it is based on the bytes or on the number of files if the size is not known
+     */
+    public int getPercent() {
+        long total = totalBytes.get();
+        if (total > 0) {
+            return (int) Math.min(100, 100 * currentBytes.get() / total);
+        }
+        long files = totalFiles.get();
+        return files > 0 ? (int) Math.min(100, 100 * currentFiles.get() / files) : 0;
+    }
+
+    /**
+     * get the moving average of the throughput
+     *
+     * @return bytes per second
+     */
+    public long getThroughput() {
+        return getThroughput(System.currentTimeMillis());
+    }
+
+    /**
+     * internal method to get the moving average of the throughput at the given time
+     *
+     * @param now current time in milliseconds
+     * @return bytes per second
+     */
+    synchronized long getThroughput(long now) {
+        if (!isRunning()) {
+            long duration = endTime - startTime;
+            return endTime > 0 && duration > 0 ? currentBytes.get() * 1000 / duration : 0;
+        }
+        long elapsed = now - sampleTime;
+        if (elapsed >= SAMPLE_INTERVAL) {
+            long bytes = currentBytes.get();
+            double rate = (bytes - sampleBytes) * 1000d / elapsed;
+            // a longer sample replaces more of the average, one sample of two seconds equals two samples of one second
+            double alpha = 1 - Math.exp(-elapsed / TIME_CONSTANT);
+            throughput = sampleBytes == 0 && throughput == 0 ? rate : alpha * rate + (1 - alpha) * throughput;
+            sampleTime = now;
+            sampleBytes = bytes;
+        }
+        return (long) throughput;
+    }
+
+    /**
+     * get the estimated remaining time
+     *
+     * @return seconds or -1 if it cannot be estimated yet
+     */
+    public long getEta() {
+        long throughputNow = getThroughput();
+        long remaining = totalBytes.get() - currentBytes.get();
+        if (!isRunning() || throughputNow <= 0 || remaining < 0) {
+            return -1;
+        }
+        return remaining / throughputNow;
+    }
+
+    /**
+     * get a short description of the progress for log files
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(getPercent()).append("% (").append(FileUtils.byteCountToDisplaySize(getCurrentBytes())).append(" of ");
+        summary.append(FileUtils.byteCountToDisplaySize(getTotalBytes())).append(", ").append(getCurrentFiles()).append(" of ");
+        summary.append(getTotalFiles()).append(" files), ").append(FileUtils.byteCountToDisplaySize(getThroughput())).append("/s");
+        long eta = getEta();
+        if (eta >= 0) {
+            summary.append(", ").append(eta / 3600).append(String.format(":%02d:%02d", eta % 3600 / 60, eta % 60)).append(" remaining");
+        }
+        return summary.toString();
+    }
+}
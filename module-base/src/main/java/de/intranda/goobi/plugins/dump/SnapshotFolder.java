@@ -0,0 +1,155 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Folder that holds the dated snapshots of the exports in mirror mode, one subfolder for each snapshot named by its dump id. A snapshot is
+ * written into a folder with the suffix .part and renamed when it is complete, so that the folder of a snapshot is always consistent.
+ *
+ * Old snapshots expire by number and by age, the newest snapshot is always kept. Expired snapshots are renamed into a trash folder inside
+ * of the snapshot folder and deleted in the background. As unchanged files are hard links, deleting a snapshot frees only the space of the
+ * files that are not linked by any other snapshot.
+ */
+@Log4j2
+public class SnapshotFolder {
+
+    private static final String PART = ".part";
+
+    @Getter
+    private final Path folder;
+    private final int keep;
+    private final int days;
+    private final TrashFolder trash;
+
+    /**
+     * @param folder the folder of all snapshots
+     * @param keep number of snapshots to keep, 0 for unlimited
+     * @param days maximum age of the snapshots in days, 0 for unlimited
+     */
+    public SnapshotFolder(Path folder, int keep, int days) {
+        this.folder = folder;
+        this.keep = Math.max(0, keep);
+        this.days = Math.max(0, days);
+        this.trash = new TrashFolder(folder.resolve(".trash"), 4);
+    }
+
+    /**
+     * get the ids of all complete snapshots
+     *
+     * @return the ids, the newest snapshot comes first
+     */
+    public List<String> getSnapshots() {
+        List<String> ids = new ArrayList<>();
+        if (!Files.isDirectory(folder)) {
+            return ids;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (Exporter.DUMP_ID.matcher(name).matches() && Files.isDirectory(path)) {
+                    ids.add(name);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error while reading the snapshot folder " + folder, e);
+        }
+        ids.sort(Comparator.reverseOrder());
+        return ids;
+    }
+
+    /**
+     * get the newest complete snapshot
+     *
+     * @return the folder of the snapshot or null if there is none
+     */
+    public Path getLatest() {
+        List<String> ids = getSnapshots();
+        return ids.isEmpty() ? null : folder.resolve(ids.get(0));
+    }
+
+    /**
+     * create the folder for a new snapshot, incomplete snapshots of previous runs get removed
+     *
+     * @param id dump id of the new snapshot
+     * @return the folder to write the snapshot into
+     * @throws IOException
+     */
+    public Path start(String id) throws IOException {
+        Files.createDirectories(folder);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + PART)) {
+            for (Path path : stream) {
+                log.info("Removing incomplete snapshot {}", path);
+                trash.dispose(path);
+            }
+        }
+        Path part = folder.resolve(id + PART);
+        Files.createDirectory(part);
+        return part;
+    }
+
+    /**
+     * rename the folder of a complete snapshot
+     *
+     * @param part the folder the snapshot was written into
+     * @param id dump id of the snapshot
+     * @return the final folder of the snapshot
+     * @throws IOException
+     */
+    public Path complete(Path part, String id) throws IOException {
+        Path target = folder.resolve(id);
+        Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    /**
+     * remove an incomplete snapshot
+     *
+     * @param part the folder the snapshot was written into
+     */
+    public void discard(Path part) {
+        try {
+            trash.dispose(part);
+        } catch (IOException e) {
+            log.error("Cannot remove the incomplete snapshot " + part, e);
+        }
+    }
+
+    /**
+     * remove all snapshots that exceed the number of snapshots to keep or the maximum age
+     *
+     * @return ids of the removed snapshots
+     */
+    public List<String> expire() {
+        List<String> removed = new ArrayList<>();
+        List<String> ids = getSnapshots();
+        LocalDateTime oldest = LocalDateTime.now().minusDays(days);
+        for (int i = 1; i < ids.size(); i++) {
+            String id = ids.get(i);
+            if ((keep > 0 && i >= keep) || (days > 0 && isOlder(id, oldest))) {
+                try {
+                    trash.dispose(folder.resolve(id));
+                    removed.add(id);
+                } catch (IOException e) {
+                    log.error("Cannot remove the expired snapshot " + id, e);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isOlder(String id, LocalDateTime oldest) {
+        // the ids sort by time, ids of older versions without milliseconds as well
+        return id.compareTo(oldest.format(Exporter.DUMP_ID_FORMAT)) < 0;
+    }
+}
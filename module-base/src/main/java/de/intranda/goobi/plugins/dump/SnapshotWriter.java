@@ -0,0 +1,288 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes an export as a plain directory tree instead of an archive. If a previous snapshot is given, files that are unchanged since then,
+ * detected by size and modification time, are hard linked from the previous snapshot, so that each snapshot costs only the changed bytes.
+ * Changed files are copied with {@link FileChannel#transferTo}, which lets the kernel copy the data and shares the blocks on file systems
+ * with reflinks. If the throttle is active the files are copied through the throttled streams instead.
+ *
+ * The files are linked and copied by a pool of worker threads. The copies get the modification time of their source, so that the next
+ * snapshot can compare the live files with this snapshot directly.
+ */
+@Log4j2
+public class SnapshotWriter implements ArchiveWriter {
+
+    private final Path folder;
+    private final Path previous;
+    private final IoThrottle throttle;
+    private final ExecutorService pool;
+    private final Semaphore permits;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private final LongAdder linkedFiles = new LongAdder();
+    private final LongAdder linkedBytes = new LongAdder();
+    private final LongAdder copiedFiles = new LongAdder();
+    private final LongAdder copiedBytes = new LongAdder();
+    private volatile boolean linksSupported = true;
+    private boolean finished = false;
+
+    /**
+     * @param folder the folder of the new snapshot
+     * @param previous the folder of the previous snapshot, can be null
+     * @param threads number of threads that link and copy the files
+     * @param throttle throttle for the copied files
+     */
+    public SnapshotWriter(Path folder, Path previous, int threads, IoThrottle throttle) {
+        this.folder = folder;
+        this.previous = previous;
+        this.throttle = throttle;
+        int workers = Math.max(1, threads);
+        AtomicInteger counter = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "exchange-snapshot-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        permits = new Semaphore(workers * 4);
+    }
+
+    /**
+     * add a file of the scanned trees, it is linked or copied in the background
+     *
+     * @param name name of the file inside of the snapshot
+     * @param file the source file
+     * @param size size of the source file
+     * @param mtime modification time of the source file
+     * @throws IOException
+     */
+    public void putFile(String name, Path file, long size, long mtime) throws IOException {
+        ensureOpen();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the snapshot writer");
+        }
+        pending.incrementAndGet();
+        pool.execute(() -> {
+            try {
+                transfer(name, file, size, mtime);
+            } catch (IOException e) {
+                log.error("Cannot write " + file + " into the snapshot", e);
+                errors.add(file + ": " + e.getMessage());
+            } finally {
+                pending.decrementAndGet();
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void putFile(String name, Path file) throws IOException {
+        ensureOpen();
+        Path target = resolve(name);
+        createParent(target);
+        copy(file, target, Files.size(file));
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(file));
+        copiedFiles.increment();
+    }
+
+    @Override
+    public void putStream(String name, InputStream in, long time) throws IOException {
+        ensureOpen();
+        Path target = resolve(name);
+        createParent(target);
+        try (OutputStream out = throttle.output(Files.newOutputStream(target))) {
+            copiedBytes.add(in.transferTo(out));
+        }
+        Files.setLastModifiedTime(target, FileTime.fromMillis(time));
+        copiedFiles.increment();
+    }
+
+    /**
+     * wait until all files are linked or copied
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the snapshot writer");
+        }
+    }
+
+    /**
+     * stop the workers, files that are not written yet are missing in the snapshot
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int getPendingBlocks() {
+        return pending.get();
+    }
+
+    /**
+     * get the files which could not be written
+     */
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    public long getLinkedFiles() {
+        return linkedFiles.sum();
+    }
+
+    public long getLinkedBytes() {
+        return linkedBytes.sum();
+    }
+
+    public long getCopiedFiles() {
+        return copiedFiles.sum();
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes.sum();
+    }
+
+    /**
+     * get a short summary for the message log
+     */
+    public String getSummary() {
+        return getLinkedFiles() + " unchanged files linked (" + getLinkedBytes() / (1024 * 1024) + " MB), " + getCopiedFiles()
+                + " files copied (" + getCopiedBytes() / (1024 * 1024) + " MB)";
+    }
+
+    private void transfer(String name, Path file, long size, long mtime) throws IOException {
+        Path target = resolve(name);
+        createParent(target);
+        if (previous != null && linksSupported && link(previous.resolve(relative(name)), target, size, mtime)) {
+            linkedFiles.increment();
+            linkedBytes.add(size);
+            return;
+        }
+        copy(file, target, size);
+        Files.setLastModifiedTime(target, FileTime.fromMillis(mtime));
+        copiedFiles.increment();
+    }
+
+    /**
+     * internal method to link the file of the previous snapshot if it has the same size and modification time
+     *
+     * @return true if the file was linked
+     */
+    private boolean link(Path old, Path target, long size, long mtime) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(old, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!attributes.isRegularFile() || attributes.size() != size || attributes.lastModifiedTime().toMillis() != mtime) {
+            return false;
+        }
+        try {
+            Files.createLink(target, old);
+            return true;
+        } catch (UnsupportedOperationException e) {
+            log.warn("The file system of {} does not support hard links, all files get copied", folder);
+            linksSupported = false;
+        } catch (FileSystemException e) {
+            // e.g. the maximum number of links of the file is reached, the file gets copied instead
+            log.debug("Cannot link {}: {}", old, e.toString());
+        }
+        return false;
+    }
+
+    private void copy(Path source, Path target, long size) throws IOException {
+        if (throttle.isActive()) {
+            try (InputStream in = throttle.input(Files.newInputStream(source));
+                    OutputStream out = throttle.output(Files.newOutputStream(target))) {
+                copiedBytes.add(in.transferTo(out));
+            }
+            return;
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            long position = 0;
+            long length = Math.max(size, in.size());
+            while (position < length) {
+                long count = in.transferTo(position, length - position, out);
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+            }
+            copiedBytes.add(position);
+        }
+    }
+
+    private void createParent(Path target) throws IOException {
+        Path parent = target.getParent();
+        // the folder is only remembered once it exists, other threads may create it concurrently
+        if (!directories.contains(parent)) {
+            Files.createDirectories(parent);
+            directories.add(parent);
+        }
+    }
+
+    private Path resolve(String name) {
+        return folder.resolve(relative(name));
+    }
+
+    private static String relative(String name) {
+        return name.startsWith("/") ? name.substring(1) : name;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("The snapshot is finished already.");
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.function.IOBiConsumer;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.StorageProvider;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Database dump that is split into the schema and one entry for each table (<code>sql/schema.sql</code>, <code>sql/&lt;table&gt;.sql</code>).
+ * The tables are dumped and restored by several commands at the same time.
+ *
+ * All commands are configured as templates like the other database commands. The dump commands write to stdout, the restore command reads
+ * from stdin. The placeholder TABLE gets replaced by the name of the table.
+ *
+ * Separate dumps of each table are not taken from the same snapshot, they are only consistent if Goobi is not changed during the export. If
+ * the command dumpTables is configured, the rows of all tables are dumped by one command from one snapshot instead and the output is split
+ * into the tables at the comments of mysqldump.
+ */
+@Log4j2
+public class TableDump {
+
+    public static final String MODE_TABLES = "tables";
+    public static final String SCHEMA = "schema";
+
+    // table names are used as file names, anything else is rejected
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z0-9_$]+");
+    // comments of mysqldump in front of the rows and the structure of a table
+    private static final Pattern DATA_COMMENT = Pattern.compile("-- Dumping data for table `(.*)`");
+    private static final String STRUCTURE_COMMENT = "-- Table structure for table";
+
+    @Getter
+    private final boolean enabled;
+    private final int threads;
+    private final String listCommand;
+    private final String schemaCommand;
+    private final String tableCommand;
+    private final String tablesCommand;
+    private final String restoreCommand;
+
+    public TableDump(XMLConfiguration config) {
+        enabled = MODE_TABLES.equals(config.getString("database[@mode]", "single"));
+        threads = Math.max(1, config.getInt("database[@threads]", 4));
+        listCommand = config.getString("database.listTables", "");
+        schemaCommand = config.getString("database.dumpSchema", "");
+        tableCommand = config.getString("database.dumpTable", "");
+        tablesCommand = config.getString("database.dumpTables", "");
+        restoreCommand = config.getString("database.restore", "");
+    }
+
+    /**
+     * dump the schema and all tables into the archive. The tables are dumped into spool files concurrently and added to the archive as soon as
+     * they are finished, so that the dumps and the compression overlap
+     *
+     * @param zos the archive or snapshot
+     * @param folder name of the folder inside of the archive
+     * @param messageLog log for messages and counters
+     * @param progress progress of the export, the dumped bytes are added to it
+     * @throws IOException if a dump failed
+     * @throws InterruptedException
+     */
+    public void export(ArchiveWriter zos, String folder, MessageLog messageLog, ProgressTracker progress) throws IOException,
+            InterruptedException {
+        if (schemaCommand.isEmpty() || tablesCommand.isEmpty() && (listCommand.isEmpty() || tableCommand.isEmpty())) {
+            throw new IOException("The database mode 'tables' requires the commands dumpSchema and dumpTables or listTables and dumpTable.");
+        }
+        if (!tablesCommand.isEmpty()) {
+            exportSnapshot(zos, folder, messageLog, progress);
+            return;
+        }
+        PhaseStatistics phase = messageLog.getPhase("database");
+        List<String> tables = listTables();
+        messageLog.add(new Message("Dumping schema and " + tables.size() + " tables with " + threads + " threads.", MessageStatus.OK));
+        messageLog.add(new Message("The tables are dumped separately, the dump is only consistent if Goobi is not changed during the export.",
+                MessageStatus.WARNING));
+        exportSchema(zos, folder, progress);
+
+        Path spool = Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), "exchange-sql-" + UUID.randomUUID());
+        Files.createDirectories(spool);
+        ExecutorService pool = createPool();
+        try {
+            List<Future<Path>> dumps = new ArrayList<>();
+            for (String table : tables) {
+                dumps.add(pool.submit(() -> dumpTable(table, spool, progress)));
+            }
+            // the entries are added in the order of the tables, while the following tables are still dumped
+            for (int i = 0; i < tables.size(); i++) {
+                Path file = get(dumps.get(i));
+                long size = Files.size(file);
+                zos.putFile(folder + "/" + tables.get(i) + ".sql", file);
+                Files.delete(file);
+                phase.fileAdded(size);
+                progress.advanceUnknown(1, 0);
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            StorageProvider.getInstance().deleteDir(spool);
+        }
+        messageLog.add(new Message("Created SQL dump of " + tables.size() + " tables successfully.", MessageStatus.OK));
+    }
+
+    /**
+     * dump the schema and afterwards the rows of all tables with one command, so that all tables are read from the same snapshot. Each table
+     * is added to the archive as soon as the command starts with the next one.
+     *
+     * @param zos the archive or snapshot
+     * @param folder name of the folder inside of the archive
+     * @param messageLog log for messages and counters
+     * @param progress progress of the export, the dumped bytes are added to it
+     * @throws IOException if the dump failed
+     * @throws InterruptedException
+     */
+    private void exportSnapshot(ArchiveWriter zos, String folder, MessageLog messageLog, ProgressTracker progress) throws IOException,
+            InterruptedException {
+        PhaseStatistics phase = messageLog.getPhase("database");
+        messageLog.add(new Message("Dumping schema and all tables from one snapshot.", MessageStatus.OK));
+        exportSchema(zos, folder, progress);
+
+        Path spool = Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), "exchange-sql-" + UUID.randomUUID());
+        Files.createDirectories(spool);
+        int tables;
+        try (InputStream in = progress.count(new CommandStream("Dump of all tables", List.of(ExternalCommand.parse(tablesCommand, null, null))),
+                false)) {
+            tables = splitTables(in, spool, (table, file) -> {
+                long size = Files.size(file);
+                zos.putFile(folder + "/" + table + ".sql", file);
+                Files.delete(file);
+                phase.fileAdded(size);
+                progress.advanceUnknown(1, 0);
+            });
+        } finally {
+            StorageProvider.getInstance().deleteDir(spool);
+        }
+        messageLog.add(new Message("Created SQL dump of " + tables + " tables successfully.", MessageStatus.OK));
+    }
+
+    private void exportSchema(ArchiveWriter zos, String folder, ProgressTracker progress) throws IOException {
+        try (InputStream in = progress.count(new CommandStream("Schema dump", List.of(ExternalCommand.parse(schemaCommand, null, null))), false)) {
+            zos.putStream(folder + "/" + SCHEMA + ".sql", in, System.currentTimeMillis());
+        }
+        progress.advanceUnknown(1, 0);
+    }
+
+    /**
+     * split the rows of several tables that were dumped by mysqldump into one file per table. The statements in front of the first table set
+     * the options of the session, they are copied into each file, so that each file can be restored on its own.
+     *
+     * @param in output of mysqldump without the structure of the tables
+     * @param spool folder for the files of the tables
+     * @param consumer gets each table and its file as soon as the file is complete
+     * @return the number of tables
+     * @throws IOException if the dump cannot be read or contains the structure of the tables
+     */
+    static int splitTables(InputStream in, Path spool, IOBiConsumer<String, Path> consumer) throws IOException {
+        // the dump is copied byte by byte, binary values are not valid in any character set
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1));
+        StringBuilder header = new StringBuilder();
+        String table = null;
+        Path file = null;
+        Writer out = null;
+        int count = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(STRUCTURE_COMMENT)) {
+                    throw new IOException("The dump of all tables must not contain the structure of the tables, use the option no-create-info.");
+                }
+                Matcher matcher = DATA_COMMENT.matcher(line);
+                if (matcher.matches()) {
+                    if (out != null) {
+                        out.close();
+                        consumer.accept(table, file);
+                        count++;
+                    }
+                    table = matcher.group(1);
+                    if (!TABLE_NAME.matcher(table).matches() || SCHEMA.equals(table)) {
+                        throw new IOException("Unsupported table name " + table);
+                    }
+                    file = spool.resolve(table + ".sql");
+                    out = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1);
+                    out.write(header.toString());
+                }
+                if (out == null) {
+                    header.append(line).append('\n');
+                } else {
+                    out.write(line);
+                    out.write('\n');
+                }
+            }
+            if (out == null) {
+                throw new IOException("The dump of all tables does not contain any table, the comments of mysqldump must not be skipped.");
+            }
+            out.close();
+            consumer.accept(table, file);
+            return count + 1;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * restore the schema and afterwards all tables concurrently
+     *
+     * @param folder folder that contains the extracted schema and table dumps
+     * @param messageLog log for messages and counters
+     * @param progress progress of the import, the size of all dumps is added to its total
+     * @throws IOException if the schema or a table could not be restored
+     * @throws InterruptedException
+     */
+    public void restore(Path folder, MessageLog messageLog, ProgressTracker progress) throws IOException, InterruptedException {
+        if (restoreCommand.isEmpty()) {
+            throw new IOException("The database mode 'tables' requires the restore command.");
+        }
+        PhaseStatistics phase = messageLog.getPhase("database");
+        Path schema = folder.resolve(SCHEMA + ".sql");
+        List<Path> files = new ArrayList<>();
+        long bytes = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*.sql")) {
+            for (Path file : stream) {
+                bytes += Files.size(file);
+                if (!file.equals(schema)) {
+                    files.add(file);
+                }
+            }
+        }
+        progress.addTotal(files.size() + 1L, bytes);
+
+        restoreFile(SCHEMA, schema);
+        phase.fileAdded(Files.size(schema));
+        progress.advance(1, Files.size(schema));
+        // start with the largest tables, so that they do not delay the end of the restore
+        files.sort((a, b) -> Long.compare(b.toFile().length(), a.toFile().length()));
+        messageLog.add(new Message("Restoring " + files.size() + " tables with " + threads + " threads.", MessageStatus.OK));
+
+        ExecutorService pool = createPool();
+        List<String> errors = new ArrayList<>();
+        try {
+            List<Future<?>> restores = new ArrayList<>();
+            for (Path file : files) {
+                String table = file.getFileName().toString().replaceAll("\\.sql$", "");
+                restores.add(pool.submit(() -> {
+                    restoreFile(table, file);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    get(restores.get(i));
+                    phase.fileAdded(Files.size(files.get(i)));
+                    progress.advance(1, Files.size(files.get(i)));
+                } catch (IOException e) {
+                    log.error("Error while restoring " + files.get(i), e);
+                    phase.fileFailed();
+                    errors.add(e.getMessage());
+                    messageLog.add(new Message(e.getMessage(), MessageStatus.ERROR));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!errors.isEmpty()) {
+            throw new IOException(errors.size() + " tables could not be restored.");
+        }
+        messageLog.add(new Message("Restored " + files.size() + " tables successfully.", MessageStatus.OK));
+    }
+
+    private List<String> listTables() throws IOException, InterruptedException {
+        ExternalCommand command = ExternalCommand.start("Table list", ExternalCommand.parse(listCommand, null, null), false, true);
+        List<String> tables = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(command.getOutput(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String table = line.trim();
+                if (table.isEmpty()) {
+                    continue;
+                }
+                if (!TABLE_NAME.matcher(table).matches() || SCHEMA.equals(table)) {
+                    throw new IOException("Unsupported table name " + table);
+                }
+                tables.add(table);
+            }
+        }
+        command.waitForSuccess();
+        return tables;
+    }
+
+    private Path dumpTable(String table, Path spool, ProgressTracker progress) throws IOException, InterruptedException {
+        Path file = spool.resolve(table + ".sql");
+        // the bytes are counted while they are dumped, adding the spool file to the archive is fast compared to the dump
+        try (InputStream in = progress.count(new CommandStream("Dump of table " + table, List.of(ExternalCommand.parse(tableCommand, "TABLE", table))),
+                false);
+                OutputStream out = Files.newOutputStream(file)) {
+            in.transferTo(out);
+        }
+        return file;
+    }
+
+    private void restoreFile(String table, Path file) throws IOException, InterruptedException {
+        ExternalCommand command = ExternalCommand.start("Restore of " + table, ExternalCommand.parse(restoreCommand, "TABLE", table), true, false);
+        try (OutputStream out = command.getInput()) {
+            Files.copy(file, out);
+        } catch (IOException e) {
+            // the command stopped reading, its error output explains why
+            log.error("Error while writing " + file + " into the restore command", e);
+        }
+        command.waitForSuccess();
+    }
+
+    private ExecutorService createPool() {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "exchange-database-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * internal method to wait for a dump or restore and to unwrap its exception
+     */
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes the export as tar archive into a compressing stream, e.g. zstd or lz4. The whole archive is compressed as one stream, so that
+ * similar files like the METS files of all processes share one dictionary.
+ *
+ * Tar needs the size of each entry in its header. Files of the scanned trees are written with the size the scanner has seen, streams of
+ * unknown size like the database dump are buffered in memory or in a spool file first.
+ */
+@Log4j2
+public class TarWriter implements ArchiveWriter {
+
+    // streams of unknown size up to this size are buffered in memory
+    private static final int MEMORY_LIMIT = 8 * 1024 * 1024;
+
+    private final OutputStream out;
+    private final TarArchiveOutputStream tar;
+    private final Path spoolFolder;
+    private final byte[] buffer = new byte[256 * 1024];
+    private boolean finished = false;
+
+    /**
+     * @param out the underlying stream, it is flushed when the archive is finished
+     * @param compressed the compressing stream that writes into the underlying stream, it gets closed when the archive is finished
+     * @param spoolFolder folder for the spool files of large streams of unknown size
+     */
+    public TarWriter(OutputStream out, OutputStream compressed, Path spoolFolder) {
+        this.out = out;
+        this.spoolFolder = spoolFolder;
+        tar = new TarArchiveOutputStream(compressed, StandardCharsets.UTF_8.name());
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tar.setAddPaxHeadersForNonAsciiNames(true);
+    }
+
+    @Override
+    public void putFile(String name, Path file) throws IOException {
+        long time = Files.getLastModifiedTime(file).toMillis();
+        try (InputStream in = Files.newInputStream(file)) {
+            putStream(name, in, time, Files.size(file));
+        }
+    }
+
+    @Override
+    public void putStream(String name, InputStream in, long time) throws IOException {
+        byte[] head = in.readNBytes(MEMORY_LIMIT);
+        if (head.length < MEMORY_LIMIT) {
+            putStream(name, new ByteArrayInputStream(head), time, head.length);
+            return;
+        }
+        Files.createDirectories(spoolFolder);
+        Path spool = Files.createTempFile(spoolFolder, "exchange-", ".spool");
+        try {
+            try (OutputStream spoolOut = Files.newOutputStream(spool)) {
+                spoolOut.write(head);
+                in.transferTo(spoolOut);
+            }
+            try (InputStream spooled = Files.newInputStream(spool)) {
+                putStream(name, spooled, time, Files.size(spool));
+            }
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    /**
+     * add the content of a stream with a known size as new entry. If the stream is shorter, e.g. because the file was changed while it was
+     * read, the entry is filled with zeros, additional content is ignored.
+     */
+    @Override
+    public void putStream(String name, InputStream in, long time, long size) throws IOException {
+        ensureOpen();
+        TarArchiveEntry entry = new TarArchiveEntry(name.startsWith("/") ? name.substring(1) : name);
+        entry.setSize(size);
+        entry.setModTime(time);
+        tar.putArchiveEntry(entry);
+        long remaining = size;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            tar.write(buffer, 0, read);
+            remaining -= read;
+        }
+        if (remaining > 0) {
+            log.warn("{} got shorter while it was added to the archive, the entry is filled with zeros", name);
+            byte[] zeros = new byte[(int) Math.min(buffer.length, remaining)];
+            while (remaining > 0) {
+                int length = (int) Math.min(zeros.length, remaining);
+                tar.write(zeros, 0, length);
+                remaining -= length;
+            }
+        } else if (in.read() >= 0) {
+            log.warn("{} got larger while it was added to the archive, the entry is truncated", name);
+        }
+        tar.closeArchiveEntry();
+    }
+
+    /**
+     * write the end of the archive and of the compressed stream, the underlying stream is flushed, but not closed
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        tar.finish();
+        tar.close();
+        out.flush();
+    }
+
+    /**
+     * close the underlying stream. The end of an archive that was not finished is not written, the compressing stream is only closed to
+     * release its resources after the underlying stream was closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            out.close();
+            return;
+        }
+        finished = true;
+        try {
+            out.close();
+        } finally {
+            try {
+                tar.close();
+            } catch (IOException e) {
+                log.debug("Error while closing the incomplete archive: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public int getPendingBlocks() {
+        return 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("The archive is finished already.");
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that waits for the {@link IoThrottle} after each read call and reports the latency of the call for the adaptive mode.
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final IoThrottle throttle;
+
+    ThrottledInputStream(InputStream in, IoThrottle throttle) {
+        super(in);
+        this.throttle = throttle;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int result = super.read();
+        if (result >= 0) {
+            throttle.afterRead(1, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int result = super.read(b, off, len);
+        if (result > 0) {
+            throttle.afterRead(result, System.nanoTime() - start);
+        }
+        return result;
+    }
+}
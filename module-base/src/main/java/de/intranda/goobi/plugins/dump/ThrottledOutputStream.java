@@ -0,0 +1,32 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that waits for the {@link IoThrottle} after each write call and reports the latency of the call for the adaptive mode.
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+    private final IoThrottle throttle;
+
+    ThrottledOutputStream(OutputStream out, IoThrottle throttle) {
+        super(out);
+        this.throttle = throttle;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        out.write(b);
+        throttle.afterWrite(1, System.nanoTime() - start);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        out.write(b, off, len);
+        throttle.afterWrite(len, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,169 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Folder for content that is not needed anymore, e.g. the old metadata folder after an import. Folders are renamed into the trash folder,
+ * which takes only milliseconds if both are on the same file system, and get deleted in the background by a pool of worker threads that
+ * delete the subfolders in parallel.
+ *
+ * The pool is shared by all imports. Content that is left in the trash folder after a restart of the application gets deleted as soon as the
+ * trash folder is used again.
+ */
+@Log4j2
+public class TrashFolder {
+
+    private static ForkJoinPool pool;
+    private static final Set<Path> SCHEDULED = ConcurrentHashMap.newKeySet();
+
+    @Getter
+    private final Path folder;
+    private final int threads;
+
+    /**
+     * @param folder the trash folder, it should be on the same file system as the folders that get disposed
+     * @param threads number of threads that delete the content, it is used when the shared pool is created
+     */
+    public TrashFolder(Path folder, int threads) {
+        this.folder = folder;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * remove a file or folder. It is renamed into the trash folder and deleted in the background. If it cannot be renamed, e.g. because the
+     * trash folder is on a different file system, it gets deleted directly.
+     *
+     * @param path the file or folder to remove
+     * @return true if the content gets deleted in the background, false if it was deleted directly
+     * @throws IOException if the content could not be deleted
+     */
+    public boolean dispose(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return true;
+        }
+        Path trash = folder.resolve(path.getFileName() + "-" + UUID.randomUUID());
+        try {
+            Files.createDirectories(folder);
+            Files.move(path, trash, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Cannot move {} into the trash folder {}, it gets deleted directly: {}", path, folder, e.toString());
+            getPool().invoke(new DeleteTask(path));
+            if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                throw new IOException("Cannot delete " + path);
+            }
+            return false;
+        }
+        schedule(trash);
+        purge();
+        return true;
+    }
+
+    /**
+     * delete all content of the trash folder in the background, e.g. content that was left by a previous run of the application
+     */
+    public void purge() {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                schedule(path);
+            }
+        } catch (IOException e) {
+            log.error("Cannot read the trash folder " + folder, e);
+        }
+    }
+
+    /**
+     * get the number of folders which are currently deleted in the background
+     */
+    public static int getPending() {
+        return SCHEDULED.size();
+    }
+
+    private void schedule(Path path) {
+        if (!SCHEDULED.add(path)) {
+            return;
+        }
+        getPool().execute(() -> {
+            try {
+                new DeleteTask(path).invoke();
+                log.debug("Deleted {} from the trash folder", path);
+            } finally {
+                SCHEDULED.remove(path);
+            }
+        });
+    }
+
+    private ForkJoinPool getPool() {
+        synchronized (TrashFolder.class) {
+            if (pool == null) {
+                pool = new ForkJoinPool(threads, p -> {
+                    ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                    t.setName("exchange-trash-" + t.getPoolIndex());
+                    t.setDaemon(true);
+                    return t;
+                }, null, false);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * deletes a folder, the subfolders are deleted in parallel
+     */
+    private static final class DeleteTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 4183396367410225671L;
+
+        private final transient Path path;
+
+        DeleteTask(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                List<DeleteTask> subtasks = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                    for (Path child : stream) {
+                        if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                            subtasks.add(new DeleteTask(child));
+                        } else {
+                            delete(child);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.error("Cannot read " + path + " while deleting it", e);
+                }
+                invokeAll(subtasks);
+            }
+            delete(path);
+        }
+
+        private static void delete(Path path) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.error("Cannot delete " + path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Setter;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Walks one or more directory trees in parallel and delivers all files as a stream of entries. Each directory is listed once using a
+ * {@link DirectoryStream} and the attributes of each entry are read once, the same entries feed the totals for the progress and the archive
+ * writer.
+ *
+ * The directories are walked by a fork/join pool while the consumer takes the files from a bounded queue. The totals grow while the scanner
+ * runs ahead of the consumer. Directories which cannot be read are reported as errors, the scan continues with the remaining directories.
+ */
+@Log4j2
+public class TreeScanner implements Closeable {
+
+    /**
+     * decides which parts of the tree are skipped, it gets called from several threads
+     */
+    public interface Filter {
+        boolean isDirectoryExcluded(String name);
+
+        boolean isFileExcluded(String name);
+    }
+
+    /**
+     * a single file of the scanned trees
+     */
+    @Value
+    public static class Entry {
+        Path path;
+        // path inside of the archive
+        String name;
+        long size;
+        long lastModified;
+    }
+
+    private static final int QUEUE_SIZE = 10000;
+    private static final Entry END = new Entry(null, null, 0, 0);
+
+    private final int threads;
+    private final Filter filter;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder directories = new LongAdder();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private ForkJoinPool pool;
+    // the files are added to the total of this progress as soon as they are found
+    @Setter
+    private ProgressTracker progress;
+    private volatile boolean cancelled = false;
+    private boolean done = false;
+    private long startTime;
+    private volatile long duration = -1;
+
+    /**
+     * @param threads number of threads that walk the directories
+     * @param filter filter for the entries, can be null
+     */
+    public TreeScanner(int threads, Filter filter) {
+        this.threads = Math.max(1, threads);
+        this.filter = filter;
+    }
+
+    /**
+     * start to walk the given directories. The content of each directory gets the given name as prefix, the directories themselves are not
+     * checked by the filter
+     *
+     * @param roots names and paths of the directories to walk
+     */
+    public void start(Map<String, Path> roots) {
+        pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("exchange-scan-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+        startTime = System.nanoTime();
+        List<DirectoryTask> tasks = new ArrayList<>();
+        for (Map.Entry<String, Path> root : roots.entrySet()) {
+            tasks.add(new DirectoryTask(root.getValue(), root.getKey()));
+        }
+        pool.execute(() -> {
+            try {
+                ForkJoinTask.invokeAll(tasks);
+            } catch (RuntimeException e) {
+                log.error("Error while scanning the directories", e);
+                errors.add("Error while scanning the directories: " + e.getMessage());
+            } finally {
+                duration = System.nanoTime() - startTime;
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /**
+     * get the next file
+     *
+     * @return the next file or null if all directories are scanned
+     * @throws InterruptedException
+     */
+    public Entry next() throws InterruptedException {
+        if (done) {
+            return null;
+        }
+        Entry entry = queue.take();
+        if (entry == END) {
+            done = true;
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * get the number of files found so far
+     */
+    public long getFiles() {
+        return files.sum();
+    }
+
+    /**
+     * get the size of the files found so far
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * get the number of directories found so far, the root directories are not counted
+     */
+    public long getDirectories() {
+        return directories.sum();
+    }
+
+    /**
+     * get the number of files which are waiting in the queue
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * get the time the scan took, the scan ends before the last files are taken from the queue
+     *
+     * @return duration in nanoseconds or -1 if the scan is still running
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * get the paths which could not be read
+     */
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    @Override
+    public void close() {
+        cancelled = true;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        // release scanner threads which wait for free space in the queue
+        queue.clear();
+    }
+
+    private void addError(Path path, IOException e) {
+        log.warn("Cannot read {}: {}", path, e.toString());
+        errors.add(path + " (" + e.getClass().getSimpleName() + ")");
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = -6311683120512316375L;
+
+        private final transient Path directory;
+        private final String name;
+
+        DirectoryTask(Path directory, String name) {
+            this.directory = directory;
+            this.name = name;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    if (cancelled) {
+                        return;
+                    }
+                    String childName = name + "/" + child.getFileName();
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        addError(child, e);
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (filter == null || !filter.isDirectoryExcluded(childName)) {
+                            directories.increment();
+                            subtasks.add(new DirectoryTask(child, childName));
+                        }
+                    } else if (filter == null || !filter.isFileExcluded(childName)) {
+                        files.increment();
+                        bytes.add(attributes.size());
+                        if (progress != null) {
+                            progress.addTotal(1, attributes.size());
+                        }
+                        queue.put(new Entry(child, childName, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                }
+            } catch (IOException e) {
+                addError(directory, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
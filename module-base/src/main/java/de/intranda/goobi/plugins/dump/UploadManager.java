@@ -0,0 +1,237 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.FacesContextHelper;
+import jakarta.faces.context.FacesContext;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Application wide registry of the chunked uploads. The upload servlet of the user interface creates the uploads and writes their chunks, the
+ * importer reads the uploaded file while the chunks arrive. Uploads that were interrupted are kept on the disk, so that the browser can
+ * resume them later, uploads without activity are removed after the configured time.
+ *
+ * The servlet is loaded by a different class loader than the plugin, therefore it calls a function that is registered in the session
+ * attribute {@value #SESSION_ATTRIBUTE}. It gets the parameters of the request and the body of the request and returns the response, both
+ * only contain classes of the JDK.
+ *
+ * Each upload belongs to the login of the user who created it. The handler of a session is bound to the login of the session, requests for
+ * uploads of other users are answered as if the upload did not exist.
+ */
+@Log4j2
+public class UploadManager {
+
+    // name of the session attribute that holds the handler, must be identical with the constant in the servlet
+    public static final String SESSION_ATTRIBUTE = "intranda_administration_exchange_upload";
+
+    private static UploadManager instance;
+
+    private final Path folder;
+    private final int chunkSize;
+    // time in milliseconds after which a reader stops waiting for the next chunk
+    private final long stallTimeout;
+    // time in milliseconds after which uploads without activity are deleted
+    private final long maxAge;
+    private final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+
+    UploadManager(Path folder, int chunkSize, long stallTimeout, long maxAge) {
+        this.folder = folder;
+        this.chunkSize = chunkSize;
+        this.stallTimeout = stallTimeout;
+        this.maxAge = maxAge;
+        loadUploads();
+    }
+
+    /**
+     * get the upload manager, it is created with the given configuration when it is requested for the first time
+     *
+     * @param config
+     * @return the upload manager of the application
+     */
+    public static synchronized UploadManager getInstance(XMLConfiguration config) {
+        if (instance == null) {
+            instance = new UploadManager(
+                    Paths.get(config.getString("upload[@folder]", ConfigurationHelper.getInstance().getTemporaryFolder() + "exchange/uploads")),
+                    Math.max(1, config.getInt("upload[@chunkSize]", 8)) * 1024 * 1024, config.getLong("upload[@timeout]", 30) * 60 * 1000,
+                    config.getLong("upload[@maxAge]", 48) * 60 * 60 * 1000);
+        }
+        return instance;
+    }
+
+    /**
+     * register the handler for the upload servlet in the current session, it is only registered if the session has access to the plugin
+     */
+    public void register() {
+        FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
+        if (facesContext == null) {
+            return;
+        }
+        String owner = AccessGuard.getLogin();
+        if (owner == null) {
+            facesContext.getExternalContext().getSessionMap().remove(SESSION_ATTRIBUTE);
+            return;
+        }
+        BiFunction<Map<String, String>, InputStream, Map<String, Object>> handler = (parameters, body) -> handle(owner, parameters, body);
+        facesContext.getExternalContext().getSessionMap().put(SESSION_ATTRIBUTE, handler);
+    }
+
+    /**
+     * create a new upload or return the unfinished upload of the same file and user
+     *
+     * @param owner login of the user
+     * @param name file name on the client
+     * @param key identifies the file on the client, e.g. name, size and modification date
+     * @param size size of the file in bytes
+     * @return the upload
+     * @throws IOException if the file cannot be allocated
+     */
+    public ChunkedUpload create(String owner, String name, String key, long size) throws IOException {
+        removeExpired();
+        synchronized (this) {
+            for (ChunkedUpload upload : uploads.values()) {
+                if (!key.isEmpty() && key.equals(upload.getKey()) && upload.getSize() == size && upload.isOwnedBy(owner)) {
+                    log.debug("Resuming upload {} of {}, {} chunks are missing", upload.getId(), name, upload.getMissing().size());
+                    return upload;
+                }
+            }
+            ChunkedUpload upload = ChunkedUpload.create(folder, UUID.randomUUID().toString(), owner, name, key, size, chunkSize);
+            uploads.put(upload.getId(), upload);
+            return upload;
+        }
+    }
+
+    /**
+     * get an upload of a user by its id
+     *
+     * @param owner login of the user
+     * @param id
+     * @return the upload or null if it does not exist or belongs to another user
+     */
+    public ChunkedUpload get(String owner, String id) {
+        ChunkedUpload upload = id == null ? null : uploads.get(id);
+        return upload != null && upload.isOwnedBy(owner) ? upload : null;
+    }
+
+    /**
+     * abort an upload and delete its files
+     */
+    public void delete(ChunkedUpload upload) {
+        uploads.remove(upload.getId());
+        upload.delete();
+    }
+
+    public long getStallTimeout() {
+        return stallTimeout;
+    }
+
+    /**
+     * handle a request of the upload servlet
+     *
+     * @param owner login of the session that sent the request
+     * @param parameters the action and the parameters of the request
+     * @param body the body of the request, it contains the content of a chunk
+     * @return the response with the http status in the field status
+     */
+    Map<String, Object> handle(String owner, Map<String, String> parameters, InputStream body) {
+        String action = parameters.getOrDefault("action", "");
+        try {
+            if ("create".equals(action)) {
+                long size = Long.parseLong(parameters.getOrDefault("size", ""));
+                return describe(create(owner, parameters.getOrDefault("name", ""), parameters.getOrDefault("key", ""), size));
+            }
+            ChunkedUpload upload = get(owner, parameters.get("id"));
+            if (upload == null) {
+                return error(404, "The upload does not exist.");
+            }
+            switch (action) {
+                case "status":
+                    return describe(upload);
+                case "chunk":
+                    upload.writeChunk(Integer.parseInt(parameters.getOrDefault("index", "")), body, parameters.get("checksum"));
+                    Map<String, Object> response = new LinkedHashMap<>();
+                    response.put("status", 200);
+                    response.put("received", upload.getReceivedChunks());
+                    response.put("complete", upload.isComplete());
+                    return response;
+                case "delete":
+                    delete(upload);
+                    return error(200, "");
+                default:
+                    return error(400, "Unknown action " + action);
+            }
+        } catch (NumberFormatException e) {
+            return error(400, "Invalid parameter: " + e.getMessage());
+        } catch (IOException e) {
+            log.debug("Upload request failed: {}", e.getMessage());
+            return error(422, e.getMessage());
+        }
+    }
+
+    private Map<String, Object> describe(ChunkedUpload upload) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("status", 200);
+        response.put("id", upload.getId());
+        response.put("chunkSize", upload.getChunkSize());
+        response.put("chunks", upload.getChunks());
+        response.put("missing", upload.getMissing());
+        return response;
+    }
+
+    private static Map<String, Object> error(int status, String message) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("status", status);
+        response.put("error", message);
+        return response;
+    }
+
+    /**
+     * delete uploads without activity within the configured time
+     */
+    private void removeExpired() {
+        long limit = System.currentTimeMillis() - maxAge;
+        for (ChunkedUpload upload : uploads.values()) {
+            if (upload.getLastActivity() < limit) {
+                log.info("Deleting the abandoned upload {} of {}", upload.getId(), upload.getName());
+                delete(upload);
+            }
+        }
+    }
+
+    /**
+     * load the uploads that were not finished before the last restart
+     */
+    private void loadUploads() {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                if (!ChunkedUpload.isStateFile(path)) {
+                    continue;
+                }
+                try {
+                    ChunkedUpload upload = ChunkedUpload.load(path);
+                    uploads.put(upload.getId(), upload);
+                } catch (IOException e) {
+                    log.warn("Ignoring the upload {}: {}", path, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.error("Cannot read the uploads in " + folder, e);
+        }
+        removeExpired();
+    }
+}
@@ -0,0 +1,134 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * Index of a dump that was split into several volumes. Each volume is a complete archive that can be read on its own, the index lists the
+ * volumes in the order they were written together with their size and sha-256 checksum, so that each volume can be verified independently.
+ *
+ * The index is a tab separated text file with one line per volume: file name, size and checksum. The file names are relative to the folder
+ * of the index.
+ */
+public class VolumeIndex {
+
+    public static final String INDEX_SUFFIX = ".index";
+
+    /**
+     * a single volume of the dump
+     */
+    @Value
+    public static class Volume {
+        String name;
+        long size;
+        // sha-256 checksum of the volume as hex string
+        String checksum;
+    }
+
+    private final List<Volume> volumes = new ArrayList<>();
+
+    /**
+     * check if the file is the index of a multi-volume dump
+     */
+    public static boolean isIndex(Path file) {
+        return file.getFileName().toString().endsWith(INDEX_SUFFIX);
+    }
+
+    /**
+     * read an index from a file
+     *
+     * @param file
+     * @return the index
+     * @throws IOException if the file cannot be read or contains invalid lines
+     */
+    public static VolumeIndex read(Path file) throws IOException {
+        VolumeIndex index = new VolumeIndex();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length != 3 || fields[0].contains("/") || fields[0].contains("\\")) {
+                    throw new IOException("Invalid line in the volume index " + file + ": " + line);
+                }
+                try {
+                    index.add(new Volume(fields[0], Long.parseLong(fields[1]), fields[2]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid size in the volume index " + file + ": " + line, e);
+                }
+            }
+        }
+        if (index.volumes.isEmpty()) {
+            throw new IOException("The volume index " + file + " does not contain any volume.");
+        }
+        return index;
+    }
+
+    /**
+     * write the index into a file, the file is replaced atomically
+     *
+     * @param file
+     * @param name name of the dump, it is written as comment
+     * @throws IOException
+     */
+    public void write(Path file, String name) throws IOException {
+        Path part = file.resolveSibling(file.getFileName() + ".part");
+        try (BufferedWriter writer = Files.newBufferedWriter(part, StandardCharsets.UTF_8)) {
+            writer.write("# " + name + ", " + volumes.size() + " volumes: file name, size and sha-256 checksum\n");
+            for (Volume volume : volumes) {
+                writer.write(volume.getName() + "\t" + volume.getSize() + "\t" + volume.getChecksum() + "\n");
+            }
+        }
+        Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void add(Volume volume) {
+        volumes.add(volume);
+    }
+
+    public List<Volume> getVolumes() {
+        return Collections.unmodifiableList(volumes);
+    }
+
+    /**
+     * get the size of all volumes in bytes
+     */
+    public long getTotalSize() {
+        long total = 0;
+        for (Volume volume : volumes) {
+            total += volume.getSize();
+        }
+        return total;
+    }
+
+    /**
+     * create the digest that is used for the checksums of the volumes
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java runtime supports sha-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        return HexFormat.of().formatHex(digest);
+    }
+}
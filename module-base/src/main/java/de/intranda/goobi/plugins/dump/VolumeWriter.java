@@ -0,0 +1,195 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.function.IOFunction;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes the export into several volumes of a configurable size. Each volume is a complete archive of the configured format, so that it can
+ * be stored, moved and extracted on its own. A new volume is started before an entry would exceed the size of the current volume. The
+ * compressed size is only known late, because the formats compress in the background or in large blocks, therefore the size of the content
+ * plus the headers of the entries is counted. This keeps the volumes below the size, compressed volumes are smaller. An entry is never
+ * split, a single entry that is larger than the size, e.g. a large database dump, gets a volume of its own.
+ *
+ * The volumes are written as part files and renamed when the export is finished. The index with the size and checksum of each volume is
+ * written last, so that it only exists when all volumes are complete.
+ */
+@Log4j2
+public class VolumeWriter implements ArchiveWriter {
+
+    // upper limit of the headers, padding and directory record of an entry in all formats
+    private static final long ENTRY_OVERHEAD = 2048;
+
+    private final Path folder;
+    private final String baseName;
+    private final long volumeSize;
+    private final IOFunction<OutputStream, ArchiveWriter> factory;
+    private final VolumeIndex index = new VolumeIndex();
+    private final List<Path> parts = new ArrayList<>();
+
+    private ArchiveWriter current;
+    private CountingOutputStream counter;
+    private MessageDigest digest;
+    // content and headers of the entries in the current volume
+    private long volumeBytes;
+    private int entries;
+    private boolean finished = false;
+
+    /**
+     * @param folder target folder of the volumes and of the index
+     * @param baseName name of the dump, the volumes are named baseName.001.goobi, baseName.002.goobi and so on
+     * @param volumeSize size of the volumes in bytes
+     * @param factory creates the archive of a volume for the stream of the volume
+     */
+    public VolumeWriter(Path folder, String baseName, long volumeSize, IOFunction<OutputStream, ArchiveWriter> factory) {
+        this.folder = folder;
+        this.baseName = baseName;
+        this.volumeSize = volumeSize;
+        this.factory = factory;
+    }
+
+    @Override
+    public void putFile(String name, Path file) throws IOException {
+        prepareVolume(name, Files.size(file));
+        current.putFile(name, file);
+    }
+
+    /**
+     * add a stream of unknown size, the size is counted while it is written into the current volume
+     */
+    @Override
+    public void putStream(String name, InputStream in, long time) throws IOException {
+        prepareVolume(name, 0);
+        CountingInputStream counting = new CountingInputStream(in);
+        current.putStream(name, counting, time);
+        volumeBytes += counting.getCount();
+    }
+
+    @Override
+    public void putStream(String name, InputStream in, long time, long size) throws IOException {
+        prepareVolume(name, size);
+        current.putStream(name, in, time, size);
+    }
+
+    /**
+     * finish the last volume, rename the part files of all volumes and write the index
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (current == null && parts.isEmpty()) {
+            // an empty dump still gets one volume
+            openVolume();
+        }
+        closeVolume();
+        finished = true;
+        for (int i = 0; i < parts.size(); i++) {
+            Files.move(parts.get(i), folder.resolve(index.getVolumes().get(i).getName()), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        index.write(getIndexFile(), baseName);
+        log.debug("Dump {} was written into {} volumes", baseName, parts.size());
+    }
+
+    /**
+     * delete the part files of an unfinished export, a finished export is kept
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.debug("Error while closing the incomplete volume: {}", e.getMessage());
+            }
+            current = null;
+        }
+        for (Path part : parts) {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    @Override
+    public int getPendingBlocks() {
+        return current == null ? 0 : current.getPendingBlocks();
+    }
+
+    /**
+     * get the index file of the dump, it exists after the export was finished
+     */
+    public Path getIndexFile() {
+        return folder.resolve(baseName + VolumeIndex.INDEX_SUFFIX);
+    }
+
+    /**
+     * get the volumes that are complete
+     */
+    public List<VolumeIndex.Volume> getVolumes() {
+        return index.getVolumes();
+    }
+
+    /**
+     * start a new volume if the next entry does not fit into the current one
+     *
+     * @param name name of the next entry
+     * @param size expected size of the next entry or 0 if it is unknown
+     */
+    private void prepareVolume(String name, long size) throws IOException {
+        if (finished) {
+            throw new IOException("The archive is finished already.");
+        }
+        long entryBytes = size + ENTRY_OVERHEAD + 2L * name.length();
+        // incompressible content can get slightly larger, therefore the bytes written so far are checked as well
+        if (current != null && entries > 0 && Math.max(volumeBytes, counter.getByteCount()) + entryBytes > volumeSize) {
+            closeVolume();
+        }
+        if (current == null) {
+            openVolume();
+        }
+        volumeBytes += entryBytes;
+        entries++;
+    }
+
+    private void openVolume() throws IOException {
+        Path part = folder.resolve(getVolumeName(parts.size() + 1) + ".part");
+        parts.add(part);
+        digest = VolumeIndex.newDigest();
+        counter = new CountingOutputStream(new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(part), 1024 * 1024), digest));
+        current = factory.apply(counter);
+        volumeBytes = 0;
+        entries = 0;
+    }
+
+    private void closeVolume() throws IOException {
+        if (current == null) {
+            return;
+        }
+        current.finish();
+        current.close();
+        current = null;
+        index.add(new VolumeIndex.Volume(getVolumeName(parts.size()), counter.getByteCount(), VolumeIndex.toHex(digest.digest())));
+    }
+
+    private String getVolumeName(int number) {
+        return String.format("%s.%03d.goobi", baseName, number);
+    }
+}
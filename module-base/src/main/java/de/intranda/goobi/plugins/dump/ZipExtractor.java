@@ -0,0 +1,341 @@
+package de.intranda.goobi.plugins.dump;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Extracts a zip file from the local disk in parallel. The central directory is read once, all folders are created in advance and the
+ * entries get inflated on a pool of worker threads. Each worker opens its own channel on the zip file and reads the entries with positional
+ * reads at the offsets from the central directory, so the workers neither share a file position nor a lock. Stored and deflated entries are
+ * supported, the checksum of each entry is verified.
+ *
+ * The extraction can be cancelled using {@link #setCancelled(BooleanSupplier)}, the workers check it before each entry.
+ */
+@Log4j2
+public class ZipExtractor {
+
+    /**
+     * gets informed about each extracted file, it is called from the worker threads
+     */
+    public interface Listener {
+        void fileExtracted(String name, long bytes);
+    }
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path zipFile;
+    private final Path targetFolder;
+    private final int threads;
+
+    @Getter
+    private int totalFiles = 0;
+    @Getter
+    private long totalBytes = 0;
+    @Getter
+    private int totalFolders = 0;
+    private List<ZipArchiveEntry> files;
+    // entries for which the filter returns false are not extracted
+    @Setter
+    private Predicate<String> filter;
+    // limits the bandwidth of the extraction, can be null
+    @Setter
+    private IoThrottle throttle;
+    // returns true if the extraction shall stop, can be null
+    @Setter
+    private BooleanSupplier cancelled;
+    @Getter
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    public ZipExtractor(Path zipFile, Path targetFolder, int threads) {
+        this.zipFile = zipFile;
+        this.targetFolder = targetFolder.toAbsolutePath().normalize();
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * read the central directory of the zip file and create the folder structure. This is done by {@link #extract(Listener)} if it was not
+     * called before, calling it separately allows to get the number of files and bytes before the extraction starts.
+     *
+     * @throws IOException
+     */
+    public void prepare() throws IOException {
+        files = new ArrayList<>();
+        TreeSet<Path> folders = new TreeSet<>();
+        try (ZipFile zip = ZipFile.builder().setPath(zipFile).get()) {
+            Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                Path path = resolve(entry.getName());
+                if (path.toFile().isHidden() || filter != null && !filter.test(entry.getName())) {
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    folders.add(path);
+                } else {
+                    folders.add(path.getParent());
+                    files.add(entry);
+                    totalBytes += Math.max(0, entry.getSize());
+                }
+            }
+        }
+        totalFiles = files.size();
+        totalFolders = folders.size();
+
+        // create the folder structure first, so that the workers do not need to check it for each file
+        for (Path folder : folders) {
+            Files.createDirectories(folder);
+        }
+
+        // start with the largest files, so that the workers finish at about the same time
+        files.sort(Comparator.comparingLong(ZipArchiveEntry::getSize).reversed());
+    }
+
+    /**
+     * extract all entries of the zip file into the target folder. Errors of single entries do not stop the extraction, they can be requested
+     * afterwards using {@link #getErrors()}
+     *
+     * @param listener gets informed about each extracted file, can be null
+     * @throws IOException if the zip file cannot be read
+     * @throws InterruptedIOException if the extraction was cancelled
+     * @throws InterruptedException
+     */
+    public void extract(Listener listener) throws IOException, InterruptedException {
+        if (files == null) {
+            prepare();
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "exchange-extract-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        List<Worker> workers = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+        try {
+            for (ZipArchiveEntry entry : files) {
+                if (isCancelled()) {
+                    break;
+                }
+                pool.submit(() -> {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    try {
+                        Worker worker = currentWorker.get();
+                        if (worker == null) {
+                            worker = new Worker(FileChannel.open(zipFile, StandardOpenOption.READ));
+                            workers.add(worker);
+                            currentWorker.set(worker);
+                        }
+                        extractEntry(worker, entry);
+                        if (listener != null) {
+                            listener.fileExtracted(entry.getName(), entry.getSize());
+                        }
+                    } catch (IOException e) {
+                        log.error("Error while extracting " + entry.getName(), e);
+                        errors.add(entry.getName() + ": " + e.getMessage());
+                    }
+                });
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(200, TimeUnit.MILLISECONDS)) {
+                if (isCancelled()) {
+                    // interrupt the workers, the entries that are extracted right now are not completed
+                    pool.shutdownNow();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } finally {
+                for (Worker worker : workers) {
+                    worker.close();
+                }
+            }
+        }
+        if (isCancelled()) {
+            throw new InterruptedIOException("The extraction was cancelled.");
+        }
+    }
+
+    private boolean isCancelled() {
+        return cancelled != null && cancelled.getAsBoolean();
+    }
+
+    private void extractEntry(Worker worker, ZipArchiveEntry entry) throws IOException {
+        Path path = resolve(entry.getName());
+        try (CheckedInputStream in = new CheckedInputStream(worker.open(entry), new CRC32()); OutputStream out = openFile(path)) {
+            long size = in.transferTo(out);
+            if (size != entry.getSize() || in.getChecksum().getValue() != entry.getCrc()) {
+                throw new IOException("The content of " + entry.getName() + " is corrupt, its size or checksum does not match.");
+            }
+        }
+        FileTime time = entry.getLastModifiedTime();
+        if (time != null) {
+            Files.setLastModifiedTime(path, time);
+        }
+    }
+
+    private OutputStream openFile(Path path) throws IOException {
+        OutputStream out = Files.newOutputStream(path);
+        return throttle == null ? out : throttle.output(out);
+    }
+
+    /**
+     * get the path of an entry inside of the target folder, entries that would be written outside of the folder are rejected
+     */
+    private Path resolve(String name) throws IOException {
+        String relative = name;
+        while (relative.startsWith("/")) {
+            relative = relative.substring(1);
+        }
+        Path path = targetFolder.resolve(relative).normalize();
+        if (!path.startsWith(targetFolder)) {
+            throw new IOException("Invalid entry in zip file: " + name);
+        }
+        return path;
+    }
+
+    /**
+     * channel and inflater of a single worker thread
+     */
+    private static final class Worker {
+
+        private final FileChannel channel;
+        private final Inflater inflater = new Inflater(true);
+
+        private Worker(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * open the content of an entry. The local header is read at the offset from the central directory to find the start of the data.
+         */
+        private InputStream open(ZipArchiveEntry entry) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long offset = entry.getLocalHeaderOffset();
+            while (header.hasRemaining()) {
+                if (channel.read(header, offset + header.position()) < 0) {
+                    throw new EOFException("The local header of " + entry.getName() + " is truncated.");
+                }
+            }
+            if (header.getInt(0) != LOCAL_HEADER) {
+                throw new IOException("The local header of " + entry.getName() + " is invalid.");
+            }
+            long start = offset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+            InputStream raw = new ChannelInputStream(channel, start, entry.getCompressedSize());
+            switch (entry.getMethod()) {
+                case ZipEntry.STORED:
+                    return raw;
+                case ZipEntry.DEFLATED:
+                    inflater.reset();
+                    return new InflaterInputStream(raw, inflater, BUFFER_SIZE) {
+                        private boolean eof = false;
+
+                        @Override
+                        protected void fill() throws IOException {
+                            if (eof) {
+                                throw new EOFException("Unexpected end of the compressed data");
+                            }
+                            len = in.read(buf, 0, buf.length);
+                            if (len < 0) {
+                                // the inflater may need one additional byte after the end of the raw deflate data
+                                buf[0] = 0;
+                                len = 1;
+                                eof = true;
+                            }
+                            inf.setInput(buf, 0, len);
+                        }
+                    };
+                default:
+                    throw new IOException("The compression method " + entry.getMethod() + " of " + entry.getName() + " is not supported.");
+            }
+        }
+
+        private void close() {
+            inflater.end();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Error while closing the zip file", e);
+            }
+        }
+    }
+
+    /**
+     * reads a range of the channel with positional reads, the position of the channel is not changed
+     */
+    private static final class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        private ChannelInputStream(FileChannel channel, long start, long length) {
+            this.channel = channel;
+            this.position = start;
+            this.end = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (read < 0) {
+                throw new EOFException("The zip file is truncated.");
+            }
+            position += read;
+            return read;
+        }
+    }
+}
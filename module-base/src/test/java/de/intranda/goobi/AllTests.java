@@ -4,8 +4,25 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import de.intranda.goobi.plugins.dump.ArchiveFormatTest;
+import de.intranda.goobi.plugins.dump.ChunkedUploadTest;
+import de.intranda.goobi.plugins.dump.ExchangeMBeanTest;
+import de.intranda.goobi.plugins.dump.ExportFilterTest;
+import de.intranda.goobi.plugins.dump.ImporterTest;
+import de.intranda.goobi.plugins.dump.IoThrottleTest;
+import de.intranda.goobi.plugins.dump.JobManagerTest;
+import de.intranda.goobi.plugins.dump.ManifestTest;
+import de.intranda.goobi.plugins.dump.ParallelZipWriterTest;
+import de.intranda.goobi.plugins.dump.ProcessMergerTest;
+import de.intranda.goobi.plugins.dump.ProgressTrackerTest;
+import de.intranda.goobi.plugins.dump.SnapshotWriterTest;
+import de.intranda.goobi.plugins.dump.TableDumpTest;
+import de.intranda.goobi.plugins.dump.TreeScannerTest;
+import de.intranda.goobi.plugins.dump.VolumeWriterTest;
+import de.intranda.goobi.plugins.dump.ZipExtractorTest;
+
 @RunWith(Suite.class)
-@SuiteClasses({ })
+@SuiteClasses({ ArchiveFormatTest.class, ChunkedUploadTest.class, ExchangeMBeanTest.class, ExportFilterTest.class, ImporterTest.class, IoThrottleTest.class, JobManagerTest.class, ManifestTest.class, ParallelZipWriterTest.class, ProcessMergerTest.class, ProgressTrackerTest.class, SnapshotWriterTest.class, TableDumpTest.class, TreeScannerTest.class, VolumeWriterTest.class, ZipExtractorTest.class })
 public class AllTests {
 
 }
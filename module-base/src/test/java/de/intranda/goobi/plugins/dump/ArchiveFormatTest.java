@@ -0,0 +1,131 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveFormatTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (ArchiveFormat format : ArchiveFormat.values()) {
+            Map<String, byte[]> content = new LinkedHashMap<>();
+            content.put("metadata/1/meta.xml", "<mets:mets>\n".repeat(10000).getBytes(StandardCharsets.UTF_8));
+            content.put("metadata/1/empty.txt", new byte[0]);
+            // names longer than 100 characters and non ascii names need pax headers in tar archives
+            content.put("metadata/1/ocr/" + "x".repeat(120) + ".txt", "long".getBytes(StandardCharsets.UTF_8));
+            content.put("metadata/1/ocr/\u00dcbersicht.txt", "umlaut".getBytes(StandardCharsets.UTF_8));
+            byte[] image = new byte[200 * 1024];
+            new Random(7).nextBytes(image);
+            content.put("metadata/1/images/00000001.tif", image);
+
+            Path spool = folder.newFolder(format.getName()).toPath();
+            Path archive = folder.newFile().toPath();
+            try (OutputStream out = Files.newOutputStream(archive);
+                    ArchiveWriter writer = format.createWriter(out, 2, ArchiveFormat.DEFAULT_ZSTD_LEVEL, VolumeWriterTest.policy(), spool)) {
+                for (Map.Entry<String, byte[]> entry : content.entrySet()) {
+                    writer.putStream(entry.getKey(), new ByteArrayInputStream(entry.getValue()), 1_600_000_000_000L);
+                }
+                writer.finish();
+            }
+
+            assertEquals(format, ArchiveFormat.detect(archive));
+            Map<String, byte[]> read = new HashMap<>();
+            try (ArchiveReader reader = ArchiveFormat.open(Files.newInputStream(archive))) {
+                ArchiveReader.Entry entry;
+                while ((entry = reader.next()) != null) {
+                    assertFalse(entry.isDirectory());
+                    read.put(entry.getName(), reader.getInputStream().readAllBytes());
+                }
+            }
+            assertEquals(format.getName(), content.keySet(), read.keySet());
+            for (Map.Entry<String, byte[]> entry : content.entrySet()) {
+                assertArrayEquals(format.getName() + " " + entry.getKey(), entry.getValue(), read.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testLargeStreamOfUnknownSizeIsSpooled() throws Exception {
+        byte[] data = "INSERT INTO prozesse VALUES (1);\n".repeat(300000).getBytes(StandardCharsets.UTF_8);
+        Path spool = folder.newFolder("spool").toPath();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ArchiveWriter writer = ArchiveFormat.TAR_LZ4.createWriter(out, 1, 0, null, spool)) {
+            writer.putStream("sql/goobi.sql", new ByteArrayInputStream(data), 0);
+            writer.finish();
+        }
+
+        try (Stream<Path> files = Files.list(spool)) {
+            assertEquals(0, files.count());
+        }
+        try (ArchiveReader reader = ArchiveFormat.open(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals("sql/goobi.sql", reader.next().getName());
+            assertArrayEquals(data, reader.getInputStream().readAllBytes());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testChangedFileKeepsTheSizeOfTheHeader() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ArchiveWriter writer = ArchiveFormat.TAR_ZSTD.createWriter(out, 1, 1, null, folder.getRoot().toPath())) {
+            writer.putStream("shorter.txt", new ByteArrayInputStream(new byte[] { 1, 2 }), 0, 4);
+            writer.putStream("longer.txt", new ByteArrayInputStream(new byte[] { 1, 2, 3 }), 0, 2);
+            writer.finish();
+        }
+
+        try (ArchiveReader reader = ArchiveFormat.open(new ByteArrayInputStream(out.toByteArray()))) {
+            reader.next();
+            assertArrayEquals(new byte[] { 1, 2, 0, 0 }, reader.getInputStream().readAllBytes());
+            reader.next();
+            assertArrayEquals(new byte[] { 1, 2 }, reader.getInputStream().readAllBytes());
+        }
+    }
+
+    @Test
+    public void testFromName() {
+        assertEquals(ArchiveFormat.ZIP, ArchiveFormat.fromName(null));
+        assertEquals(ArchiveFormat.ZIP, ArchiveFormat.fromName(" ZIP "));
+        assertEquals(ArchiveFormat.TAR_ZSTD, ArchiveFormat.fromName("zstd"));
+        assertEquals(ArchiveFormat.TAR_LZ4, ArchiveFormat.fromName("tar.lz4"));
+    }
+
+    @Test
+    public void testFileExtension() {
+        assertEquals(".goobi", ArchiveFormat.ZIP.getFileExtension());
+        assertEquals(".goobi.tar.zst", ArchiveFormat.TAR_ZSTD.getFileExtension());
+        assertEquals(".goobi.tar.lz4", ArchiveFormat.TAR_LZ4.getFileExtension());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() {
+        ArchiveFormat.fromName("rar");
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownContent() throws Exception {
+        ArchiveFormat.detect(new BufferedInputStream(new ByteArrayInputStream("-- MySQL dump".getBytes(StandardCharsets.UTF_8))));
+    }
+}
@@ -0,0 +1,196 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChunkedUploadTest {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChunksInAnyOrder() throws Exception {
+        byte[] data = createData(3500);
+        ChunkedUpload upload = ChunkedUpload.create(folder.getRoot().toPath(), "test", "user", "dump.goobi", "key", data.length, CHUNK_SIZE);
+        assertEquals(4, upload.getChunks());
+        assertEquals(data.length, Files.size(upload.getFile()));
+
+        upload.writeChunk(2, chunk(data, 2), null);
+        upload.writeChunk(3, chunk(data, 3), sha256(data, 3));
+        assertEquals(0, upload.getContiguousBytes());
+        assertEquals(Arrays.asList(0, 1), upload.getMissing());
+        upload.writeChunk(0, chunk(data, 0), null);
+        assertEquals(1000, upload.getContiguousBytes());
+        assertFalse(upload.isComplete());
+        upload.writeChunk(1, chunk(data, 1), null);
+
+        assertTrue(upload.isComplete());
+        assertEquals(data.length, upload.getContiguousBytes());
+        assertEquals(4, upload.getReceivedChunks());
+        assertArrayEquals(data, Files.readAllBytes(upload.getFile()));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        byte[] data = createData(2500);
+        Path root = folder.getRoot().toPath();
+        ChunkedUpload upload = ChunkedUpload.create(root, "test", "user", "dump.goobi", "key", data.length, CHUNK_SIZE);
+        upload.writeChunk(0, chunk(data, 0), null);
+        upload.writeChunk(2, chunk(data, 2), null);
+
+        // a restarted server finds the state file next to the data
+        Path stateFile = root.resolve("test.state");
+        assertTrue(ChunkedUpload.isStateFile(stateFile));
+        ChunkedUpload loaded = ChunkedUpload.load(stateFile);
+        assertEquals("user", loaded.getOwner());
+        assertEquals("dump.goobi", loaded.getName());
+        assertEquals("key", loaded.getKey());
+        assertEquals(Arrays.asList(1), loaded.getMissing());
+        assertEquals(1000, loaded.getContiguousBytes());
+        loaded.writeChunk(1, chunk(data, 1), null);
+        assertTrue(loaded.isComplete());
+        assertArrayEquals(data, Files.readAllBytes(loaded.getFile()));
+
+        loaded.delete();
+        assertFalse(Files.exists(stateFile));
+        assertFalse(Files.exists(loaded.getFile()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingData() throws Exception {
+        Path root = folder.getRoot().toPath();
+        ChunkedUpload upload = ChunkedUpload.create(root, "test", "user", "dump.goobi", "key", 2500, CHUNK_SIZE);
+        Files.delete(upload.getFile());
+        ChunkedUpload.load(root.resolve("test.state"));
+    }
+
+    @Test
+    public void testInvalidChunks() throws Exception {
+        byte[] data = createData(2500);
+        ChunkedUpload upload = ChunkedUpload.create(folder.getRoot().toPath(), "test", "user", "dump.goobi", "key", data.length, CHUNK_SIZE);
+        assertRejected(upload, 0, chunk(data, 0), sha256(data, 1));
+        assertRejected(upload, 0, new ByteArrayInputStream(new byte[999]), null);
+        assertRejected(upload, 2, new ByteArrayInputStream(new byte[CHUNK_SIZE]), null);
+        assertRejected(upload, 3, chunk(data, 0), null);
+        assertEquals(0, upload.getReceivedChunks());
+    }
+
+    @Test
+    public void testStreamWhileUploading() throws Exception {
+        byte[] data = createData(4500);
+        ChunkedUpload upload = ChunkedUpload.create(folder.getRoot().toPath(), "test", "user", "dump.goobi", "key", data.length, CHUNK_SIZE);
+        CompletableFuture<byte[]> read = CompletableFuture.supplyAsync(() -> {
+            try (InputStream in = upload.openStream(10000, () -> false)) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        for (int index : new int[] { 1, 0, 4, 3, 2 }) {
+            Thread.sleep(20);
+            upload.writeChunk(index, chunk(data, index), null);
+        }
+        assertArrayEquals(data, read.get());
+        upload.awaitComplete(1000, () -> false);
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void testCancelledStream() throws Exception {
+        ChunkedUpload upload = ChunkedUpload.create(folder.getRoot().toPath(), "test", "user", "dump.goobi", "key", 2500, CHUNK_SIZE);
+        try (InputStream in = upload.openStream(10000, () -> true)) {
+            in.read();
+        }
+    }
+
+    @Test
+    public void testStalledUpload() throws Exception {
+        ChunkedUpload upload = ChunkedUpload.create(folder.getRoot().toPath(), "test", "user", "dump.goobi", "key", 2500, CHUNK_SIZE);
+        try {
+            upload.awaitComplete(100, () -> false);
+            fail("The upload did not stall");
+        } catch (InterruptedIOException e) {
+            fail("The upload was not cancelled");
+        } catch (IOException e) {
+            // expected
+        }
+        upload.abort();
+        assertRejected(upload, 0, new ByteArrayInputStream(new byte[CHUNK_SIZE]), null);
+    }
+
+    @Test
+    public void testUploadsOfOtherUsers() throws Exception {
+        UploadManager manager = new UploadManager(folder.getRoot().toPath(), CHUNK_SIZE, 1000, 60000);
+        Map<String, String> create = new HashMap<>();
+        create.put("action", "create");
+        create.put("name", "dump.goobi");
+        create.put("key", "dump.goobi-2500");
+        create.put("size", "2500");
+        Object id = manager.handle("user", create, null).get("id");
+        assertEquals("user", manager.get("user", (String) id).getOwner());
+
+        // the same file of another user is a new upload
+        Object other = manager.handle("other", create, null).get("id");
+        assertFalse(id.equals(other));
+        assertEquals(id, manager.handle("user", create, null).get("id"));
+
+        // other users cannot see, write or delete the upload
+        assertNull(manager.get("other", (String) id));
+        assertNull(manager.get(null, (String) id));
+        for (String action : Arrays.asList("status", "chunk", "delete")) {
+            Map<String, String> request = new HashMap<>();
+            request.put("action", action);
+            request.put("id", (String) id);
+            request.put("index", "0");
+            assertEquals(action, 404, manager.handle("other", request, new ByteArrayInputStream(new byte[CHUNK_SIZE])).get("status"));
+        }
+        assertEquals(Arrays.asList(0, 1, 2), manager.get("user", (String) id).getMissing());
+    }
+
+    private static void assertRejected(ChunkedUpload upload, int index, InputStream in, String checksum) {
+        try {
+            upload.writeChunk(index, in, checksum);
+            fail("Chunk " + index + " was accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static InputStream chunk(byte[] data, int index) {
+        int offset = index * CHUNK_SIZE;
+        return new ByteArrayInputStream(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+    }
+
+    private static String sha256(byte[] data, int index) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(chunk(data, index).readAllBytes()));
+    }
+}
@@ -0,0 +1,66 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.junit.Test;
+
+public class ExchangeMBeanTest {
+
+    @Test
+    public void testRegisterOnce() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = ExchangeMBean.getObjectName(ExchangeJob.Type.IMPORT);
+        ExchangeMBean.register(ExchangeJob.Type.IMPORT);
+        Object first = server.getObjectInstance(name);
+        ExchangeMBean.register(ExchangeJob.Type.IMPORT);
+        assertEquals(first, server.getObjectInstance(name));
+        assertEquals("de.intranda.goobi.plugins.exchange:type=Import", name.toString());
+    }
+
+    @Test
+    public void testValuesOfTheRunningJob() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ExchangeMBean.register(ExchangeJob.Type.EXPORT);
+        ObjectName name = ExchangeMBean.getObjectName(ExchangeJob.Type.EXPORT);
+        ProgressTracker progress = new ProgressTracker();
+        JobMetrics metrics = new JobMetrics();
+        ExchangeJob job = new ExchangeJob(ExchangeJob.Type.EXPORT, "test", "test", progress, () -> "scan", () -> {
+            progress.start();
+            progress.setTotal(0, 200);
+            progress.advance(0, 50);
+            metrics.record("scan", 1000000, 50, 1);
+            try {
+                assertEquals(Boolean.TRUE, server.getAttribute(name, "Running"));
+                assertEquals(25, server.getAttribute(name, "Percent"));
+                assertEquals(1, server.getAttribute(name, "RunningJobs"));
+                assertTrue(server.getMBeanInfo(name).getAttributes().length > 10);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return true;
+        }, false);
+        job.setMetrics(metrics);
+        JobManager.getInstance().runNow(job);
+        assertEquals(ExchangeJob.State.FINISHED, job.getState());
+        assertEquals(Boolean.FALSE, server.getAttribute(name, "Running"));
+    }
+
+    @Test
+    public void testInvoke() throws Exception {
+        ExchangeMBean.register(ExchangeJob.Type.EXPORT);
+        try {
+            ManagementFactory.getPlatformMBeanServer().invoke(ExchangeMBean.getObjectName(ExchangeJob.Type.EXPORT), "reset", null, null);
+            fail("The MBean must not have operations");
+        } catch (ReflectionException e) {
+            assertTrue(e.getTargetException() instanceof NoSuchMethodException);
+        }
+    }
+}
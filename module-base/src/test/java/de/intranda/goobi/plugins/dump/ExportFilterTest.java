@@ -0,0 +1,53 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ExportFilterTest {
+
+    @Test
+    public void testFiles() {
+        ExportFilter filter = new ExportFilter(Arrays.asList(new Exclude("thumbnails", "metadata/\\d+/thumbs/.*", true),
+                new Exclude("backups", ".*\\.xml\\.\\d+", true), new Exclude("inactive", "metadata/.*", false)));
+        assertTrue(filter.isActive());
+        assertTrue(filter.isExcluded("metadata/1/thumbs/00000001.jpg"));
+        assertTrue(filter.isExcluded("metadata/1/meta.xml.1"));
+        assertFalse(filter.isExcluded("metadata/1/meta.xml"));
+        assertFalse(filter.isExcluded("metadata/1/images/thumbs/00000001.jpg"));
+    }
+
+    @Test
+    public void testDirectories() {
+        ExportFilter filter = new ExportFilter(Arrays.asList(new Exclude("thumbnails", "metadata/\\d+/thumbs/.*", true),
+                new Exclude("media", "metadata/\\d+/images/.*_media", true), new Exclude("alternatives", "metadata/1/ocr/.*|metadata/2/ocr/.*", true)));
+        // the whole directory is skipped
+        assertTrue(filter.isDirectoryExcluded("metadata/1/thumbs"));
+        // the own path of a directory matches
+        assertTrue(filter.isDirectoryExcluded("metadata/1/images/test_media"));
+        assertFalse(filter.isDirectoryExcluded("metadata/1/images"));
+        // expressions with alternatives are only checked for the files
+        assertFalse(filter.isDirectoryExcluded("metadata/1/ocr"));
+        assertTrue(filter.isExcluded("metadata/1/ocr/00000001.xml"));
+    }
+
+    @Test
+    public void testInvalidExpression() {
+        ExportFilter filter = new ExportFilter(Arrays.asList(new Exclude("broken", "metadata/(.*", true), new Exclude("images", ".*\\.tif", true)));
+        assertEquals(Collections.singletonList("broken (metadata/(.*)"), filter.getInvalidExpressions());
+        assertTrue(filter.isExcluded("metadata/1/images/00000001.tif"));
+    }
+
+    @Test
+    public void testInactive() {
+        ExportFilter filter = new ExportFilter(Collections.singletonList(new Exclude("images", ".*", false)));
+        assertFalse(filter.isActive());
+        assertFalse(filter.isExcluded("metadata/1/meta.xml"));
+        assertFalse(filter.isDirectoryExcluded("metadata"));
+    }
+}
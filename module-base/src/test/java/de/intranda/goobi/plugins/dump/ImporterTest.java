@@ -0,0 +1,75 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMoveDelta() throws Exception {
+        Path source = folder.newFolder("dump", "metadata").toPath();
+        Path target = folder.newFolder("goobi", "metadata").toPath();
+        ProcessMergerTest.write(source.resolve("1/meta.xml"), "new");
+        ProcessMergerTest.write(source.resolve("3/meta.xml"), "added");
+        ProcessMergerTest.write(target.resolve("1/meta.xml"), "old");
+        ProcessMergerTest.write(target.resolve("1/meta_anchor.xml"), "kept");
+
+        assertEquals(2, Importer.moveDelta(source, target));
+        assertEquals("new", ProcessMergerTest.read(target.resolve("1/meta.xml")));
+        assertEquals("added", ProcessMergerTest.read(target.resolve("3/meta.xml")));
+        assertEquals("kept", ProcessMergerTest.read(target.resolve("1/meta_anchor.xml")));
+    }
+
+    @Test
+    public void testDeleteTombstones() throws Exception {
+        Path target = folder.newFolder("goobi", "metadata").toPath();
+        ProcessMergerTest.write(target.resolve("1/meta.xml"), "deleted");
+        ProcessMergerTest.write(target.resolve("2/meta.xml"), "kept");
+
+        assertEquals(1, Importer.deleteTombstones(target, "metadata", Arrays.asList("metadata/1/meta.xml", "metadata/4/missing.xml")));
+        assertFalse(Files.exists(target.resolve("1/meta.xml")));
+        assertTrue(Files.exists(target.resolve("2/meta.xml")));
+    }
+
+    @Test
+    public void testTombstonesOutsideOfTheFolderAreIgnored() throws Exception {
+        Path target = folder.newFolder("goobi", "metadata").toPath();
+        Path config = folder.newFolder("goobi", "config").toPath();
+        ProcessMergerTest.write(config.resolve("goobi_config.properties"), "secret");
+        Path outside = folder.newFile("outside.txt").toPath();
+
+        assertEquals(0, Importer.deleteTombstones(target, "metadata", Arrays.asList("metadata/../config/goobi_config.properties",
+                "metadata/1/../../config/goobi_config.properties", "metadata/" + outside.toAbsolutePath(), "config/goobi_config.properties")));
+        assertTrue(Files.exists(config.resolve("goobi_config.properties")));
+        assertTrue(Files.exists(outside));
+    }
+
+    @Test
+    public void testStagingLock() throws Exception {
+        Path staging = folder.getRoot().toPath().resolve("import-1-test");
+        Path lockFile = Importer.getLockFile(staging);
+        assertEquals("import-1-test.lock", lockFile.getFileName().toString());
+        assertFalse(Importer.isLocked(lockFile));
+
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.lock();
+            assertTrue(Importer.isLocked(lockFile));
+        }
+        // a lock file of a finished import does not protect the folder
+        assertFalse(Importer.isLocked(lockFile));
+    }
+}
@@ -0,0 +1,98 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Test;
+
+public class IoThrottleTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    public void testUnlimited() throws Exception {
+        IoThrottle throttle = new IoThrottle(new XMLConfiguration());
+        assertFalse(throttle.isActive());
+        InputStream in = new ByteArrayInputStream(new byte[10]);
+        assertSame(in, throttle.input(in));
+        OutputStream out = new ByteArrayOutputStream();
+        assertSame(out, throttle.output(out));
+    }
+
+    @Test
+    public void testReadBandwidth() throws Exception {
+        // the bucket holds a quarter second, the second megabyte has to wait for a quarter second
+        IoThrottle throttle = new IoThrottle(4 * MB, 0, 0, 0);
+        long start = System.nanoTime();
+        try (InputStream in = throttle.input(new ByteArrayInputStream(new byte[2 * MB]))) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) >= 0) {
+                // only count
+            }
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("The read took " + elapsed + " ms", elapsed >= 200 && elapsed < 2000);
+        assertTrue(throttle.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void testWriteBandwidthIsSeparate() throws Exception {
+        IoThrottle throttle = new IoThrottle(0, 4 * MB, 0, 0);
+        try (InputStream in = throttle.input(new ByteArrayInputStream(new byte[2 * MB]))) {
+            in.readAllBytes();
+        }
+        assertEquals(0, throttle.getWaitNanos());
+        try (OutputStream out = throttle.output(new ByteArrayOutputStream())) {
+            out.write(new byte[2 * MB]);
+        }
+        assertTrue(throttle.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void testOperations() throws Exception {
+        // 25 operations are allowed right away, the other 36 calls take 0.36 seconds
+        IoThrottle throttle = new IoThrottle(0, 0, 100, 0);
+        long start = System.nanoTime();
+        try (InputStream in = throttle.input(new ByteArrayInputStream(new byte[60]))) {
+            for (int i = 0; i < 60; i++) {
+                in.read();
+            }
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("The calls took " + elapsed + " ms", elapsed >= 250 && elapsed < 2000);
+    }
+
+    @Test
+    public void testAdaptive() throws Exception {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("throttle[@adaptive]", true);
+        config.setProperty("throttle[@latency]", 5);
+        IoThrottle throttle = new IoThrottle(config);
+        assertTrue(throttle.isAdaptive());
+        assertTrue(throttle.isActive());
+
+        // slow calls reduce the limits after the adjustment interval
+        throttle.afterRead(64 * 1024, TimeUnit.MILLISECONDS.toNanos(50));
+        Thread.sleep(510);
+        throttle.afterRead(64 * 1024, TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0.7, throttle.getFactor(), 0.001);
+
+        // large calls are scaled down to the latency of a 128 KB request
+        Thread.sleep(510);
+        throttle.afterWrite(64 * MB, TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0.77, throttle.getFactor(), 0.001);
+
+        throttle.reset();
+        assertEquals(1, throttle.getFactor(), 0.001);
+        assertEquals(0, throttle.getWaitNanos());
+    }
+}
@@ -0,0 +1,137 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class JobManagerTest {
+
+    @Test
+    public void testOneJobPerOwner() throws Exception {
+        JobManager manager = new JobManager(10, 2, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Object owner = new Object();
+        AtomicInteger prepared = new AtomicInteger();
+
+        ExchangeJob first = job(ExchangeJob.Type.EXPORT, release);
+        manager.submit(owner, first, prepared::incrementAndGet);
+        try {
+            manager.submit(owner, job(ExchangeJob.Type.EXPORT, release), prepared::incrementAndGet);
+            fail("A second job of the same owner was accepted");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        try {
+            manager.runNow(owner, job(ExchangeJob.Type.EXPORT, release), prepared::incrementAndGet);
+            fail("A second job of the same owner was started");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        // the state of the owner is only prepared for the accepted job
+        assertEquals(1, prepared.get());
+
+        // other owners are not affected
+        ExchangeJob other = job(ExchangeJob.Type.EXPORT, release);
+        manager.submit(new Object(), other, null);
+
+        release.countDown();
+        awaitDone(first);
+        awaitDone(other);
+        manager.runNow(owner, job(ExchangeJob.Type.EXPORT, release), prepared::incrementAndGet);
+        assertEquals(2, prepared.get());
+    }
+
+    @Test
+    public void testQueue() throws Exception {
+        JobManager manager = new JobManager(1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExchangeJob running = job(ExchangeJob.Type.EXPORT, release);
+        ExchangeJob queued = job(ExchangeJob.Type.EXPORT, release);
+        manager.submit(running);
+        manager.submit(queued);
+        assertEquals(0, manager.getPosition(queued));
+        assertEquals(ExchangeJob.State.QUEUED, queued.getState());
+        try {
+            manager.submit(job(ExchangeJob.Type.EXPORT, release));
+            fail("The full queue accepted a job");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        try {
+            manager.runNow(job(ExchangeJob.Type.EXPORT, release));
+            fail("A job was started beyond the limit of its type");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        // an import does not wait for the queued export
+        ExchangeJob imported = job(ExchangeJob.Type.IMPORT, new CountDownLatch(0));
+        manager.submit(imported);
+        awaitDone(imported);
+        assertEquals(ExchangeJob.State.FINISHED, imported.getState());
+        assertEquals(ExchangeJob.State.QUEUED, queued.getState());
+
+        release.countDown();
+        awaitDone(running);
+        awaitDone(queued);
+        assertEquals(ExchangeJob.State.FINISHED, queued.getState());
+        assertEquals(-1, manager.getPosition(queued));
+        assertEquals(0, manager.count(ExchangeJob.Type.EXPORT, ExchangeJob.State.RUNNING));
+        assertEquals(2, manager.count(ExchangeJob.Type.EXPORT, ExchangeJob.State.FINISHED));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        JobManager manager = new JobManager(1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Object owner = new Object();
+        ExchangeJob running = job(ExchangeJob.Type.EXPORT, release);
+        ExchangeJob queued = job(ExchangeJob.Type.EXPORT, release);
+        manager.submit(running);
+        manager.submit(owner, queued, null);
+
+        // a cancelled job leaves the queue and its owner can submit a new one
+        assertTrue(manager.cancel(queued.getId()));
+        assertEquals(ExchangeJob.State.CANCELLED, queued.getState());
+        assertEquals(-1, manager.getPosition(queued));
+        ExchangeJob next = job(ExchangeJob.Type.EXPORT, new CountDownLatch(0));
+        manager.submit(owner, next, null);
+        assertEquals(0, manager.getPosition(next));
+
+        // the running job is interrupted and the next one starts
+        assertTrue(manager.cancel(running.getId()));
+        awaitDone(running);
+        assertEquals(ExchangeJob.State.CANCELLED, running.getState());
+        awaitDone(next);
+        assertEquals(ExchangeJob.State.FINISHED, next.getState());
+        assertFalse(manager.cancel(next.getId()));
+        assertFalse(manager.cancel(-1));
+    }
+
+    static ExchangeJob job(ExchangeJob.Type type, CountDownLatch release) {
+        return new ExchangeJob(type, "test", "user", new ProgressTracker(), () -> "phase", () -> {
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }, true);
+    }
+
+    static void awaitDone(ExchangeJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!job.getState().isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("The job did not end: " + job.getState(), job.getState().isDone());
+    }
+}
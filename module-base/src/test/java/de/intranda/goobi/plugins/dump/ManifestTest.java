@@ -0,0 +1,86 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("manifests/dump.tsv");
+        try (ManifestWriter writer = new ManifestWriter(file)) {
+            writer.add("metadata/1/meta.xml", new ManifestEntry(10, 1000, "abc"));
+            writer.add("metadata/1/images/tab\u00e4.tif", new ManifestEntry(20, 2000, null));
+            assertEquals(2, writer.getCount());
+        }
+
+        Manifest manifest = Manifest.read(file);
+        assertEquals(2, manifest.size());
+        assertEquals(new ManifestEntry(10, 1000, "abc"), manifest.get("metadata/1/meta.xml"));
+        assertEquals(new ManifestEntry(20, 2000, ""), manifest.get("metadata/1/images/tab\u00e4.tif"));
+    }
+
+    @Test
+    public void testUnchanged() {
+        ManifestEntry entry = new ManifestEntry(10, 1000, "abc");
+        assertTrue(entry.isUnchanged(10, 1000));
+        assertFalse(entry.isUnchanged(11, 1000));
+        assertFalse(entry.isUnchanged(10, 1001));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidLine() throws Exception {
+        Manifest.read(new ByteArrayInputStream("metadata/1/meta.xml\t10\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testTombstones() throws Exception {
+        Path metadata = folder.newFolder("goobi", "metadata").toPath();
+        ProcessMergerTest.write(metadata.resolve("1/meta.xml"), "changed");
+        ProcessMergerTest.write(metadata.resolve("3/meta.xml"), "not scanned");
+        String base = "# path\tsize\tmtime\thash\n" //
+                + "metadata/1/meta.xml\t7\t1000\t\n" //
+                + "metadata/2/meta.xml\t7\t1000\t\n" //
+                + "metadata/3/meta.xml\t11\t1000\t\n" //
+                + "config/goobi_config.properties\t5\t1000\t\n";
+        Manifest manifest = Manifest.read(new ByteArrayInputStream(base.getBytes(StandardCharsets.UTF_8)));
+        // the scan of the export removes all files it has seen
+        assertEquals(new ManifestEntry(7, 1000, ""), manifest.remove("metadata/1/meta.xml"));
+        assertNull(manifest.remove("metadata/4/meta.xml"));
+
+        Map<String, Path> folders = Collections.singletonMap("metadata", metadata);
+        List<String> tombstones = Exporter.findTombstones(manifest, folders);
+        // deleted files only, existing files that were excluded from the scan and folders that were not exported are kept
+        assertEquals(Arrays.asList("metadata/2/meta.xml"), tombstones);
+    }
+
+    @Test
+    public void testDumpId() {
+        String id = LocalDateTime.of(2026, 1, 2, 3, 4, 5, 6_000_000).format(Exporter.DUMP_ID_FORMAT);
+        assertEquals("20260102-030405-006", id);
+        assertTrue(Exporter.DUMP_ID.matcher(id).matches());
+        // manifests of older versions can still be used as base
+        assertTrue(Exporter.DUMP_ID.matcher("20260102-030405").matches());
+        assertFalse(Exporter.DUMP_ID.matcher("../../etc/20260102-030405").matches());
+        assertFalse(Exporter.DUMP_ID.matcher("20260102-030405.tsv").matches());
+    }
+}
@@ -0,0 +1,204 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelZipWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Map<String, byte[]> content = createContent();
+        Path zip = folder.newFile("dump.goobi").toPath();
+        try (ParallelZipWriter writer = new ParallelZipWriter(Files.newOutputStream(zip), 4, VolumeWriterTest.policy())) {
+            for (Map.Entry<String, byte[]> entry : content.entrySet()) {
+                // the sql dump is written while the command is running, its size is unknown
+                if (entry.getKey().endsWith(".sql")) {
+                    writer.putStream(entry.getKey(), new ByteArrayInputStream(entry.getValue()), 0);
+                } else {
+                    writer.putFile(entry.getKey(), write(entry.getValue()));
+                }
+            }
+            writer.finish();
+        }
+
+        assertContent(content, readZipFile(zip));
+        assertContent(content, readArchive(zip));
+        try (ZipFile file = new ZipFile(zip.toFile())) {
+            assertEquals(ZipEntry.STORED, file.getEntry("metadata/1/images/00000001.tif").getMethod());
+            assertEquals(ZipEntry.DEFLATED, file.getEntry("metadata/1/meta.xml").getMethod());
+            assertEquals(ZipEntry.STORED, file.getEntry("metadata/1/ocr/random.bin").getMethod());
+            assertEquals(ZipEntry.DEFLATED, file.getEntry("sql/goobi.sql").getMethod());
+        }
+    }
+
+    @Test
+    public void testKnownSizesAreReadableByTheJdkStream() throws Exception {
+        Map<String, byte[]> content = createContent();
+        content.remove("sql/goobi.sql");
+        Path zip = folder.newFile("dump.goobi").toPath();
+        try (ParallelZipWriter writer = new ParallelZipWriter(Files.newOutputStream(zip), 1, VolumeWriterTest.policy())) {
+            for (Map.Entry<String, byte[]> entry : content.entrySet()) {
+                writer.putStream(entry.getKey(), new ByteArrayInputStream(entry.getValue()), 0, entry.getValue().length);
+            }
+            writer.finish();
+        }
+
+        Map<String, byte[]> read = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                read.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        assertContent(content, read);
+    }
+
+    @Test
+    public void testZip64() throws Exception {
+        Map<String, byte[]> content = createContent();
+        Path zip = folder.newFile("dump.goobi").toPath();
+        try (ParallelZipWriter writer = new ParallelZipWriter(Files.newOutputStream(zip), 2, VolumeWriterTest.policy())) {
+            // all entries larger than 1 KB and all offsets after the first entry use ZIP64 values
+            writer.setZip64Threshold(1024);
+            for (Map.Entry<String, byte[]> entry : content.entrySet()) {
+                writer.putStream(entry.getKey(), new ByteArrayInputStream(entry.getValue()), 0, entry.getValue().length);
+            }
+            writer.finish();
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(zip)).order(ByteOrder.LITTLE_ENDIAN);
+        // the first entry is deflated, its local header has the ZIP64 extra field
+        assertEquals(0x04034b50, header.getInt(0));
+        assertEquals(45, header.getShort(4));
+        assertEquals(0xFFFFFFFF, header.getInt(22));
+        assertEquals(20, header.getShort(28));
+        assertEquals(0x0001, header.getShort(30 + header.getShort(26)));
+        assertContent(content, readZipFile(zip));
+        assertContent(content, readArchive(zip));
+    }
+
+    @Test
+    public void testCloseWithoutFinish() throws Exception {
+        Path zip = folder.newFile("dump.goobi").toPath();
+        try (ParallelZipWriter writer = new ParallelZipWriter(Files.newOutputStream(zip), 4, VolumeWriterTest.policy())) {
+            for (Map.Entry<String, byte[]> entry : createContent().entrySet()) {
+                writer.putStream(entry.getKey(), new ByteArrayInputStream(entry.getValue()), 0, entry.getValue().length);
+            }
+        }
+
+        // the aborted archive has no central directory
+        byte[] data = Files.readAllBytes(zip);
+        assertTrue(data.length < 22 || ByteBuffer.wrap(data, data.length - 22, 4).order(ByteOrder.LITTLE_ENDIAN).getInt() != 0x06054b50);
+        try (ZipFile file = new ZipFile(zip.toFile())) {
+            fail("The aborted archive could be opened with " + file.size() + " entries");
+        } catch (ZipException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLevelIsClamped() {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("compression[@level]", 12);
+        assertEquals(Deflater.BEST_COMPRESSION, new CompressionPolicy(config).getLevel());
+        config.setProperty("compression[@level]", -5);
+        assertEquals(Deflater.DEFAULT_COMPRESSION, new CompressionPolicy(config).getLevel());
+        config.setProperty("compression[@level]", 3);
+        assertEquals(3, new CompressionPolicy(config).getLevel());
+    }
+
+    @Test
+    public void testEntropy() {
+        byte[] random = new byte[64 * 1024];
+        new Random(1).nextBytes(random);
+        byte[] text = "<mets:mets/>".repeat(6000).getBytes(StandardCharsets.UTF_8);
+        CompressionPolicy policy = VolumeWriterTest.policy();
+        assertEquals(CompressionPolicy.STORED, policy.getLevel("metadata/1/random.bin", random));
+        assertEquals(policy.getLevel(), policy.getLevel("metadata/1/text.bin", text));
+        assertEquals(policy.getLevel(), policy.getLevel("metadata/1/meta.xml", random));
+    }
+
+    /**
+     * entries of the different kinds: deflated with several blocks, stored by the extension, stored by the entropy, empty and the sql dump
+     */
+    private static Map<String, byte[]> createContent() {
+        Random random = new Random(42);
+        Map<String, byte[]> content = new LinkedHashMap<>();
+        content.put("metadata/1/meta.xml", "<mets:mets>\n".repeat(250000).getBytes(StandardCharsets.UTF_8));
+        byte[] image = new byte[300 * 1024];
+        random.nextBytes(image);
+        content.put("metadata/1/images/00000001.tif", image);
+        byte[] noise = new byte[ParallelZipWriter.BLOCK_SIZE + 100];
+        random.nextBytes(noise);
+        content.put("metadata/1/ocr/random.bin", noise);
+        content.put("metadata/1/empty.txt", new byte[0]);
+        content.put("sql/goobi.sql", "INSERT INTO prozesse VALUES (1);\n".repeat(1000).getBytes(StandardCharsets.UTF_8));
+        content.put("metadata/2/meta.xml", "<mets:mets/>".getBytes(StandardCharsets.UTF_8));
+        return content;
+    }
+
+    private Path write(byte[] data) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, data);
+        return file;
+    }
+
+    private static Map<String, byte[]> readZipFile(Path zip) throws IOException {
+        Map<String, byte[]> read = new HashMap<>();
+        try (ZipFile file = new ZipFile(zip.toFile())) {
+            for (ZipEntry entry : Collections.list(file.entries())) {
+                try (InputStream in = file.getInputStream(entry)) {
+                    read.put(entry.getName(), in.readAllBytes());
+                }
+            }
+        }
+        return read;
+    }
+
+    private static Map<String, byte[]> readArchive(Path zip) throws IOException {
+        Map<String, byte[]> read = new HashMap<>();
+        try (ArchiveReader reader = ArchiveFormat.open(Files.newInputStream(zip))) {
+            ArchiveReader.Entry entry;
+            while ((entry = reader.next()) != null) {
+                read.put(entry.getName(), reader.getInputStream().readAllBytes());
+            }
+        }
+        return read;
+    }
+
+    private static void assertContent(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcessMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path source;
+    private Path target;
+
+    @Before
+    public void setUp() throws IOException {
+        source = folder.newFolder("dump", "metadata").toPath();
+        target = folder.newFolder("goobi", "metadata").toPath();
+        write(target.resolve("1/meta.xml"), "old");
+        write(target.resolve("1/removed.xml"), "removed");
+        write(target.resolve("1/images/master_1_media/00000001.tif"), "image");
+        write(target.resolve("1/ocr/1_txt/00000001.txt"), "ocr");
+        write(target.resolve("2/meta.xml"), "other process");
+        write(source.resolve("1/meta.xml"), "new content");
+    }
+
+    @Test
+    public void testExcludedFilesAreKept() throws Exception {
+        ProcessMerger merger = new ProcessMerger(source, target, 2);
+        merger.setManifestPrefix("metadata/");
+        merger.setExportFilter(new ExportFilter(Arrays.asList(new Exclude("images", ".*images.*", true), new Exclude("tif", ".*tif", true))));
+        merger.merge();
+
+        assertTrue(merger.getErrors().isEmpty());
+        assertEquals("new content", read(target.resolve("1/meta.xml")));
+        assertTrue(Files.exists(target.resolve("1/images/master_1_media/00000001.tif")));
+        assertFalse(Files.exists(target.resolve("1/removed.xml")));
+        assertFalse(Files.exists(target.resolve("1/ocr")));
+        assertTrue(Files.exists(target.resolve("2/meta.xml")));
+    }
+
+    @Test
+    public void testNothingIsDeletedWithoutExclusions() throws Exception {
+        ProcessMerger merger = new ProcessMerger(source, target, 1);
+        merger.merge();
+
+        assertEquals("new content", read(target.resolve("1/meta.xml")));
+        assertTrue(Files.exists(target.resolve("1/removed.xml")));
+        assertTrue(Files.exists(target.resolve("1/ocr/1_txt/00000001.txt")));
+        assertTrue(Files.exists(target.resolve("1/images/master_1_media/00000001.tif")));
+    }
+
+    @Test
+    public void testEmptyFilterDeletesMissingFiles() throws Exception {
+        ProcessMerger merger = new ProcessMerger(source, target, 1);
+        merger.setManifestPrefix("metadata/");
+        merger.setExportFilter(new ExportFilter(Arrays.asList()));
+        merger.merge();
+
+        assertFalse(Files.exists(target.resolve("1/removed.xml")));
+        assertFalse(Files.exists(target.resolve("1/images")));
+    }
+
+    @Test
+    public void testMissingProcesses() throws Exception {
+        ProcessMerger merger = new ProcessMerger(source, target, 1);
+        merger.setManifestPrefix("metadata/");
+        merger.setExportFilter(new ExportFilter(Arrays.asList()));
+        merger.setKeepMissing(false);
+        merger.merge();
+
+        assertTrue(Files.exists(target.resolve("1/meta.xml")));
+        assertFalse(Files.exists(target.resolve("2")));
+    }
+
+    @Test
+    public void testUnchangedFilesAreKept() throws Exception {
+        write(source.resolve("1/removed.xml"), "removed");
+        Files.setLastModifiedTime(source.resolve("1/removed.xml"), Files.getLastModifiedTime(target.resolve("1/removed.xml")));
+        ProcessMerger merger = new ProcessMerger(source, target, 1);
+        merger.merge();
+
+        assertEquals(1, merger.getWrittenFiles());
+        assertEquals("removed", read(target.resolve("1/removed.xml")));
+    }
+
+    @Test
+    public void testExcludedPaths() {
+        ProcessMerger merger = new ProcessMerger(source, target, 1);
+        merger.setManifestPrefix("metadata/");
+        merger.setExportFilter(new ExportFilter(Arrays.asList(new Exclude("media", ".*media.*", true))));
+
+        assertTrue(merger.isExcluded("1", "images/master_1_media", true));
+        assertTrue(merger.isExcluded("1", "images/master_1_media/00000001.tif", false));
+        assertFalse(merger.isExcluded("1", "images", true));
+        assertFalse(merger.isExcluded("1", "meta.xml", false));
+    }
+
+    static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,79 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+public class ProgressTrackerTest {
+
+    @Test
+    public void testStoredUpload() throws Exception {
+        ProgressTracker tracker = new ProgressTracker();
+        tracker.start();
+        // upload and extraction of the stored file
+        tracker.setTotal(0, 2000);
+        try (InputStream in = tracker.count(new ByteArrayInputStream(new byte[1000]), true)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        assertEquals(50, tracker.getPercent());
+        tracker.addTotal(10, 0);
+        assertEquals(50, tracker.getPercent());
+        tracker.advance(5, 600);
+        assertEquals(80, tracker.getPercent());
+        tracker.complete();
+        assertEquals(100, tracker.getPercent());
+    }
+
+    @Test
+    public void testUnknownContentKeepsTheProgressMonotonic() {
+        ProgressTracker tracker = new ProgressTracker();
+        tracker.start();
+        tracker.setTotal(0, 1000);
+        tracker.advance(0, 500);
+        int last = tracker.getPercent();
+        for (int i = 0; i < 10; i++) {
+            tracker.advanceUnknown(0, 300);
+            assertTrue(tracker.getPercent() >= last);
+            last = tracker.getPercent();
+        }
+        tracker.finish();
+        assertEquals(4000, tracker.getTotalBytes());
+    }
+
+    @Test
+    public void testPercentOfFiles() {
+        ProgressTracker tracker = new ProgressTracker();
+        tracker.start();
+        tracker.addTotal(4, 0);
+        tracker.advance(1, 0);
+        assertEquals(25, tracker.getPercent());
+    }
+
+    @Test
+    public void testThroughputDoesNotDependOnThePolling() {
+        ProgressTracker often = new ProgressTracker();
+        ProgressTracker rarely = new ProgressTracker();
+        often.start();
+        rarely.start();
+        // 1000 bytes per second for ten seconds, then 3000 bytes per second
+        for (int second = 1; second <= 20; second++) {
+            long bytes = second <= 10 ? 1000 : 3000;
+            often.advance(0, bytes);
+            rarely.advance(0, bytes);
+            often.getThroughput(often.getStartTime() + second * 1000L);
+            if (second % 5 == 0) {
+                rarely.getThroughput(rarely.getStartTime() + second * 1000L);
+            }
+            // polls within the sample interval do not change the average
+            often.getThroughput(often.getStartTime() + second * 1000L + 500);
+        }
+        long throughput = often.getThroughput(often.getStartTime() + 20000);
+        assertTrue(String.valueOf(throughput), throughput > 2000 && throughput < 3000);
+        assertEquals(throughput, rarely.getThroughput(rarely.getStartTime() + 20000), 1);
+    }
+}
@@ -0,0 +1,146 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotWriterTest {
+
+    // the zip file system stores the modification time in steps of two seconds
+    private static final long MTIME = 1_600_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUnchangedFilesAreLinked() throws Exception {
+        Path live = folder.newFolder("live").toPath();
+        Path previous = folder.newFolder("previous").toPath();
+        ProcessMergerTest.write(live.resolve("metadata/1/meta.xml"), "unchanged");
+        ProcessMergerTest.write(live.resolve("metadata/1/meta_anchor.xml"), "changed content");
+        ProcessMergerTest.write(live.resolve("metadata/2/meta.xml"), "touched");
+        ProcessMergerTest.write(live.resolve("metadata/3/meta.xml"), "added");
+        ProcessMergerTest.write(previous.resolve("metadata/1/meta.xml"), "unchanged");
+        ProcessMergerTest.write(previous.resolve("metadata/1/meta_anchor.xml"), "old");
+        ProcessMergerTest.write(previous.resolve("metadata/2/meta.xml"), "touched");
+        Files.setLastModifiedTime(previous.resolve("metadata/1/meta.xml"), FileTime.fromMillis(MTIME));
+        Files.setLastModifiedTime(previous.resolve("metadata/1/meta_anchor.xml"), FileTime.fromMillis(MTIME));
+        // same size, but a different modification time
+        Files.setLastModifiedTime(previous.resolve("metadata/2/meta.xml"), FileTime.fromMillis(MTIME - 10000));
+
+        Path target = folder.getRoot().toPath().resolve("snapshot");
+        try (SnapshotWriter writer = new SnapshotWriter(target, previous, 2, throttle())) {
+            put(writer, live, "metadata/1/meta.xml");
+            put(writer, live, "metadata/1/meta_anchor.xml");
+            put(writer, live, "metadata/2/meta.xml");
+            put(writer, live, "metadata/3/meta.xml");
+            writer.finish();
+
+            assertEquals(Collections.emptyList(), writer.getErrors());
+            assertEquals(1, writer.getLinkedFiles());
+            assertEquals(3, writer.getCopiedFiles());
+        }
+        assertTrue(Files.isSameFile(previous.resolve("metadata/1/meta.xml"), target.resolve("metadata/1/meta.xml")));
+        assertFalse(Files.isSameFile(previous.resolve("metadata/2/meta.xml"), target.resolve("metadata/2/meta.xml")));
+        assertEquals("changed content", ProcessMergerTest.read(target.resolve("metadata/1/meta_anchor.xml")));
+        assertEquals("added", ProcessMergerTest.read(target.resolve("metadata/3/meta.xml")));
+        // the copies get the modification time of the live files, so that the next snapshot can link them
+        assertEquals(MTIME, Files.getLastModifiedTime(target.resolve("metadata/3/meta.xml")).toMillis());
+        assertEquals(MTIME, Files.getLastModifiedTime(target.resolve("metadata/2/meta.xml")).toMillis());
+    }
+
+    @Test
+    public void testFailedLinkIsCopied() throws Exception {
+        Path live = folder.newFolder("live").toPath();
+        Path previous = folder.newFolder("previous").toPath();
+        Path target = folder.newFolder("snapshot").toPath();
+        ProcessMergerTest.write(live.resolve("meta.xml"), "content");
+        ProcessMergerTest.write(previous.resolve("meta.xml"), "content");
+        Files.setLastModifiedTime(previous.resolve("meta.xml"), FileTime.fromMillis(MTIME));
+        // the link cannot be created where a file exists already
+        ProcessMergerTest.write(target.resolve("meta.xml"), "left over");
+
+        try (SnapshotWriter writer = new SnapshotWriter(target, previous, 1, throttle())) {
+            put(writer, live, "meta.xml");
+            writer.finish();
+            assertEquals(0, writer.getLinkedFiles());
+            assertEquals(1, writer.getCopiedFiles());
+        }
+        assertEquals("content", ProcessMergerTest.read(target.resolve("meta.xml")));
+        assertFalse(Files.isSameFile(previous.resolve("meta.xml"), target.resolve("meta.xml")));
+    }
+
+    @Test
+    public void testLinksNotSupported() throws Exception {
+        Path live = folder.newFolder("live").toPath();
+        ProcessMergerTest.write(live.resolve("a.xml"), "first");
+        ProcessMergerTest.write(live.resolve("b.xml"), "second");
+        // the zip file system does not support hard links
+        try (FileSystem zip = FileSystems.newFileSystem(folder.getRoot().toPath().resolve("snapshots.zip"),
+                Collections.singletonMap("create", "true"))) {
+            Path previous = zip.getPath("/previous");
+            Files.createDirectories(previous);
+            Files.write(previous.resolve("a.xml"), Files.readAllBytes(live.resolve("a.xml")));
+            Files.write(previous.resolve("b.xml"), Files.readAllBytes(live.resolve("b.xml")));
+            Files.setLastModifiedTime(previous.resolve("a.xml"), FileTime.fromMillis(MTIME));
+            Files.setLastModifiedTime(previous.resolve("b.xml"), FileTime.fromMillis(MTIME));
+            // the files match, only the missing support of links prevents linking them
+            assertEquals(MTIME, Files.getLastModifiedTime(previous.resolve("a.xml")).toMillis());
+
+            Path target = zip.getPath("/snapshot");
+            try (SnapshotWriter writer = new SnapshotWriter(target, previous, 1, throttle())) {
+                put(writer, live, "a.xml");
+                put(writer, live, "b.xml");
+                writer.putStream("sql/goobi.sql", new ByteArrayInputStream(new byte[] { 1, 2, 3 }), MTIME);
+                writer.finish();
+                assertEquals(Collections.emptyList(), writer.getErrors());
+                assertEquals(0, writer.getLinkedFiles());
+                assertEquals(3, writer.getCopiedFiles());
+            }
+            assertEquals("first", new String(Files.readAllBytes(target.resolve("a.xml"))));
+            assertEquals("second", new String(Files.readAllBytes(target.resolve("b.xml"))));
+            assertEquals(3, Files.size(target.resolve("sql/goobi.sql")));
+        }
+    }
+
+    @Test
+    public void testClosedWriterRejectsFiles() throws Exception {
+        Path live = folder.newFolder("live").toPath();
+        ProcessMergerTest.write(live.resolve("meta.xml"), "content");
+        SnapshotWriter writer = new SnapshotWriter(folder.getRoot().toPath().resolve("snapshot"), null, 1, throttle());
+        writer.finish();
+        try {
+            put(writer, live, "meta.xml");
+            fail("The finished writer accepted a file");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void put(SnapshotWriter writer, Path live, String name) throws Exception {
+        Path file = live.resolve(name);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(MTIME));
+        writer.putFile(name, file, Files.size(file), MTIME);
+    }
+
+    private static IoThrottle throttle() {
+        return new IoThrottle(new XMLConfiguration());
+    }
+}
@@ -0,0 +1,91 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TableDumpTest {
+
+    private static final String HEADER = "-- MySQL dump 10.13\n" //
+            + "/*!40101 SET NAMES utf8mb4 */;\n" //
+            + "/*!40014 SET @OLD_FOREIGN_KEY_CHECKS=@@FOREIGN_KEY_CHECKS, FOREIGN_KEY_CHECKS=0 */;\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSplitTables() throws Exception {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        dump.write(HEADER.getBytes(StandardCharsets.US_ASCII));
+        dump.write(("--\n-- Dumping data for table `prozesse`\n--\n\nLOCK TABLES `prozesse` WRITE;\nINSERT INTO `prozesse` VALUES (1,'")
+                .getBytes(StandardCharsets.US_ASCII));
+        // binary values are copied unchanged
+        dump.write(new byte[] { (byte) 0xc3, (byte) 0xff, 0x00 });
+        dump.write("');\nUNLOCK TABLES;\n".getBytes(StandardCharsets.US_ASCII));
+        dump.write("--\n-- Dumping data for table `schritte`\n--\n\nUNLOCK TABLES;\n/*!40014 SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS */;\n"
+                .getBytes(StandardCharsets.US_ASCII));
+
+        Path spool = folder.newFolder("spool").toPath();
+        Map<String, byte[]> tables = new LinkedHashMap<>();
+        int count = TableDump.splitTables(new ByteArrayInputStream(dump.toByteArray()), spool, (table, file) -> {
+            tables.put(table, Files.readAllBytes(file));
+        });
+
+        assertEquals(2, count);
+        assertEquals("[prozesse, schritte]", tables.keySet().toString());
+        String prozesse = new String(tables.get("prozesse"), StandardCharsets.ISO_8859_1);
+        assertTrue(prozesse.startsWith(HEADER + "--\n-- Dumping data for table `prozesse`"));
+        assertFalse(prozesse.contains("schritte"));
+        assertTrue(prozesse.contains("INSERT INTO `prozesse` VALUES (1,'\u00c3\u00ff\u0000');"));
+        // each file sets the options of the session on its own
+        String schritte = new String(tables.get("schritte"), StandardCharsets.ISO_8859_1);
+        assertTrue(schritte.startsWith(HEADER + "--\n-- Dumping data for table `schritte`"));
+        assertTrue(schritte.endsWith("SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS */;\n"));
+        assertArrayEquals(tables.get("schritte"), Files.readAllBytes(spool.resolve("schritte.sql")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testStructureIsRejected() throws Exception {
+        String dump = HEADER + "--\n-- Table structure for table `prozesse`\n--\nCREATE TABLE `prozesse` (`ProzesseID` int);\n"
+                + "--\n-- Dumping data for table `prozesse`\n--\n";
+        TableDump.splitTables(new ByteArrayInputStream(dump.getBytes(StandardCharsets.US_ASCII)), folder.getRoot().toPath(), (table, file) -> {
+        });
+    }
+
+    @Test(expected = IOException.class)
+    public void testDumpWithoutComments() throws Exception {
+        String dump = HEADER + "INSERT INTO `prozesse` VALUES (1);\n";
+        TableDump.splitTables(new ByteArrayInputStream(dump.getBytes(StandardCharsets.US_ASCII)), folder.getRoot().toPath(), (table, file) -> {
+        });
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidTableName() throws Exception {
+        String dump = HEADER + "--\n-- Dumping data for table `../prozesse`\n--\n";
+        TableDump.splitTables(new ByteArrayInputStream(dump.getBytes(StandardCharsets.US_ASCII)), folder.getRoot().toPath(), (table, file) -> {
+        });
+    }
+
+    @Test
+    public void testConfiguration() {
+        XMLConfiguration config = new XMLConfiguration();
+        assertFalse(new TableDump(config).isEnabled());
+        config.setProperty("database[@mode]", TableDump.MODE_TABLES);
+        assertTrue(new TableDump(config).isEnabled());
+    }
+}
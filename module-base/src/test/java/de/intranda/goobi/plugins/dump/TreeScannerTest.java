@@ -0,0 +1,120 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TreeScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScan() throws Exception {
+        Path metadata = folder.newFolder("metadata").toPath();
+        Path config = folder.newFolder("config").toPath();
+        ProcessMergerTest.write(metadata.resolve("1/meta.xml"), "mets");
+        ProcessMergerTest.write(metadata.resolve("1/images/media/00000001.tif"), "image");
+        ProcessMergerTest.write(metadata.resolve("2/meta.xml"), "mets 2");
+        ProcessMergerTest.write(config.resolve("goobi_config.properties"), "config");
+        Files.setLastModifiedTime(metadata.resolve("1/meta.xml"), FileTime.fromMillis(1_600_000_000_000L));
+
+        Map<String, Path> roots = new LinkedHashMap<>();
+        roots.put("metadata", metadata);
+        roots.put("config", config);
+        Map<String, TreeScanner.Entry> entries = scan(roots, null);
+
+        assertEquals(Arrays.asList("config/goobi_config.properties", "metadata/1/images/media/00000001.tif", "metadata/1/meta.xml",
+                "metadata/2/meta.xml"), Arrays.asList(entries.keySet().toArray()));
+        TreeScanner.Entry entry = entries.get("metadata/1/meta.xml");
+        assertEquals(metadata.resolve("1/meta.xml"), entry.getPath());
+        assertEquals(4, entry.getSize());
+        assertEquals(1_600_000_000_000L, entry.getLastModified());
+    }
+
+    @Test
+    public void testFilterAndTotals() throws Exception {
+        Path metadata = folder.newFolder("metadata").toPath();
+        for (int i = 1; i <= 50; i++) {
+            ProcessMergerTest.write(metadata.resolve(i + "/meta.xml"), "mets");
+            ProcessMergerTest.write(metadata.resolve(i + "/thumbs/00000001.jpg"), "thumbnail");
+            ProcessMergerTest.write(metadata.resolve(i + "/meta.xml.1"), "backup");
+        }
+        ExportFilter exclusions = new ExportFilter(Arrays.asList(new Exclude("thumbnails", "metadata/\\d+/thumbs/.*", true),
+                new Exclude("backups", ".*\\.xml\\.\\d+", true)));
+        TreeScanner.Filter filter = new TreeScanner.Filter() {
+            @Override
+            public boolean isDirectoryExcluded(String name) {
+                return exclusions.isDirectoryExcluded(name);
+            }
+
+            @Override
+            public boolean isFileExcluded(String name) {
+                return exclusions.isExcluded(name);
+            }
+        };
+        ProgressTracker progress = new ProgressTracker();
+
+        try (TreeScanner scanner = new TreeScanner(4, filter)) {
+            scanner.setProgress(progress);
+            scanner.start(Map.of("metadata", metadata));
+            int count = 0;
+            TreeScanner.Entry entry;
+            while ((entry = scanner.next()) != null) {
+                assertTrue(entry.getName(), entry.getName().matches("metadata/\\d+/meta\\.xml"));
+                count++;
+            }
+            assertNull(scanner.next());
+            assertEquals(50, count);
+            assertEquals(50, scanner.getFiles());
+            assertEquals(200, scanner.getBytes());
+            // the excluded thumbs folders are not counted
+            assertEquals(50, scanner.getDirectories());
+            assertTrue(scanner.getDuration() >= 0);
+            assertTrue(scanner.getErrors().isEmpty());
+        }
+        assertEquals(200, progress.getTotalBytes());
+    }
+
+    @Test
+    public void testMissingRoot() throws Exception {
+        Path metadata = folder.newFolder("metadata").toPath();
+        ProcessMergerTest.write(metadata.resolve("1/meta.xml"), "mets");
+        Map<String, Path> roots = new LinkedHashMap<>();
+        roots.put("metadata", metadata);
+        roots.put("scripts", folder.getRoot().toPath().resolve("scripts"));
+
+        try (TreeScanner scanner = new TreeScanner(2, null)) {
+            scanner.start(roots);
+            assertEquals("metadata/1/meta.xml", scanner.next().getName());
+            assertNull(scanner.next());
+            // the other roots are scanned anyway
+            assertEquals(1, scanner.getErrors().size());
+            assertTrue(scanner.getErrors().get(0).contains("scripts"));
+        }
+    }
+
+    private static Map<String, TreeScanner.Entry> scan(Map<String, Path> roots, TreeScanner.Filter filter) throws Exception {
+        Map<String, TreeScanner.Entry> entries = new TreeMap<>();
+        try (TreeScanner scanner = new TreeScanner(3, filter)) {
+            scanner.start(roots);
+            TreeScanner.Entry entry;
+            while ((entry = scanner.next()) != null) {
+                assertNull("Duplicate entry " + entry.getName(), entries.put(entry.getName(), entry));
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,157 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VolumeWriterTest {
+
+    private static final int VOLUME_SIZE = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testZipVolumes() throws Exception {
+        Path target = folder.newFolder("volumes").toPath();
+        Map<String, byte[]> content = writeVolumes(target, ArchiveFormat.ZIP);
+
+        VolumeIndex index = VolumeIndex.read(target.resolve("dump" + VolumeIndex.INDEX_SUFFIX));
+        assertTrue(index.getVolumes().size() > 1);
+        Map<String, byte[]> read = new HashMap<>();
+        for (VolumeIndex.Volume volume : index.getVolumes()) {
+            Path file = target.resolve(volume.getName());
+            assertEquals(volume.getSize(), Files.size(file));
+            assertTrue(volume.getName() + " is too large", Files.size(file) <= VOLUME_SIZE);
+            assertEquals(volume.getChecksum(), checksum(file));
+            // each volume is a complete zip file
+            try (ZipFile zip = new ZipFile(file.toFile())) {
+                zip.stream().forEach(entry -> {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        read.put(entry.getName(), in.readAllBytes());
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            }
+        }
+        assertContent(content, read);
+    }
+
+    @Test
+    public void testTarVolumes() throws Exception {
+        Path target = folder.newFolder("volumes").toPath();
+        Map<String, byte[]> content = writeVolumes(target, ArchiveFormat.TAR_ZSTD);
+
+        VolumeIndex index = VolumeIndex.read(target.resolve("dump" + VolumeIndex.INDEX_SUFFIX));
+        assertTrue(index.getVolumes().size() > 1);
+        Map<String, byte[]> read = new HashMap<>();
+        for (VolumeIndex.Volume volume : index.getVolumes()) {
+            assertEquals(volume.getChecksum(), checksum(target.resolve(volume.getName())));
+            try (ArchiveReader reader = ArchiveFormat.open(Files.newInputStream(target.resolve(volume.getName())))) {
+                ArchiveReader.Entry entry;
+                while ((entry = reader.next()) != null) {
+                    read.put(entry.getName(), reader.getInputStream().readAllBytes());
+                }
+            }
+        }
+        assertContent(content, read);
+    }
+
+    @Test
+    public void testAbortedExportLeavesNoFiles() throws Exception {
+        Path target = folder.newFolder("volumes").toPath();
+        try (VolumeWriter writer = new VolumeWriter(target, "dump", VOLUME_SIZE, out -> new ParallelZipWriter(out, 2, policy()))) {
+            writer.putStream("metadata/1/meta.xml", new ByteArrayInputStream(new byte[1000]), 0);
+        }
+        try (Stream<Path> files = Files.list(target)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("dump" + VolumeIndex.INDEX_SUFFIX);
+        VolumeIndex index = new VolumeIndex();
+        index.add(new VolumeIndex.Volume("dump.001.goobi", 10, "aa"));
+        index.add(new VolumeIndex.Volume("dump.002.goobi", 5, "bb"));
+        index.write(file, "dump");
+
+        VolumeIndex read = VolumeIndex.read(file);
+        assertEquals(index.getVolumes(), read.getVolumes());
+        assertEquals(15, read.getTotalSize());
+        assertTrue(VolumeIndex.isIndex(file));
+        assertFalse(VolumeIndex.isIndex(file.resolveSibling("dump.001.goobi")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testIndexWithPath() throws Exception {
+        Path file = folder.newFile("dump" + VolumeIndex.INDEX_SUFFIX).toPath();
+        Files.write(file, "../dump.001.goobi\t10\taa\n".getBytes(StandardCharsets.UTF_8));
+        VolumeIndex.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testEmptyIndex() throws Exception {
+        Path file = folder.newFile("dump" + VolumeIndex.INDEX_SUFFIX).toPath();
+        Files.write(file, "# no volumes\n".getBytes(StandardCharsets.UTF_8));
+        VolumeIndex.read(file);
+    }
+
+    private Map<String, byte[]> writeVolumes(Path target, ArchiveFormat format) throws IOException {
+        Map<String, byte[]> content = new HashMap<>();
+        Random random = new Random(42);
+        Path source = folder.newFolder("source").toPath();
+        try (VolumeWriter writer = new VolumeWriter(target, "dump", VOLUME_SIZE,
+                out -> format.createWriter(out, 2, ArchiveFormat.DEFAULT_ZSTD_LEVEL, policy(), source))) {
+            for (int i = 0; i < 20; i++) {
+                byte[] data = new byte[random.nextInt(64 * 1024)];
+                random.nextBytes(data);
+                String name = "metadata/" + i + "/images/" + i + ".tif";
+                Path file = source.resolve(i + ".tif");
+                Files.write(file, data);
+                writer.putFile(name, file);
+                content.put(name, data);
+            }
+            writer.finish();
+            List<VolumeIndex.Volume> volumes = writer.getVolumes();
+            assertTrue(Files.exists(writer.getIndexFile()));
+            assertEquals(volumes.size(), VolumeIndex.read(writer.getIndexFile()).getVolumes().size());
+        }
+        return content;
+    }
+
+    private static void assertContent(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    static CompressionPolicy policy() {
+        return new CompressionPolicy(new XMLConfiguration());
+    }
+
+    private static String checksum(Path file) throws IOException {
+        return VolumeIndex.toHex(VolumeIndex.newDigest().digest(Files.readAllBytes(file)));
+    }
+}
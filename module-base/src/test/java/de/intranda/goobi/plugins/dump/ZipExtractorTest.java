@@ -0,0 +1,130 @@
+package de.intranda.goobi.plugins.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZipExtractorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExtract() throws Exception {
+        Path zip = createZip("metadata/1/meta.xml", "metadata/2/meta.xml", "sql/goobi.sql");
+        Path target = folder.newFolder("target").toPath();
+        ZipExtractor extractor = new ZipExtractor(zip, target, 2);
+        extractor.setFilter(name -> !name.startsWith("sql/"));
+        AtomicInteger extracted = new AtomicInteger();
+        extractor.extract((name, bytes) -> extracted.incrementAndGet());
+
+        assertEquals(2, extractor.getTotalFiles());
+        assertEquals(2, extracted.get());
+        assertTrue(extractor.getErrors().isEmpty());
+        assertEquals("metadata/2/meta.xml", ProcessMergerTest.read(target.resolve("metadata/2/meta.xml")));
+        assertFalse(Files.exists(target.resolve("sql")));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Path zip = createZip("metadata/1/meta.xml", "metadata/2/meta.xml", "metadata/3/meta.xml");
+        Path target = folder.newFolder("target").toPath();
+        ZipExtractor extractor = new ZipExtractor(zip, target, 2);
+        AtomicInteger extracted = new AtomicInteger();
+        extractor.setCancelled(() -> extracted.get() > 0);
+        try {
+            extractor.extract((name, bytes) -> extracted.incrementAndGet());
+            fail("The extraction was not cancelled");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        assertTrue(extracted.get() < 3);
+    }
+
+    @Test
+    public void testExtractArchiveOfTheWriter() throws Exception {
+        Random random = new Random(3);
+        Map<String, byte[]> content = new HashMap<>();
+        byte[] image = new byte[200 * 1024];
+        random.nextBytes(image);
+        content.put("metadata/1/images/00000001.tif", image);
+        content.put("metadata/1/meta.xml", "<mets:mets>\n".repeat(200000).getBytes(StandardCharsets.UTF_8));
+        content.put("metadata/2/meta.xml", new byte[0]);
+        Path zip = folder.newFile().toPath();
+        try (ParallelZipWriter writer = new ParallelZipWriter(Files.newOutputStream(zip), 2, VolumeWriterTest.policy())) {
+            // local headers with ZIP64 extra fields
+            writer.setZip64Threshold(1024);
+            for (Map.Entry<String, byte[]> entry : content.entrySet()) {
+                writer.putStream(entry.getKey(), new ByteArrayInputStream(entry.getValue()), 0, entry.getValue().length);
+            }
+            writer.finish();
+        }
+
+        Path target = folder.newFolder("target").toPath();
+        ZipExtractor extractor = new ZipExtractor(zip, target, 3);
+        extractor.extract(null);
+        assertTrue(extractor.getErrors().isEmpty());
+        for (Map.Entry<String, byte[]> entry : content.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), Files.readAllBytes(target.resolve(entry.getKey())));
+        }
+    }
+
+    @Test
+    public void testCorruptEntry() throws Exception {
+        String name = "metadata/1/images/00000001.tif";
+        Path zip = folder.newFile().toPath();
+        try (ParallelZipWriter writer = new ParallelZipWriter(Files.newOutputStream(zip), 1, VolumeWriterTest.policy())) {
+            writer.putStream(name, new ByteArrayInputStream(new byte[1000]), 0, 1000);
+            writer.putStream("metadata/1/meta.xml", new ByteArrayInputStream(new byte[1000]), 0, 1000);
+            writer.finish();
+        }
+        // change a byte of the stored content of the first entry
+        byte[] data = Files.readAllBytes(zip);
+        data[30 + name.length() + 10] = 1;
+        Files.write(zip, data);
+
+        Path target = folder.newFolder("target").toPath();
+        ZipExtractor extractor = new ZipExtractor(zip, target, 2);
+        extractor.extract(null);
+        assertEquals(1, extractor.getErrors().size());
+        assertTrue(extractor.getErrors().get(0).startsWith(name));
+        assertEquals(1000, Files.size(target.resolve("metadata/1/meta.xml")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testEntryOutsideOfTheTarget() throws Exception {
+        Path zip = createZip("metadata/1/meta.xml", "../outside.txt");
+        new ZipExtractor(zip, folder.newFolder("target").toPath(), 1).prepare();
+    }
+
+    private Path createZip(String... names) throws IOException {
+        Path zip = folder.newFile().toPath();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (String name : names) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+}
@@ -0,0 +1,69 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.dump.ArchiveFormat;
+import de.intranda.goobi.plugins.dump.ArchiveWriter;
+import de.intranda.goobi.plugins.dump.CompressionPolicy;
+import de.intranda.goobi.plugins.dump.ParallelZipWriter;
+import de.intranda.goobi.plugins.dump.TreeScanner;
+
+/**
+ * Adding the folders to the archive, like the exporter does it: the folders are walked by the {@link TreeScanner} and each file is
+ * compressed by the {@link ParallelZipWriter} or by the writer of another {@link ArchiveFormat}. The archive is discarded, so that only
+ * reading and compressing is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    @Param({ "1", "4" })
+    public int compressionThreads;
+
+    @Param("4")
+    public int scanThreads;
+
+    @Param({ "zip", "tar.zst", "tar.lz4" })
+    public String format;
+
+    @Param("3")
+    public int zstdLevel;
+
+    @Benchmark
+    public long addFolders(GoobiTree tree, Counters counters) throws IOException, InterruptedException {
+        CompressionPolicy policy = new CompressionPolicy(new XMLConfiguration());
+        CountingOutputStream out = new CountingOutputStream(OutputStream.nullOutputStream());
+        try (TreeScanner scanner = new TreeScanner(scanThreads, null);
+                ArchiveWriter zip = ArchiveFormat.fromName(format).createWriter(out, compressionThreads, zstdLevel, policy,
+                        Paths.get(System.getProperty("java.io.tmpdir")))) {
+            scanner.start(tree.getFolders());
+            TreeScanner.Entry entry;
+            while ((entry = scanner.next()) != null) {
+                zip.putFile(entry.getName(), entry.getPath());
+                counters.add(1, entry.getSize());
+            }
+            zip.finish();
+            return out.getByteCount();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package de.intranda.goobi.plugins.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary results of the benchmarks. JMH reports them as rates, so that each benchmark shows files/s and MB/s in addition to its
+ * operations.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Counters {
+
+    public long files;
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        files = 0;
+        megabytes = 0;
+    }
+
+    public void add(long fileCount, long bytes) {
+        files += fileCount;
+        megabytes += bytes / (1024d * 1024d);
+    }
+}
@@ -0,0 +1,87 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.dump.CompressionPolicy;
+import de.intranda.goobi.plugins.dump.ParallelZipWriter;
+import de.intranda.goobi.plugins.dump.TreeScanner;
+import de.intranda.goobi.plugins.dump.ZipExtractor;
+
+/**
+ * Extracting an uploaded dump from the local disk, like the importer does it if the streaming import is disabled. The dump is created once
+ * from the synthetic tree, each invocation extracts it into a new folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ExtractBenchmark {
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private Path dump;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void createDump(GoobiTree tree) throws IOException, InterruptedException {
+        dump = tree.getRoot().resolveSibling(tree.getRoot().getFileName() + ".goobi");
+        try (OutputStream out = Files.newOutputStream(dump);
+                ParallelZipWriter zip = new ParallelZipWriter(out, Runtime.getRuntime().availableProcessors(),
+                        new CompressionPolicy(new XMLConfiguration()));
+                TreeScanner scanner = new TreeScanner(4, null)) {
+            scanner.start(tree.getFolders());
+            TreeScanner.Entry entry;
+            while ((entry = scanner.next()) != null) {
+                zip.putFile(entry.getName(), entry.getPath());
+            }
+            zip.finish();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createTarget(GoobiTree tree) throws IOException {
+        target = Files.createTempDirectory(tree.getRoot().getParent(), "exchange-extract");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget() throws IOException {
+        FileUtils.deleteDirectory(target.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDump() throws IOException {
+        Files.deleteIfExists(dump);
+    }
+
+    @Benchmark
+    public long unzipUploadedFile(Counters counters) throws IOException, InterruptedException {
+        ZipExtractor extractor = new ZipExtractor(dump, target, threads);
+        extractor.prepare();
+        extractor.extract(null);
+        counters.add(extractor.getTotalFiles(), extractor.getTotalBytes());
+        return extractor.getTotalBytes();
+    }
+}
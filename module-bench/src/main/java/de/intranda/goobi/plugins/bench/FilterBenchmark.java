@@ -0,0 +1,67 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.dump.Exclude;
+import de.intranda.goobi.plugins.dump.ExportFilter;
+
+/**
+ * Checking the paths of the tree against the exclusions of the default configuration, like the exporter does it for the metadata folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FilterBenchmark {
+
+    private ExportFilter filter;
+    private List<String> paths;
+
+    @Setup(Level.Trial)
+    public void prepare(GoobiTree tree) throws IOException {
+        filter = new ExportFilter(List.of(new Exclude("images-Ordner", ".*images.*", true), new Exclude("master-Ordner", ".*master.*", true),
+                new Exclude("media-Ordner", ".*media.*", true), new Exclude("tif-Dateien", ".*tif", true),
+                new Exclude("tiffwriter.conf-Datei", ".*tiffwriter.conf", true)));
+        paths = tree.getArchivePaths();
+    }
+
+    @Benchmark
+    public int checkPaths(Counters counters) {
+        int excluded = 0;
+        for (String path : paths) {
+            if (filter.isExcluded(path)) {
+                excluded++;
+            }
+        }
+        counters.add(paths.size(), 0);
+        return excluded;
+    }
+
+    @Benchmark
+    public int checkDirectories(Counters counters) {
+        int excluded = 0;
+        for (String path : paths) {
+            if (filter.isDirectoryExcluded(path)) {
+                excluded++;
+            }
+        }
+        counters.add(paths.size(), 0);
+        return excluded;
+    }
+}
@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Synthetic Goobi folder structure that is shared by all benchmarks of a trial. The size of the tree is set using the JMH parameters, e.g.
+ * <code>-p processes=1000 -p imageSize=8192</code>. The tree is created in the temporary folder, another folder can be set using the system
+ * property <code>bench.folder</code>, so that different file systems can be compared.
+ */
+@State(Scope.Benchmark)
+public class GoobiTree {
+
+    @Param("100")
+    public int processes;
+
+    @Param("10")
+    public int images;
+
+    // size of each image in KB
+    @Param("512")
+    public int imageSize;
+
+    private Path root;
+    private Map<String, Path> folders;
+    private List<Path> files;
+    private long bytes;
+
+    @Setup(Level.Trial)
+    public void create() throws IOException {
+        String base = System.getProperty("bench.folder");
+        root = base == null ? Files.createTempDirectory("exchange-bench") : Files.createTempDirectory(Path.of(base), "exchange-bench");
+        new TreeGenerator().processes(processes).images(images).imageSize(imageSize * 1024).generate(root);
+        folders = new LinkedHashMap<>();
+        for (String name : new String[] { "config", "rulesets", "scripts", "metadata" }) {
+            folders.put(name, root.resolve(name));
+        }
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            bytes += Files.size(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * get the exported folders like the exporter names them inside of the archive
+     */
+    public Map<String, Path> getFolders() {
+        return folders;
+    }
+
+    /**
+     * get the paths of all files and folders inside of the archive
+     */
+    public List<String> getArchivePaths() throws IOException {
+        List<String> paths = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(p -> !p.equals(root)).forEach(p -> paths.add(root.relativize(p).toString().replace('\\', '/')));
+        }
+        return paths;
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
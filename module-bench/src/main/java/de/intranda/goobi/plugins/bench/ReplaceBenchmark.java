@@ -0,0 +1,83 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.dump.TrashFolder;
+
+/**
+ * Replacing the metadata folder with the extracted one, like the importer does it for a full dump. {@link #replaceFolder(Counters)} deletes
+ * the old folder before the new folder is moved into its place, {@link #swapFolder(Counters)} renames the old folder into a trash folder
+ * that gets deleted in the background, like the importer does it. Copying both folders before each invocation is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ReplaceBenchmark {
+
+    private Path work;
+    private Path extracted;
+    private Path existing;
+    private long files;
+    private long bytes;
+    private TrashFolder trash;
+
+    @Setup(Level.Invocation)
+    public void copyFolders(GoobiTree tree) throws IOException {
+        work = Files.createTempDirectory(tree.getRoot().getParent(), "exchange-replace");
+        extracted = work.resolve("dump").resolve("metadata");
+        existing = work.resolve("goobi").resolve("metadata");
+        Path source = tree.getRoot().resolve("metadata");
+        FileUtils.copyDirectory(source.toFile(), extracted.toFile());
+        FileUtils.copyDirectory(source.toFile(), existing.toFile());
+        if (trash == null) {
+            trash = new TrashFolder(tree.getRoot().getParent().resolve("exchange-trash"), 4);
+        }
+        if (files == 0) {
+            try (Stream<Path> stream = Files.walk(source)) {
+                files = stream.filter(Files::isRegularFile).count();
+            }
+            bytes = FileUtils.sizeOfDirectory(source.toFile());
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteFolders() throws IOException {
+        FileUtils.deleteDirectory(work.toFile());
+    }
+
+    @Benchmark
+    public void replaceFolder(Counters counters) throws IOException {
+        FileUtils.deleteDirectory(existing.toFile());
+        Files.move(extracted, existing);
+        counters.add(files, bytes);
+    }
+
+    @Benchmark
+    public void swapFolder(Counters counters) throws IOException {
+        trash.dispose(existing);
+        Files.move(extracted, existing, StandardCopyOption.ATOMIC_MOVE);
+        counters.add(files, bytes);
+    }
+}
@@ -0,0 +1,142 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Creates a synthetic Goobi folder structure for the benchmarks. Each process folder contains METS files with their backups, a folder with
+ * TIFF-like images of random content and a folder with small ocr files, similar to the metadata folder of a real installation. In addition
+ * small config, rulesets and scripts folders are created.
+ *
+ * The content is generated with a fixed seed, so that repeated runs use the same data.
+ */
+public class TreeGenerator {
+
+    private static final String METS_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\">\n";
+
+    private int processes = 100;
+    private int metsFiles = 3;
+    private int images = 10;
+    private int imageSize = 1024 * 1024;
+    private int ocrFiles = 10;
+    private final Random random = new Random(42);
+
+    public TreeGenerator processes(int count) {
+        this.processes = count;
+        return this;
+    }
+
+    /**
+     * @param count number of METS files of each process, the first one is meta.xml, the others are backups like meta.xml.1
+     */
+    public TreeGenerator metsFiles(int count) {
+        this.metsFiles = count;
+        return this;
+    }
+
+    public TreeGenerator images(int count) {
+        this.images = count;
+        return this;
+    }
+
+    /**
+     * @param bytes size of each image, the content is random and cannot be compressed
+     */
+    public TreeGenerator imageSize(int bytes) {
+        this.imageSize = bytes;
+        return this;
+    }
+
+    public TreeGenerator ocrFiles(int count) {
+        this.ocrFiles = count;
+        return this;
+    }
+
+    /**
+     * create the structure below the given folder
+     *
+     * @param root folder that gets the subfolders metadata, config, rulesets and scripts
+     * @throws IOException
+     */
+    public void generate(Path root) throws IOException {
+        byte[] image = new byte[imageSize];
+        for (int process = 1; process <= processes; process++) {
+            Path folder = root.resolve("metadata").resolve(String.valueOf(process));
+            String title = "PPN" + (100000000 + process);
+            Files.createDirectories(folder);
+            for (int i = 0; i < metsFiles; i++) {
+                writeMets(folder.resolve(i == 0 ? "meta.xml" : "meta.xml." + i), title);
+            }
+            Path media = Files.createDirectories(folder.resolve("images").resolve(title + "_media"));
+            for (int i = 1; i <= images; i++) {
+                random.nextBytes(image);
+                Files.write(media.resolve(String.format("%08d.tif", i)), image);
+            }
+            Path ocr = Files.createDirectories(folder.resolve("ocr").resolve(title + "_txt"));
+            for (int i = 1; i <= ocrFiles; i++) {
+                Files.write(ocr.resolve(String.format("%08d.txt", i)), text(2000).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        for (String name : new String[] { "config", "rulesets", "scripts" }) {
+            Path folder = Files.createDirectories(root.resolve(name));
+            for (int i = 1; i <= 20; i++) {
+                Files.write(folder.resolve(name + "_" + i + ".xml"), text(5000).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private void writeMets(Path file, String title) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            StringBuilder mets = new StringBuilder(METS_HEADER);
+            for (int i = 1; i <= Math.max(1, images); i++) {
+                mets.append("  <mets:file ID=\"FILE_").append(i).append("\" MIMETYPE=\"image/tiff\"><mets:FLocat xlink:href=\"file:///");
+                mets.append(title).append("_media/").append(String.format("%08d.tif", i)).append("\"/></mets:file>\n");
+                mets.append("  <mods:title>").append(text(200)).append("</mods:title>\n");
+            }
+            mets.append("</mets:mets>\n");
+            out.write(mets.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int word = 2 + random.nextInt(10);
+            for (int i = 0; i < word; i++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            text.append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * create a tree from the command line: folder [processes] [images per process] [image size in KB]
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TreeGenerator <folder> [processes] [images per process] [image size in KB]");
+            System.exit(1);
+        }
+        TreeGenerator generator = new TreeGenerator();
+        if (args.length > 1) {
+            generator.processes(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            generator.images(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            generator.imageSize(Integer.parseInt(args[3]) * 1024);
+        }
+        generator.generate(Paths.get(args[0]));
+    }
+}
@@ -0,0 +1,188 @@
+package de.intranda.goobi.plugins.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Servlet to download the staging files of finished background exports. The servlet supports single byte ranges including the If-Range
+ * header, so that interrupted downloads can be resumed by the browser or by download tools like curl or wget.
+ *
+ * The files get registered by the exporter in the session attribute {@value #DOWNLOAD_REGISTRY}, so only the session that started the export
+ * can download it. The session must belong to a user who is allowed to use the plugin.
+ */
+@Log4j2
+@WebServlet(urlPatterns = "/exchange/download/*")
+public class ExchangeDownloadServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -2419017436418541353L;
+
+    // must be identical with the constant in the Exporter class
+    private static final String DOWNLOAD_REGISTRY = "intranda_administration_exchange_downloads";
+    // must be identical with the constant in the AccessGuard class
+    static final String USER_ATTRIBUTE = "intranda_administration_exchange_user";
+
+    // must be identical with the content types and file extensions of the ArchiveFormat class
+    private static final String[][] CONTENT_TYPES = { { ".goobi.tar.zst", "application/zstd" }, { ".goobi.tar.lz4", "application/x-lz4" },
+            { ".goobi", "application/zip" } };
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        HttpSession session = request.getSession(false);
+        if (!isAuthorized(session)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        Path file = getRegisteredFile(session, request.getPathInfo());
+        if (file == null || !Files.isRegularFile(file)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long length = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        String etag = "\"" + length + "-" + lastModified + "\"";
+
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        String[] type = getContentType(file.getFileName().toString());
+        response.setContentType(type[1]);
+        response.setHeader("Content-Disposition", "attachment;filename=\"dump" + type[0] + "\"");
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        if (range != null && isRangeValid(request.getHeader("If-Range"), etag, lastModified)) {
+            Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+            if (!matcher.matches() || matcher.group(1).isEmpty() && matcher.group(2).isEmpty()) {
+                // multiple or malformed ranges are ignored and the entire file gets delivered
+                log.debug("Ignoring unsupported range header {}", range);
+            } else {
+                if (matcher.group(1).isEmpty()) {
+                    // suffix range, the last n bytes
+                    start = Math.max(0, length - Long.parseLong(matcher.group(2)));
+                } else {
+                    start = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()) {
+                        end = Math.min(end, Long.parseLong(matcher.group(2)));
+                    }
+                }
+                if (start >= length || start > end) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long written = channel.transferTo(position, remaining, target);
+                if (written <= 0) {
+                    break;
+                }
+                position += written;
+                remaining -= written;
+            }
+            out.flush();
+        } catch (IOException e) {
+            // client aborted the download, it can be resumed later
+            log.debug("Download of {} was interrupted: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * check if a range request is allowed to be answered partially. If the If-Range header does not match the current version of the file, the
+     * entire file must be sent
+     *
+     * @param ifRange
+     * @param etag
+     * @param lastModified
+     * @return true if the range can be served
+     */
+    private boolean isRangeValid(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            // http dates have a precision of seconds only
+            return lastModified / 1000 <= date / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * get the file extension and the content type of a staging file, the exporter names the files after the format of the archive
+     *
+     * @param name
+     * @return the extension and the content type
+     */
+    static String[] getContentType(String name) {
+        for (String[] type : CONTENT_TYPES) {
+            if (name.endsWith(type[0])) {
+                return type;
+            }
+        }
+        // files of older versions are zip archives
+        return CONTENT_TYPES[CONTENT_TYPES.length - 1];
+    }
+
+    /**
+     * check if the session belongs to a user who is allowed to use the plugin
+     *
+     * @param session
+     * @return true if the request can be served
+     */
+    static boolean isAuthorized(HttpSession session) {
+        return session != null && session.getAttribute(USER_ATTRIBUTE) instanceof String;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Path getRegisteredFile(HttpSession session, String pathInfo) {
+        if (pathInfo == null || pathInfo.length() < 2) {
+            return null;
+        }
+        Object registry = session.getAttribute(DOWNLOAD_REGISTRY);
+        if (!(registry instanceof Map)) {
+            return null;
+        }
+        return ((Map<String, Path>) registry).get(pathInfo.substring(1));
+    }
+}
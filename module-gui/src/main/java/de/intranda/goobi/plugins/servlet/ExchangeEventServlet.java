@@ -0,0 +1,295 @@
+package de.intranda.goobi.plugins.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Servlet that pushes the progress of exports and imports to the browser as server-sent events. The page subscribes once using an
+ * EventSource, afterwards all open streams are served by a single timer thread. A progress event is only sent if something has changed, new
+ * messages are sent with their sequence number as event id, so that the browser continues with the next message after a reconnect.
+ *
+ * The exporter and importer register their progress in the session attribute {@value #SESSION_ATTRIBUTE}. The session must belong to a user
+ * who is allowed to use the plugin.
+ */
+@Log4j2
+@WebServlet(urlPatterns = "/exchange/events/*", asyncSupported = true)
+public class ExchangeEventServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 3861532750265472109L;
+
+    // must be identical with the constant in the ProgressChannel class
+    private static final String SESSION_ATTRIBUTE = "intranda_administration_exchange_progress";
+
+    private static final long INTERVAL = 1000;
+    private static final long HEARTBEAT = 15000;
+    // the stream gets closed after this time, the browser reconnects automatically
+    private static final long STREAM_TIMEOUT = 5 * 60 * 1000;
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private transient ScheduledExecutorService timer;
+
+    @Override
+    public void init() {
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "exchange-events");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::publish, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        timer.shutdownNow();
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        subscriptions.clear();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        HttpSession session = request.getSession(false);
+        String channel = request.getPathInfo() == null ? "" : request.getPathInfo().substring(1);
+        if (!ExchangeDownloadServlet.isAuthorized(session)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        if (getSource(session, channel) == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long sequence = -1;
+        String lastEventId = request.getHeader("Last-Event-ID");
+        if (lastEventId == null) {
+            lastEventId = request.getParameter("lastEventId");
+        }
+        if (lastEventId != null && lastEventId.matches("-?\\d+")) {
+            sequence = Long.parseLong(lastEventId);
+        }
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        // disable buffering in reverse proxies like nginx
+        response.setHeader("X-Accel-Buffering", "no");
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(STREAM_TIMEOUT);
+        Subscription subscription = new Subscription(context, session, channel, sequence);
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                subscriptions.remove(subscription);
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                subscription.close();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                subscription.close();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // nothing to do
+            }
+        });
+        subscriptions.add(subscription);
+        subscription.writer.write("retry: 5000\n\n");
+        subscription.send();
+    }
+
+    /**
+     * send the changes to all open streams, this is called by the timer thread
+     */
+    private void publish() {
+        Iterator<Subscription> iterator = subscriptions.iterator();
+        while (iterator.hasNext()) {
+            Subscription subscription = iterator.next();
+            try {
+                subscription.send();
+            } catch (RuntimeException e) {
+                // the session got invalidated or the client disconnected
+                log.debug("Closing event stream: {}", e.getMessage());
+                iterator.remove();
+                subscription.close();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LongFunction<Map<String, Object>> getSource(HttpSession session, String channel) {
+        Object channels = session.getAttribute(SESSION_ATTRIBUTE);
+        if (!(channels instanceof Map)) {
+            return null;
+        }
+        return ((Map<String, LongFunction<Map<String, Object>>>) channels).get(channel);
+    }
+
+    /**
+     * a single open event stream
+     */
+    private static class Subscription {
+        private final AsyncContext context;
+        private final HttpSession session;
+        private final String channel;
+        private final PrintWriter writer;
+        private long sequence;
+        private String lastProgress;
+        private long lastWrite;
+
+        Subscription(AsyncContext context, HttpSession session, String channel, long sequence) throws IOException {
+            this.context = context;
+            this.session = session;
+            this.channel = channel;
+            this.sequence = sequence;
+            this.writer = context.getResponse().getWriter();
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void send() {
+            LongFunction<Map<String, Object>> source = getSource(session, channel);
+            if (source == null) {
+                throw new IllegalStateException("channel " + channel + " is not registered anymore");
+            }
+            Map<String, Object> event = source.apply(sequence);
+            List<Map<String, Object>> messages = (List<Map<String, Object>>) event.remove("messages");
+            String progress = toJson(event);
+            long now = System.currentTimeMillis();
+            boolean written = false;
+            if (!progress.equals(lastProgress)) {
+                writer.write("event: progress\ndata: " + progress + "\n\n");
+                lastProgress = progress;
+                written = true;
+            }
+            if (messages != null && !messages.isEmpty()) {
+                sequence = ((Number) messages.get(messages.size() - 1).get("seq")).longValue();
+                writer.write("id: " + sequence + "\nevent: messages\ndata: " + toJson(messages) + "\n\n");
+                written = true;
+            }
+            if (!written && now - lastWrite > HEARTBEAT) {
+                // comment line to keep the connection open
+                writer.write(": heartbeat\n\n");
+                written = true;
+            }
+            if (written) {
+                lastWrite = now;
+                writer.flush();
+                if (writer.checkError()) {
+                    throw new IllegalStateException("client disconnected");
+                }
+            }
+        }
+
+        void close() {
+            try {
+                context.complete();
+            } catch (IllegalStateException e) {
+                // completed already
+            }
+        }
+    }
+
+    /**
+     * internal method to serialise the events, they only contain maps, lists, strings, numbers and booleans
+     *
+     * @param value
+     * @return the json representation
+     */
+    static String toJson(Object value) {
+        StringBuilder json = new StringBuilder();
+        appendJson(json, value);
+        return json.toString();
+    }
+
+    private static void appendJson(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else if (value instanceof Map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendString(json, Objects.toString(entry.getKey()));
+                json.append(':');
+                appendJson(json, entry.getValue());
+            }
+            json.append('}');
+        } else if (value instanceof Iterable) {
+            json.append('[');
+            boolean first = true;
+            for (Object item : (Iterable<?>) value) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendJson(json, item);
+            }
+            json.append(']');
+        } else {
+            appendString(json, value.toString());
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    // the line separators are not allowed in javascript strings
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,130 @@
+package de.intranda.goobi.plugins.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * Servlet for chunked uploads of goobi dumps. The browser splits the file into chunks of a fixed size and sends several chunks at the same
+ * time, each with its sha-256 checksum. An interrupted upload continues with the chunks that are still missing.
+ *
+ * <ul>
+ * <li>POST /exchange/upload?name=...&amp;size=...&amp;key=... creates an upload or resumes the upload with the same key</li>
+ * <li>GET /exchange/upload/{id} returns the state of the upload including the missing chunks</li>
+ * <li>PUT /exchange/upload/{id}/{index} writes a chunk, the checksum is sent in the header X-Checksum</li>
+ * <li>DELETE /exchange/upload/{id} aborts the upload</li>
+ * </ul>
+ *
+ * The requests are handled by a function that the importer registers in the session attribute {@value #SESSION_ATTRIBUTE}. The session must
+ * belong to a user who is allowed to use the plugin.
+ */
+@WebServlet(urlPatterns = "/exchange/upload/*")
+public class ExchangeUploadServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -5083162720931786485L;
+
+    // must be identical with the constant in the UploadManager class
+    private static final String SESSION_ATTRIBUTE = "intranda_administration_exchange_upload";
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("action", "create");
+        parameters.put("name", request.getParameter("name"));
+        parameters.put("size", request.getParameter("size"));
+        parameters.put("key", request.getParameter("key"));
+        handle(request, response, parameters);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String[] path = splitPath(request);
+        if (path.length != 1) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("action", "status");
+        parameters.put("id", path[0]);
+        handle(request, response, parameters);
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String[] path = splitPath(request);
+        if (path.length != 2) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("action", "chunk");
+        parameters.put("id", path[0]);
+        parameters.put("index", path[1]);
+        parameters.put("checksum", request.getHeader("X-Checksum"));
+        handle(request, response, parameters);
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String[] path = splitPath(request);
+        if (path.length != 1) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("action", "delete");
+        parameters.put("id", path[0]);
+        handle(request, response, parameters);
+    }
+
+    private void handle(HttpServletRequest request, HttpServletResponse response, Map<String, String> parameters) throws IOException {
+        HttpSession session = request.getSession(false);
+        if (!ExchangeDownloadServlet.isAuthorized(session)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        BiFunction<Map<String, String>, InputStream, Map<String, Object>> handler = getHandler(session);
+        if (handler == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        Map<String, Object> result;
+        try (InputStream body = request.getInputStream()) {
+            result = handler.apply(parameters, body);
+        }
+        Object status = result.get("status");
+        if (status instanceof Number) {
+            response.setStatus(((Number) status).intValue());
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Cache-Control", "no-cache");
+        response.getWriter().write(ExchangeEventServlet.toJson(result));
+    }
+
+    private static String[] splitPath(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || pathInfo.length() < 2) {
+            return new String[0];
+        }
+        return pathInfo.substring(1).split("/");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BiFunction<Map<String, String>, InputStream, Map<String, Object>> getHandler(HttpSession session) {
+        Object handler = session.getAttribute(SESSION_ATTRIBUTE);
+        if (!(handler instanceof BiFunction)) {
+            return null;
+        }
+        return (BiFunction<Map<String, String>, InputStream, Map<String, Object>>) handler;
+    }
+}